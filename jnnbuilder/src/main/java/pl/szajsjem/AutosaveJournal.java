@@ -0,0 +1,462 @@
+package pl.szajsjem;
+
+import pl.szajsjem.elements.Node;
+import pl.szajsjem.graph.GraphModel;
+import pl.szajsjem.graph.GraphSnapshot;
+import pl.szajsjem.graph.NodeRecord;
+
+import javax.swing.*;
+import javax.swing.Timer;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the design, so unsaved work survives a crash.
+ * Shortly after each edit the graph model is snapshotted and a writer thread
+ * appends only the nodes that changed since the previous entry, syncing to
+ * disk once per batch. When the journal has grown well past the size of the
+ * design it is compacted into a single full snapshot, written to a temp file
+ * and renamed over the journal. On the next start a journal that doesn't end
+ * with a save can be replayed to get the work back.
+ * <p>
+ * Frames are length-prefixed and carry a CRC, so a frame torn by a crash is
+ * recognised and everything before it is still recovered.
+ */
+public class AutosaveJournal {
+    private static final int DEBOUNCE_MS = 1000;
+    // Frames arriving within this window share one fsync
+    private static final long BATCH_WINDOW_MS = 200;
+    private static final long COMPACT_MIN_BYTES = 1024 * 1024;
+    private static final int COMPACT_GROWTH = 4;
+    // Anything longer is garbage left by a torn write
+    private static final int MAX_FRAME = 1 << 30;
+
+    private static final byte FRAME_FILE = 1;
+    private static final byte FRAME_SETTINGS = 2;
+    private static final byte FRAME_FULL = 3;
+    private static final byte FRAME_DELTA = 4;
+    private static final byte FRAME_CLEAN = 5;
+
+    // What a journal left behind by an earlier session contained
+    public static class Recovery {
+        public final List<Node> nodes;
+        public final String filePath;
+        public final String trainSettings;
+
+        Recovery(List<Node> nodes, String filePath, String trainSettings) {
+            this.nodes = nodes;
+            this.filePath = filePath;
+            this.trainSettings = trainSettings;
+        }
+    }
+
+    // Work item for the writer; a snapshot, a metadata frame or a command
+    private record Entry(byte kind, GraphSnapshot snapshot, String text) {
+    }
+
+    private static final Entry STOP = new Entry((byte) 0, null, null);
+    private static final byte COMPACT = -1;
+
+    private final Path journalFile;
+    private final Path tempFile;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final GraphModel graphModel;
+    private final Consumer<String> errorListener;
+    private final Timer debounceTimer;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    // Only touched on the event dispatch thread, null once the writer has stopped
+    private Thread writer;
+
+    // Only touched on the event dispatch thread
+    private GraphSnapshot lastQueued;
+
+    // Only touched by the writer thread
+    private FileChannel channel;
+    private GraphSnapshot lastWritten;
+    private String lastFilePath;
+    private String lastSettings;
+    private boolean clean;
+    private long compactedSize;
+    // Frames appended since the last force
+    private boolean unsynced;
+
+    private AutosaveJournal(Path directory, FileChannel lockChannel, FileLock lock,
+                            GraphModel graphModel, Consumer<String> errorListener) {
+        this.journalFile = directory.resolve("journal.bin");
+        this.tempFile = directory.resolve("journal.tmp");
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+        this.graphModel = graphModel;
+        this.errorListener = errorListener;
+        debounceTimer = new Timer(DEBOUNCE_MS, e -> queueSnapshot());
+        debounceTimer.setRepeats(false);
+    }
+
+    public static Path defaultDirectory() {
+        return Path.of(System.getProperty("user.home"), ".jnnbuilder", "autosave");
+    }
+
+    /**
+     * Takes ownership of the journal in the directory. Fails if another
+     * editor instance already has it. Nothing is written until
+     * {@link #start} is called, so a left-over journal can be recovered first.
+     */
+    public static AutosaveJournal open(Path directory, GraphModel graphModel,
+                                       Consumer<String> errorListener) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel lockChannel = FileChannel.open(directory.resolve("journal.lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Autosave is in use by another window");
+        }
+        return new AutosaveJournal(directory, lockChannel, lock, graphModel, errorListener);
+    }
+
+    /**
+     * Reads the journal left by an earlier session. Returns null if there
+     * is none, it is empty, or it ends with a save.
+     */
+    public Recovery recover() throws IOException {
+        if (!Files.exists(journalFile)) return null;
+
+        Map<Integer, NodeRecord> records = new HashMap<>();
+        String filePath = null;
+        String settings = null;
+        boolean dirty = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            byte[] frame;
+            while ((frame = readFrame(in)) != null) {
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(frame, 1, frame.length - 1));
+                switch (frame[0]) {
+                    case FRAME_FILE -> filePath = readText(payload);
+                    case FRAME_SETTINGS -> settings = readText(payload);
+                    case FRAME_FULL -> {
+                        records.clear();
+                        int count = payload.readInt();
+                        for (int i = 0; i < count; i++) {
+                            NodeRecord record = NodeRecord.readFrom(payload);
+                            records.put(record.getId(), record);
+                        }
+                        dirty = payload.readBoolean();
+                    }
+                    case FRAME_DELTA -> {
+                        int upserts = payload.readInt();
+                        for (int i = 0; i < upserts; i++) {
+                            NodeRecord record = NodeRecord.readFrom(payload);
+                            records.put(record.getId(), record);
+                        }
+                        int removes = payload.readInt();
+                        for (int i = 0; i < removes; i++) {
+                            records.remove(payload.readInt());
+                        }
+                        dirty = true;
+                    }
+                    case FRAME_CLEAN -> dirty = false;
+                    default -> {
+                        // Written by a newer version, skip it
+                    }
+                }
+            }
+        }
+        if (!dirty) return null;
+
+        List<Node> nodes = GraphSnapshot.of(0, records.values()).materialize();
+        return new Recovery(nodes, filePath, settings);
+    }
+
+    // Null at the end of the journal or at a frame torn by a crash
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > MAX_FRAME) return null;
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            long crc = in.readInt() & 0xFFFFFFFFL;
+            return crc == crc(frame) ? frame : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the old journal with the current state and starts recording
+     * edits. dirty says whether the current state has unsaved changes.
+     */
+    public void start(String filePath, String trainSettings, boolean dirty) {
+        lastQueued = graphModel.snapshot();
+        queue.add(new Entry(FRAME_FILE, null, filePath));
+        queue.add(new Entry(FRAME_SETTINGS, null, trainSettings));
+        queue.add(new Entry(COMPACT, lastQueued, dirty ? null : ""));
+        writer = new Thread(this::writeLoop, "autosave-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Call after every edit, the journal is updated once the edits stop for a moment
+    public void schedule() {
+        if (writer != null) debounceTimer.restart();
+    }
+
+    public void setCurrentFile(String filePath) {
+        if (writer != null) queue.add(new Entry(FRAME_FILE, null, filePath));
+    }
+
+    public void setTrainSettings(String trainSettings) {
+        if (writer != null) queue.add(new Entry(FRAME_SETTINGS, null, trainSettings));
+    }
+
+    // The design was saved, there is nothing to recover up to this point
+    public void markClean() {
+        if (writer == null) return;
+        queueSnapshot();
+        queue.add(new Entry(FRAME_CLEAN, null, null));
+    }
+
+    // Stops the writer and removes the journal, for a normal exit
+    public void discard() {
+        close();
+        try {
+            Files.deleteIfExists(journalFile);
+            Files.deleteIfExists(tempFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void close() {
+        debounceTimer.stop();
+        if (writer != null) {
+            queue.add(STOP);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void queueSnapshot() {
+        debounceTimer.stop();
+        GraphSnapshot snapshot = graphModel.snapshot();
+        if (snapshot != lastQueued) {
+            lastQueued = snapshot;
+            queue.add(new Entry(FRAME_DELTA, snapshot, null));
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            List<Entry> batch = new ArrayList<>();
+            while (true) {
+                batch.add(queue.take());
+                // Give the rest of a burst a moment to arrive so it shares the fsync
+                Entry next = queue.poll(BATCH_WINDOW_MS, TimeUnit.MILLISECONDS);
+                if (next != null) batch.add(next);
+                queue.drainTo(batch);
+
+                boolean stop = false;
+                for (int i = 0; i < batch.size(); i++) {
+                    Entry entry = batch.get(i);
+                    if (entry == STOP) {
+                        stop = true;
+                        break;
+                    }
+                    // Consecutive snapshots collapse into one diff against the newest
+                    if (entry.kind() == FRAME_DELTA && i + 1 < batch.size()
+                            && batch.get(i + 1).kind() == FRAME_DELTA) {
+                        continue;
+                    }
+                    write(entry);
+                }
+                batch.clear();
+                if (channel != null) {
+                    if (unsynced) {
+                        channel.force(false);
+                        unsynced = false;
+                    }
+                    if (channel.size() > Math.max(COMPACT_MIN_BYTES, compactedSize * COMPACT_GROWTH)) {
+                        compact(lastWritten);
+                    }
+                }
+                if (stop) break;
+            }
+        } catch (InterruptedException ignored) {
+            // Closing
+        } catch (IOException e) {
+            SwingUtilities.invokeLater(() -> {
+                // Nothing drains the queue any more, so stop filling it
+                debounceTimer.stop();
+                writer = null;
+                queue.clear();
+                errorListener.accept("Autosave stopped: " + e.getMessage());
+            });
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+                channel = null;
+            }
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        switch (entry.kind()) {
+            case COMPACT -> {
+                clean = entry.text() != null;
+                compact(entry.snapshot());
+            }
+            case FRAME_FILE -> {
+                lastFilePath = entry.text();
+                if (channel != null) append(textFrame(FRAME_FILE, lastFilePath));
+            }
+            case FRAME_SETTINGS -> {
+                lastSettings = entry.text();
+                if (channel != null) append(textFrame(FRAME_SETTINGS, lastSettings));
+            }
+            case FRAME_CLEAN -> {
+                clean = true;
+                append(new byte[]{FRAME_CLEAN});
+            }
+            case FRAME_DELTA -> {
+                byte[] frame = deltaFrame(lastWritten, entry.snapshot());
+                if (frame != null) {
+                    clean = false;
+                    append(frame);
+                }
+                lastWritten = entry.snapshot();
+            }
+            default -> throw new IllegalStateException("Unknown journal entry " + entry.kind());
+        }
+    }
+
+    // Only the nodes that differ between the two snapshots are written
+    private static byte[] deltaFrame(GraphSnapshot before, GraphSnapshot after) throws IOException {
+        List<NodeRecord> upserts = new ArrayList<>();
+        List<Integer> removes = new ArrayList<>();
+        before.diff(after, (id, a, b) -> {
+            if (b == null) removes.add(id);
+            else upserts.add(b);
+        });
+        if (upserts.isEmpty() && removes.isEmpty()) return null;
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(FRAME_DELTA);
+        out.writeInt(upserts.size());
+        for (NodeRecord record : upserts) {
+            record.writeTo(out);
+        }
+        out.writeInt(removes.size());
+        for (int id : removes) {
+            out.writeInt(id);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static byte[] textFrame(byte kind, String text) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(kind);
+        out.writeBoolean(text != null);
+        if (text != null) {
+            byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) return null;
+        byte[] utf8 = new byte[in.readInt()];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the whole state to a temp file and renames it over the journal,
+     * so at any moment either the old or the new journal is complete.
+     */
+    private void compact(GraphSnapshot snapshot) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)))) {
+            writeFrame(out, textFrame(FRAME_FILE, lastFilePath));
+            writeFrame(out, textFrame(FRAME_SETTINGS, lastSettings));
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream full = new DataOutputStream(buffer);
+            List<NodeRecord> records = snapshot.getRecords();
+            full.writeByte(FRAME_FULL);
+            full.writeInt(records.size());
+            for (NodeRecord record : records) {
+                record.writeTo(full);
+            }
+            full.writeBoolean(!clean);
+            writeFrame(out, buffer.toByteArray());
+        }
+        try (FileChannel temp = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            temp.force(true);
+        }
+
+        if (channel != null) channel.close();
+        try {
+            Files.move(tempFile, journalFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        channel = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        compactedSize = channel.size();
+        // The compacted file was forced before it replaced the journal
+        unsynced = false;
+        lastWritten = snapshot;
+    }
+
+    private void append(byte[] frame) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(frame.length + 8);
+        buffer.putInt(frame.length).put(frame).putInt((int) crc(frame)).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        unsynced = true;
+    }
+
+    private static void writeFrame(DataOutputStream out, byte[] frame) throws IOException {
+        out.writeInt(frame.length);
+        out.write(frame);
+        out.writeInt((int) crc(frame));
+    }
+
+    private static long crc(byte[] frame) {
+        CRC32 crc = new CRC32();
+        crc.update(frame);
+        return crc.getValue();
+    }
+}
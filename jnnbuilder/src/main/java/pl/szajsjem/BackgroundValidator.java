@@ -0,0 +1,213 @@
+package pl.szajsjem;
+
+import com.beednn.NetTrain;
+import pl.szajsjem.elements.Node;
+import pl.szajsjem.graph.GraphModel;
+import pl.szajsjem.graph.GraphSnapshot;
+import pl.szajsjem.graph.NodeRecord;
+
+import javax.swing.*;
+import javax.swing.Timer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Validates and pre-compiles the network on a worker thread. Edits restart a
+ * short debounce timer; when it fires a snapshot of the graph is validated
+ * and, if it has no errors, turned into a ready-to-build serializer. A job
+ * still running when a newer snapshot arrives is cancelled. Results are
+ * delivered on the event dispatch thread.
+ */
+public class BackgroundValidator {
+    private static final int DEBOUNCE_MS = 500;
+
+    public static class Result {
+        public final GraphSnapshot snapshot;
+        public final List<String> errors;
+        public final List<String> warnings;
+        // Ids of the nodes the errors are about
+        public final Set<Integer> invalidNodeIds;
+        // Pre-compiled serializer, null if the network has errors
+        public final NetworkStructureSerializer serializer;
+
+        Result(GraphSnapshot snapshot, List<String> errors, List<String> warnings,
+               Set<Integer> invalidNodeIds, NetworkStructureSerializer serializer) {
+            this.snapshot = snapshot;
+            this.errors = errors;
+            this.warnings = warnings;
+            this.invalidNodeIds = invalidNodeIds;
+            this.serializer = serializer;
+        }
+
+        public long getVersion() {
+            return snapshot.getVersion();
+        }
+
+        public boolean hasErrors() {
+            return !errors.isEmpty();
+        }
+
+        // Same outcome for a newer snapshot that only moved nodes around
+        Result forSnapshot(GraphSnapshot newer) {
+            return new Result(newer, errors, warnings, invalidNodeIds, serializer);
+        }
+    }
+
+    private final GraphModel graphModel;
+    private final Supplier<NetTrain> netTrain;
+    private final Consumer<Result> listener;
+    private final Timer debounceTimer;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "network-validator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only touched on the event dispatch thread
+    private Future<?> running;
+    private long runningVersion = -1;
+    private Result lastResult;
+    private final List<PendingRequest> pendingRequests = new ArrayList<>();
+
+    private record PendingRequest(long version, Consumer<Result> callback) {
+    }
+
+    public BackgroundValidator(GraphModel graphModel, Supplier<NetTrain> netTrain, Consumer<Result> listener) {
+        this.graphModel = graphModel;
+        this.netTrain = netTrain;
+        this.listener = listener;
+        debounceTimer = new Timer(DEBOUNCE_MS, e -> submit(graphModel.snapshot()));
+        debounceTimer.setRepeats(false);
+    }
+
+    // Call after every edit, validation runs once the edits stop for a moment
+    public void schedule() {
+        debounceTimer.restart();
+    }
+
+    /**
+     * Calls back with a result for the graph as it is now. Uses the last
+     * result if nothing changed since, otherwise validates right away
+     * without waiting for the debounce.
+     */
+    public void requestNow(Consumer<Result> callback) {
+        debounceTimer.stop();
+        GraphSnapshot snapshot = graphModel.snapshot();
+        if (lastResult != null && lastResult.getVersion() == snapshot.getVersion()) {
+            callback.accept(lastResult);
+            return;
+        }
+        pendingRequests.add(new PendingRequest(snapshot.getVersion(), callback));
+        submit(snapshot);
+    }
+
+    public Result getLastResult() {
+        return lastResult;
+    }
+
+    public void shutdown() {
+        debounceTimer.stop();
+        executor.shutdownNow();
+    }
+
+    private void submit(GraphSnapshot snapshot) {
+        long version = snapshot.getVersion();
+        if (version == runningVersion || (lastResult != null && lastResult.getVersion() == version)) {
+            return;
+        }
+        if (running != null) {
+            running.cancel(true);
+        }
+
+        Result previous = lastResult;
+        NetTrain train = netTrain.get();
+        runningVersion = version;
+        running = executor.submit(() -> {
+            try {
+                Result result = validate(snapshot, previous, train);
+                SwingUtilities.invokeLater(() -> publish(result));
+            } catch (CancellationException ignored) {
+                // A newer snapshot took over
+            } catch (Exception | LinkageError e) {
+                // Still publish something, callers waiting in requestNow() would hang otherwise
+                List<String> errors = List.of("Validation failed: " + e);
+                Result result = new Result(snapshot, errors, List.of(), Set.of(), null);
+                SwingUtilities.invokeLater(() -> publish(result));
+            }
+        });
+    }
+
+    private void publish(Result result) {
+        // A result for a snapshot older than the last one published is stale
+        if (lastResult != null && result.getVersion() < lastResult.getVersion()) return;
+        lastResult = result;
+        if (runningVersion == result.getVersion()) {
+            running = null;
+            runningVersion = -1;
+        }
+        listener.accept(result);
+
+        Iterator<PendingRequest> it = pendingRequests.iterator();
+        while (it.hasNext()) {
+            PendingRequest request = it.next();
+            if (request.version() <= result.getVersion()) {
+                it.remove();
+                request.callback().accept(result);
+            }
+        }
+    }
+
+    // Runs on the worker thread
+    private static Result validate(GraphSnapshot snapshot, Result previous, NetTrain netTrain) {
+        if (previous != null && onlyMoved(previous.snapshot, snapshot)) {
+            return previous.forSnapshot(snapshot);
+        }
+
+        List<NodeRecord> records = snapshot.getRecords();
+        List<Node> nodes = snapshot.materialize();
+        checkCancelled();
+
+        NetworkValidator.ValidationResult validation = NetworkValidator.validate(nodes, netTrain);
+        checkCancelled();
+
+        // materialize() returns nodes in record order, map problems back to the editor's ids
+        Map<Node, Integer> ids = new IdentityHashMap<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            ids.put(nodes.get(i), records.get(i).getId());
+        }
+        Set<Integer> invalidIds = new HashSet<>();
+        for (Node node : validation.invalidNodes) {
+            Integer id = ids.get(node);
+            if (id != null) invalidIds.add(id);
+        }
+
+        List<String> errors = new ArrayList<>(validation.errors);
+        NetworkStructureSerializer serializer = null;
+        if (errors.isEmpty()) {
+            try {
+                serializer = new NetworkStructureSerializer(nodes);
+                serializer.precompile();
+            } catch (IllegalStateException e) {
+                errors.add("Compilation failed: " + e.getMessage());
+                serializer = null;
+            }
+        }
+        return new Result(snapshot, errors, validation.warnings, invalidIds, serializer);
+    }
+
+    private static boolean onlyMoved(GraphSnapshot before, GraphSnapshot after) {
+        boolean[] structural = new boolean[1];
+        before.diff(after, (id, a, b) -> {
+            if (a == null || b == null || !a.sameStructure(b)) structural[0] = true;
+        });
+        return !structural[0];
+    }
+
+    private static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException();
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package pl.szajsjem;
+
+import pl.szajsjem.elements.ConnectionPoint;
+import pl.szajsjem.elements.Node;
+import pl.szajsjem.elements.SpecialNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Compact binary encoding of a design. The file starts with a small header
+ * and a table of sections, each of which can be read on its own:
+ * <ul>
+ *     <li>STRINGS - every layer type and string parameter, stored once</li>
+ *     <li>STRUCTURE - nodes as string table references, packed float
+ *     parameters and connections as (node index, point index) varints</li>
+ *     <li>LAYOUT - node positions, delta encoded from the previous node</li>
+ *     <li>TRAIN - the training settings from {@code NetTrain.save()}</li>
+ * </ul>
+ * Everything is little-endian. Integers are unsigned LEB128 varints, signed
+ * ones are zigzag encoded first.
+ */
+public class BinaryNetworkSerializer {
+    static final byte[] MAGIC = {(byte) 0x89, 'B', 'N', 'N'};
+    private static final int VERSION = 1;
+
+    public static final int SECTION_STRINGS = 1;
+    public static final int SECTION_STRUCTURE = 2;
+    public static final int SECTION_LAYOUT = 3;
+    public static final int SECTION_TRAIN = 4;
+
+    // Magic, version, section count
+    private static final int HEADER_SIZE = MAGIC.length + 2 + 2;
+    // Id, reserved, offset, length
+    private static final int TABLE_ENTRY_SIZE = 2 + 2 + 8 + 8;
+    private static final int SECTION_ALIGNMENT = 8;
+
+    public static boolean isBinary(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(MAGIC.length);
+            while (head.hasRemaining() && channel.read(head) > 0) ;
+            return !head.hasRemaining() && Arrays.equals(head.array(), MAGIC);
+        }
+    }
+
+    public static void saveToFile(Path path, List<Node> nodes, String trainSettings) throws IOException {
+        Map<Integer, byte[]> sections = new LinkedHashMap<>();
+        encodeNetwork(nodes, trainSettings, sections);
+        writeSections(path, sections);
+    }
+
+    // Adds the design sections to the map, shared with other files built on this container
+    static void encodeNetwork(List<Node> nodes, String trainSettings, Map<Integer, byte[]> sections) {
+        Map<Node, Integer> nodeIndices = new IdentityHashMap<>(nodes.size() * 2);
+        for (Node node : nodes) {
+            nodeIndices.put(node, nodeIndices.size());
+        }
+
+        Map<String, Integer> stringIndices = new HashMap<>();
+        ByteSink strings = new ByteSink();
+        ByteSink structure = new ByteSink();
+        ByteSink layout = new ByteSink();
+
+        structure.writeVarint(nodes.size());
+        layout.writeVarint(nodes.size());
+        int lastX = 0, lastY = 0;
+        for (Node node : nodes) {
+            structure.writeVarint(intern(node.getType(), stringIndices, strings));
+            structure.write(node instanceof SpecialNode ? 1 : 0);
+
+            String[] stringParams = node.getStringParams();
+            structure.writeVarint(stringParams.length);
+            for (String param : stringParams) {
+                structure.writeVarint(intern(param, stringIndices, strings));
+            }
+
+            float[] floatParams = node.getFloatParams();
+            structure.writeVarint(floatParams.length);
+            for (float param : floatParams) {
+                structure.writeFloat(param);
+            }
+
+            // Every connection is kept on both of its ends in memory but written once, from
+            // the output side. Inputs only record links the other end doesn't know about.
+            int pointCount = node.getPointCount();
+            structure.writeVarint(pointCount);
+            for (int p = 0; p < pointCount; p++) {
+                ConnectionPoint point = node.getPoint(p);
+                int count = 0;
+                for (ConnectionPoint other : point.connected) {
+                    if (written(point, other, nodeIndices)) count++;
+                }
+                structure.writeVarint(count);
+                for (ConnectionPoint other : point.connected) {
+                    if (!written(point, other, nodeIndices)) continue;
+                    structure.writeVarint(nodeIndices.get(other.parent));
+                    structure.writeVarint(other.parent.indexOfPoint(other));
+                }
+            }
+
+            layout.writeSignedVarint(node.x - lastX);
+            layout.writeSignedVarint(node.y - lastY);
+            lastX = node.x;
+            lastY = node.y;
+        }
+
+        ByteSink stringTable = new ByteSink();
+        stringTable.writeVarint(stringIndices.size());
+        stringTable.write(strings);
+
+        sections.put(SECTION_STRINGS, stringTable.toByteArray());
+        sections.put(SECTION_STRUCTURE, structure.toByteArray());
+        sections.put(SECTION_LAYOUT, layout.toByteArray());
+        if (trainSettings != null) {
+            sections.put(SECTION_TRAIN, trainSettings.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static boolean written(ConnectionPoint point, ConnectionPoint other, Map<Node, Integer> nodeIndices) {
+        if (!nodeIndices.containsKey(other.parent) || other.parent.indexOfPoint(other) < 0) {
+            // Dangling connection to something outside the design
+            return false;
+        }
+        return !point.isInput() || !other.connected.contains(point);
+    }
+
+    // Index 0 stands for a null string
+    private static int intern(String value, Map<String, Integer> indices, ByteSink strings) {
+        if (value == null) return 0;
+        Integer index = indices.get(value);
+        if (index == null) {
+            index = indices.size() + 1;
+            indices.put(value, index);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            strings.writeVarint(bytes.length);
+            strings.write(bytes, 0, bytes.length);
+        }
+        return index;
+    }
+
+    static void writeSections(Path path, Map<Integer, byte[]> sections) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + sections.size() * TABLE_ENTRY_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putShort((short) VERSION).putShort((short) sections.size());
+
+        // Sections start on 8 byte boundaries so numeric blobs can be mapped and read in place
+        List<ByteBuffer> buffers = new ArrayList<>();
+        buffers.add(header);
+        long offset = header.capacity();
+        for (Map.Entry<Integer, byte[]> section : sections.entrySet()) {
+            int padding = (int) (-offset & (SECTION_ALIGNMENT - 1));
+            if (padding > 0) {
+                buffers.add(ByteBuffer.allocate(padding));
+                offset += padding;
+            }
+            header.putShort(section.getKey().shortValue()).putShort((short) 0)
+                    .putLong(offset).putLong(section.getValue().length);
+            buffers.add(ByteBuffer.wrap(section.getValue()));
+            offset += section.getValue().length;
+        }
+        header.flip();
+
+        ByteBuffer[] all = buffers.toArray(new ByteBuffer[0]);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long remaining = offset;
+            while (remaining > 0) {
+                remaining -= channel.write(all);
+            }
+            channel.force(true);
+        }
+    }
+
+    public static NetworkSerializer.ParsedNetwork readNetwork(Path path) throws IOException {
+        try (SectionFile file = SectionFile.open(path)) {
+            return new NetworkSerializer.ParsedNetwork(file.readNodes(true), file.readTrainSettings());
+        }
+    }
+
+    /**
+     * An open binary file. Only the header and section table are read up
+     * front; each section is read when asked for, so e.g. the training
+     * settings can be fetched without decoding the graph.
+     */
+    public static class SectionFile implements Closeable {
+        private final FileChannel channel;
+        private final Map<Integer, long[]> table = new HashMap<>();
+
+        private SectionFile(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        public static SectionFile open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            SectionFile file = new SectionFile(channel);
+            try {
+                file.readTable();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            return file;
+        }
+
+        private void readTable() throws IOException {
+            ByteBuffer header = read(0, HEADER_SIZE);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a binary network file");
+            }
+            int version = header.getShort() & 0xFFFF;
+            if (version > VERSION) {
+                throw new IOException("File format version " + version + " is newer than supported (" + VERSION + ")");
+            }
+            int count = header.getShort() & 0xFFFF;
+            ByteBuffer entries = read(HEADER_SIZE, count * TABLE_ENTRY_SIZE);
+            long size = channel.size();
+            for (int i = 0; i < count; i++) {
+                int id = entries.getShort() & 0xFFFF;
+                entries.getShort();
+                long offset = entries.getLong();
+                long length = entries.getLong();
+                if (offset < 0 || length < 0 || offset + length > size) {
+                    throw new IOException("Section " + id + " lies outside the file");
+                }
+                table.put(id, new long[]{offset, length});
+            }
+        }
+
+        public boolean hasSection(int id) {
+            return table.containsKey(id);
+        }
+
+        // The raw section, or null if the file doesn't have it
+        ByteBuffer readSection(int id) throws IOException {
+            long[] entry = table.get(id);
+            if (entry == null) return null;
+            if (entry[1] > Integer.MAX_VALUE) {
+                throw new IOException("Section " + id + " is too large");
+            }
+            return read(entry[0], (int) entry[1]);
+        }
+
+        // Maps the section read-only instead of copying it; stays valid after close()
+        ByteBuffer mapSection(int id) throws IOException {
+            long[] entry = table.get(id);
+            if (entry == null) return null;
+            return channel.map(FileChannel.MapMode.READ_ONLY, entry[0], entry[1]).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            return buffer.flip();
+        }
+
+        public String readTrainSettings() throws IOException {
+            ByteBuffer section = readSection(SECTION_TRAIN);
+            return section != null ? StandardCharsets.UTF_8.decode(section).toString() : null;
+        }
+
+        /**
+         * Decodes the nodes and links them on both ends. Without the layout
+         * every node is left at the origin.
+         */
+        public List<Node> readNodes(boolean withLayout) throws IOException {
+            ByteBuffer stringSection = readSection(SECTION_STRINGS);
+            ByteBuffer structure = readSection(SECTION_STRUCTURE);
+            if (stringSection == null || structure == null) {
+                throw new IOException("File has no network structure");
+            }
+            try {
+                String[] strings = readStrings(stringSection);
+                List<Node> nodes = readStructure(structure, strings);
+                ByteBuffer layout = withLayout ? readSection(SECTION_LAYOUT) : null;
+                if (layout != null) {
+                    readLayout(layout, nodes);
+                }
+                return nodes;
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new IOException("Corrupt network file", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer in) {
+        String[] strings = new String[readVarint(in) + 1];
+        for (int i = 1; i < strings.length; i++) {
+            int length = readVarint(in);
+            strings[i] = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        }
+        return strings;
+    }
+
+    private static List<Node> readStructure(ByteBuffer in, String[] strings) throws IOException {
+        int count = readVarint(in);
+        List<Node> nodes = new ArrayList<>(count);
+        // Links are resolved once every node exists: source point, target node, target point
+        int[] linkData = new int[count * 4];
+        int linkCount = 0;
+
+        for (int n = 0; n < count; n++) {
+            String type = strings[readVarint(in)];
+            boolean special = in.get() != 0;
+            if (type == null) {
+                throw new IOException("Node " + n + " has no type");
+            }
+            Node node = special ? new SpecialNode(type) : new Node(type);
+
+            String[] stringParams = new String[readVarint(in)];
+            for (int i = 0; i < stringParams.length; i++) {
+                stringParams[i] = strings[readVarint(in)];
+            }
+            float[] floatParams = new float[readVarint(in)];
+            for (int i = 0; i < floatParams.length; i++) {
+                floatParams[i] = in.getFloat();
+            }
+            node.setStringParams(stringParams);
+            node.setFloatParams(floatParams);
+
+            int pointCount = readVarint(in);
+            for (int p = 0; p < pointCount; p++) {
+                int links = readVarint(in);
+                for (int i = 0; i < links; i++) {
+                    if (linkCount + 4 > linkData.length) {
+                        linkData = Arrays.copyOf(linkData, linkData.length * 2 + 4);
+                    }
+                    linkData[linkCount++] = n;
+                    linkData[linkCount++] = p;
+                    linkData[linkCount++] = readVarint(in);
+                    linkData[linkCount++] = readVarint(in);
+                }
+            }
+            nodes.add(node);
+        }
+
+        for (int i = 0; i < linkCount; i += 4) {
+            ConnectionPoint from = point(nodes, linkData[i], linkData[i + 1]);
+            ConnectionPoint to = point(nodes, linkData[i + 2], linkData[i + 3]);
+            if (!from.connected.contains(to)) from.connected.add(to);
+            if (!to.connected.contains(from)) to.connected.add(from);
+        }
+        return nodes;
+    }
+
+    private static ConnectionPoint point(List<Node> nodes, int node, int index) throws IOException {
+        if (node < 0 || node >= nodes.size()) {
+            throw new IOException("Connection to missing node " + node);
+        }
+        ConnectionPoint point = nodes.get(node).getPoint(index);
+        if (point == null) {
+            throw new IOException("Connection to missing point " + index + " of node " + node);
+        }
+        return point;
+    }
+
+    private static void readLayout(ByteBuffer in, List<Node> nodes) throws IOException {
+        if (readVarint(in) != nodes.size()) {
+            throw new IOException("Layout doesn't match the network structure");
+        }
+        int x = 0, y = 0;
+        for (Node node : nodes) {
+            x += readSignedVarint(in);
+            y += readSignedVarint(in);
+            node.x = x;
+            node.y = y;
+        }
+    }
+
+    static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IndexOutOfBoundsException("Varint too long");
+    }
+
+    static int readSignedVarint(ByteBuffer in) {
+        int value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Growable little-endian byte buffer
+    static class ByteSink {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        void write(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        void write(byte[] source, int offset, int length) {
+            ensure(length);
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        void write(ByteSink other) {
+            write(other.bytes, 0, other.size);
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeSignedVarint(int value) {
+            writeVarint((value << 1) ^ (value >> 31));
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            bytes[size++] = (byte) value;
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) (value >>> 16);
+            bytes[size++] = (byte) (value >>> 24);
+        }
+
+        void writeFloat(float value) {
+            writeInt(Float.floatToRawIntBits(value));
+        }
+
+        void writeString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length);
+            write(utf8, 0, utf8.length);
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
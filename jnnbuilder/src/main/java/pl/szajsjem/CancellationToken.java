@@ -0,0 +1,36 @@
+package pl.szajsjem;
+
+/**
+ * Lets one thread ask work running on another to stop. The work polls
+ * {@link #isCancelled()} at points where it can stop cleanly and calls
+ * {@link #acknowledge()} when it does, which records how long stopping took.
+ */
+public class CancellationToken {
+    // nanoTime() has an arbitrary origin and can be negative, so the flag is kept apart from the timestamp
+    private volatile boolean cancelled;
+    private long requestedAt;
+    private volatile long latencyNanos = -1;
+
+    public synchronized void cancel() {
+        if (!cancelled) {
+            requestedAt = System.nanoTime();
+            cancelled = true;
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Called by the cancelled work once it has actually stopped
+    public synchronized void acknowledge() {
+        if (cancelled && latencyNanos < 0) {
+            latencyNanos = System.nanoTime() - requestedAt;
+        }
+    }
+
+    // Time from cancel() to acknowledge(), or -1 if either hasn't happened
+    public long getLatencyMillis() {
+        return latencyNanos < 0 ? -1 : latencyNanos / 1_000_000;
+    }
+}
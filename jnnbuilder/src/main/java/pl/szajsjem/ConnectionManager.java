@@ -5,14 +5,30 @@ import pl.szajsjem.elements.Node;
 import pl.szajsjem.elements.SpecialNode;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
 
 public class ConnectionManager {
     private final ArrayList<Node> nodes;
+    private final List<Consumer<Node>> changeListeners = new ArrayList<>();
+    private final Set<Node> invalidNodes = new HashSet<>();
 
     public ConnectionManager(ArrayList<Node> nodes) {
         this.nodes = nodes;
     }
 
+    // Called with both nodes whenever a connection between them is made or removed
+    public void addChangeListener(Consumer<Node> listener) {
+        changeListeners.add(listener);
+    }
+
+    private void notifyChanged(ConnectionPoint a, ConnectionPoint b) {
+        for (Consumer<Node> listener : changeListeners) {
+            listener.accept(a.parent);
+            listener.accept(b.parent);
+        }
+    }
+
     /**
      * Validates connections involving special points
      */
@@ -156,8 +172,21 @@ public class ConnectionManager {
                 .toList();
     }
 
+    // Nodes the errors of the last validateNetwork() call are about
+    public Set<Node> getInvalidNodes() {
+        return invalidNodes;
+    }
+
+    // Lets a validation running on a worker thread give up when it was cancelled
+    private static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException();
+        }
+    }
+
     public List<String> validateNetwork() {
         List<String> errors = new ArrayList<>();
+        invalidNodes.clear();
 
         // Find actual input and output nodes
         List<Node> inputNodes = findRealInputNodes();
@@ -173,6 +202,7 @@ public class ConnectionManager {
 
         // Check for disconnected nodes
         for (Node node : nodes) {
+            checkInterrupted();
             boolean hasConnections = !node.prev.connected.isEmpty() ||
                     !node.next.connected.isEmpty();
 
@@ -187,14 +217,17 @@ public class ConnectionManager {
 
             if (!hasConnections && !inputNodes.contains(node) && !outputNodes.contains(node)) {
                 errors.add("Node '" + node.getLabel() + "' is disconnected");
+                invalidNodes.add(node);
             }
         }
 
         // Validate paths from inputs to outputs
         for (Node input : inputNodes) {
+            checkInterrupted();
             if (!canReachAnyOutput(input, outputNodes)) {
                 errors.add("Input node '" + input.getLabel() +
                         "' has no path to any output");
+                invalidNodes.add(input);
             }
         }
 
@@ -241,6 +274,8 @@ public class ConnectionManager {
             // Check each node in the subgraph
             for (Node node : subgraphNodes) {
                 if (node == specialNode) continue; // Skip the special node itself
+                checkInterrupted();
+                int errorCount = errors.size();
 
                 // Check inputs
                 if (node.prev.connected.isEmpty()) {
@@ -286,6 +321,10 @@ public class ConnectionManager {
                             node.getLabel(), specialNode.getLabel()
                     ));
                 }
+
+                if (errors.size() > errorCount) {
+                    invalidNodes.add(node);
+                }
             }
         }
 
@@ -349,6 +388,7 @@ public class ConnectionManager {
                     errors.add("Node '" + node.getLabel() +
                             "' receives multiple inputs but is not a parallel layer. " +
                             "Consider using a parallel layer with appropriate reduction.");
+                    invalidNodes.add(node);
                 }
             }
         }
@@ -547,6 +587,7 @@ public class ConnectionManager {
         if (!output.connected.contains(input)) {
             output.connected.add(input);
             input.connected.add(output);
+            notifyChanged(output, input);
         }
         return true;
     }
@@ -625,6 +666,7 @@ public class ConnectionManager {
         // Remove connection from both points
         source.connected.remove(target);
         target.connected.remove(source);
+        notifyChanged(source, target);
     }
 
     /**
@@ -0,0 +1,225 @@
+package pl.szajsjem;
+
+import com.beednn.Net;
+import com.beednn.NetTrain;
+import pl.szajsjem.data.CSVLoaderDialog;
+import pl.szajsjem.data.CategoricalMapping;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * k-fold cross-validation of a design. The rows are put in fold order once,
+ * so every fold is a range of that order rather than a copy of its rows,
+ * and the k networks train at the same time, one per core. When an output
+ * column is categorical the folds are stratified on it, so each fold sees
+ * the classes in about the same proportions.
+ */
+public class CrossValidation {
+    public interface Listener {
+        // Called on a worker thread with the losses of the epochs a fold just ran
+        void foldProgress(int fold, int epochsDone, float[] trainLoss, float[] validationLoss);
+    }
+
+    // Mean and variance over the folds for each epoch
+    public static class Summary {
+        public final float[] trainMean, trainVariance;
+        public final float[] validationMean, validationVariance;
+
+        Summary(float[][] train, float[][] validation) {
+            float[][] trainStats = stats(train);
+            float[][] validationStats = stats(validation);
+            trainMean = trainStats[0];
+            trainVariance = trainStats[1];
+            validationMean = validationStats[0];
+            validationVariance = validationStats[1];
+        }
+
+        // Per epoch over the folds that got that far, sample variance
+        private static float[][] stats(float[][] folds) {
+            int epochs = 0;
+            for (float[] fold : folds) epochs = Math.max(epochs, fold.length);
+            float[] mean = new float[epochs];
+            float[] variance = new float[epochs];
+            for (int e = 0; e < epochs; e++) {
+                int n = 0;
+                double m = 0, m2 = 0;
+                for (float[] fold : folds) {
+                    if (e >= fold.length) continue;
+                    n++;
+                    double delta = fold[e] - m;
+                    m += delta / n;
+                    m2 += delta * (fold[e] - m);
+                }
+                mean[e] = (float) m;
+                variance[e] = n > 1 ? (float) (m2 / (n - 1)) : 0;
+            }
+            return new float[][]{mean, variance};
+        }
+    }
+
+    private final NetworkStructureSerializer serializer;
+    private final int folds;
+    private final int rows, inputSize, outputSize;
+    // Row data in fold order, fold f is rows foldStart[f] until foldStart[f + 1]
+    private final float[] inputs, outputs;
+    private final int[] foldStart;
+    private final String stratifiedOn;
+    private final float[][] trainLoss, validationLoss;
+
+    public CrossValidation(NetworkStructureSerializer serializer, CSVLoaderDialog.LoadedData data, int folds, long seed) {
+        rows = data.inputs.length;
+        if (folds < 2 || folds > rows) {
+            throw new IllegalArgumentException("Need between 2 and " + rows + " folds");
+        }
+        this.serializer = serializer;
+        this.folds = folds;
+        inputSize = data.getEncodedInputSize();
+        outputSize = data.outputs[0].length;
+
+        int classColumn = categoricalOutput(data);
+        stratifiedOn = classColumn >= 0 ? data.outputColumnNames[classColumn] : null;
+        int[][] assignment = assignFolds(data, classColumn, folds, new Random(seed));
+
+        foldStart = new int[folds + 1];
+        inputs = new float[rows * inputSize];
+        outputs = new float[rows * outputSize];
+        int row = 0;
+        for (int f = 0; f < folds; f++) {
+            foldStart[f] = row;
+            for (int source : assignment[f]) {
+                data.encodeInputs(source, inputs, row * inputSize);
+                System.arraycopy(data.outputs[source], 0, outputs, row * outputSize, outputSize);
+                row++;
+            }
+        }
+        foldStart[folds] = rows;
+
+        trainLoss = new float[folds][0];
+        validationLoss = new float[folds][0];
+    }
+
+    // Index of the first output column with a categorical mapping, -1 if there is none
+    private static int categoricalOutput(CSVLoaderDialog.LoadedData data) {
+        Set<String> categorical = new HashSet<>();
+        for (CategoricalMapping mapping : data.categoricalMappings.values()) {
+            categorical.add(mapping.getColumnName());
+        }
+        for (int i = 0; i < data.outputColumnNames.length; i++) {
+            if (categorical.contains(data.outputColumnNames[i])) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Shuffles the rows and deals them out to the folds like cards. With a
+     * class column the rows are dealt class by class, carrying on from the
+     * fold the previous class stopped at, so every fold gets its share of
+     * each class and the fold sizes differ by at most one.
+     */
+    private static int[][] assignFolds(CSVLoaderDialog.LoadedData data, int classColumn, int folds, Random random) {
+        Map<Float, List<Integer>> byClass = new TreeMap<>();
+        for (int row = 0; row < data.outputs.length; row++) {
+            float key = classColumn >= 0 ? data.outputs[row][classColumn] : 0;
+            byClass.computeIfAbsent(key, k -> new ArrayList<>()).add(row);
+        }
+        List<List<Integer>> assigned = new ArrayList<>(folds);
+        for (int f = 0; f < folds; f++) assigned.add(new ArrayList<>());
+        int next = 0;
+        for (List<Integer> members : byClass.values()) {
+            Collections.shuffle(members, random);
+            for (int row : members) {
+                assigned.get(next).add(row);
+                next = (next + 1) % folds;
+            }
+        }
+        int[][] result = new int[folds][];
+        for (int f = 0; f < folds; f++) {
+            result[f] = assigned.get(f).stream().mapToInt(Integer::intValue).toArray();
+        }
+        return result;
+    }
+
+    public int getFolds() {
+        return folds;
+    }
+
+    // Name of the output column the folds are stratified on, null if they aren't
+    public String getStratifiedOn() {
+        return stratifiedOn;
+    }
+
+    /**
+     * Trains one network per fold with the given training settings, holding
+     * that fold out for validation. Blocks until all folds are done or the
+     * token is cancelled and returns the per-epoch statistics.
+     */
+    public Summary run(String trainSettings, int epochs, int threads, Listener listener, CancellationToken cancel)
+            throws InterruptedException {
+        ExecutorService pool = SweepRunner.newPool(Math.max(1, Math.min(threads, folds)));
+        try {
+            List<Future<?>> futures = new ArrayList<>(folds);
+            for (int f = 0; f < folds; f++) {
+                int fold = f;
+                futures.add(pool.submit(() -> trainFold(fold, trainSettings, epochs, listener, cancel)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw new IllegalStateException("Fold failed: " + cause.getMessage(), cause);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return summary();
+    }
+
+    public synchronized Summary summary() {
+        return new Summary(trainLoss.clone(), validationLoss.clone());
+    }
+
+    private void trainFold(int fold, String trainSettings, int epochs, Listener listener, CancellationToken cancel) {
+        if (cancel.isCancelled()) return;
+        int from = foldStart[fold], to = foldStart[fold + 1];
+        int validationRows = to - from;
+        int trainRows = rows - validationRows;
+
+        // BeeDNN takes whole arrays, so the training rows are the two ranges around the fold joined up
+        float[] trainInputs = new float[trainRows * inputSize];
+        float[] trainOutputs = new float[trainRows * outputSize];
+        System.arraycopy(inputs, 0, trainInputs, 0, from * inputSize);
+        System.arraycopy(inputs, to * inputSize, trainInputs, from * inputSize, (rows - to) * inputSize);
+        System.arraycopy(outputs, 0, trainOutputs, 0, from * outputSize);
+        System.arraycopy(outputs, to * outputSize, trainOutputs, from * outputSize, (rows - to) * outputSize);
+        float[] validationInputs = Arrays.copyOfRange(inputs, from * inputSize, to * inputSize);
+        float[] validationOutputs = Arrays.copyOfRange(outputs, from * outputSize, to * outputSize);
+
+        Net network;
+        TrainingDriver driver;
+        NetTrain netTrain = new NetTrain();
+        synchronized (serializer) {
+            network = serializer.buildNetwork();
+            network.init(inputSize);
+            driver = new TrainingDriver(netTrain, network, serializer.getBuiltLayers(), null, null);
+        }
+        if (trainSettings != null) {
+            netTrain.load(trainSettings);
+        }
+        netTrain.setTrainData(trainInputs, trainRows, inputSize, trainOutputs, trainRows, outputSize);
+        netTrain.setValidationData(validationInputs, validationRows, inputSize,
+                validationOutputs, validationRows, outputSize);
+
+        driver.run(0, epochs, (done, total, train, validation) -> {
+            synchronized (this) {
+                trainLoss[fold] = driver.getTrainLoss();
+                validationLoss[fold] = driver.getValidationLoss();
+            }
+            listener.foldProgress(fold, done, train, validation);
+        }, cancel);
+    }
+}
@@ -0,0 +1,192 @@
+package pl.szajsjem;
+
+import com.beednn.NetTrain;
+import pl.szajsjem.data.CSVLoaderDialog;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs {@link CrossValidation} with the current training settings and plots
+ * the mean loss over the folds, with the per-epoch mean and variance in a
+ * table below.
+ */
+public class CrossValidationDialog extends JDialog {
+    private static final long FOLD_SEED = 42;
+
+    private final NetworkStructureSerializer serializer;
+    private final CSVLoaderDialog.LoadedData data;
+    private final NetTrain netTrain;
+    private final JSpinner foldsSpinner = new JSpinner(new SpinnerNumberModel(5, 2, 100, 1));
+    private final JSpinner epochsSpinner;
+    private final JButton runButton = new JButton("Run");
+    private final JButton stopButton = new JButton("Stop");
+    private final JLabel progressLabel = new JLabel(" ");
+    private final LossGraph lossGraph = new LossGraph();
+    private final StatsTableModel statsModel = new StatsTableModel();
+    private final Timer refreshTimer;
+
+    private volatile CancellationToken cancellation;
+    private CrossValidation crossValidation;
+
+    public CrossValidationDialog(JFrame parent, NetworkStructureSerializer serializer,
+                                 CSVLoaderDialog.LoadedData data, NetTrain netTrain) {
+        super(parent, "Cross-Validation", true);
+        this.serializer = serializer;
+        this.data = data;
+        this.netTrain = netTrain;
+        epochsSpinner = new JSpinner(new SpinnerNumberModel(
+                TrainingDriver.epochsFromSettings(netTrain.save()), 1, 1_000_000, 1));
+
+        setLayout(new BorderLayout(10, 10));
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        buttonPanel.add(new JLabel("Folds:"));
+        buttonPanel.add(foldsSpinner);
+        buttonPanel.add(new JLabel("Epochs:"));
+        buttonPanel.add(epochsSpinner);
+        buttonPanel.add(runButton);
+        buttonPanel.add(stopButton);
+        buttonPanel.add(progressLabel);
+        stopButton.setEnabled(false);
+        // Each fold trains in a single fit, so its optimizer runs uninterrupted
+        stopButton.setToolTipText("Stops once the folds being trained finish; folds not started are skipped");
+        add(buttonPanel, BorderLayout.NORTH);
+
+        JPanel mainContent = new JPanel(new GridLayout(2, 1, 10, 10));
+        mainContent.add(lossGraph);
+        mainContent.add(new JScrollPane(new JTable(statsModel)));
+        add(mainContent, BorderLayout.CENTER);
+
+        runButton.addActionListener(e -> startRun());
+        stopButton.addActionListener(e -> requestStop());
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                requestStop();
+            }
+        });
+
+        // Folds report per chunk, the plot is redrawn at most twice a second
+        refreshTimer = new Timer(500, e -> refresh());
+
+        setSize(800, 700);
+        setLocationRelativeTo(parent);
+    }
+
+    private void startRun() {
+        int folds = (Integer) foldsSpinner.getValue();
+        int epochs = (Integer) epochsSpinner.getValue();
+        CrossValidation run;
+        try {
+            run = new CrossValidation(serializer, data, folds, FOLD_SEED);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this,
+                    e.getMessage(),
+                    "Cross-Validation Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        crossValidation = run;
+        String trainSettings = netTrain.save();
+        CancellationToken token = new CancellationToken();
+        cancellation = token;
+        runButton.setEnabled(false);
+        stopButton.setEnabled(true);
+        lossGraph.reset();
+        statsModel.setSummary(null);
+        progressLabel.setText(folds + " folds" + (run.getStratifiedOn() != null
+                ? ", stratified on " + run.getStratifiedOn() : ""));
+        refreshTimer.start();
+
+        var th = new Thread(() -> {
+            String message;
+            try {
+                run.run(trainSettings, epochs, Runtime.getRuntime().availableProcessors(),
+                        (fold, done, train, validation) -> {
+                        }, token);
+                message = token.isCancelled() ? "Stopped"
+                        + (token.getLatencyMillis() >= 0 ? " (stopping took " + token.getLatencyMillis() + " ms)" : "")
+                        : "Finished " + folds + " folds";
+            } catch (Exception e) {
+                message = "Cross-validation failed: " + e.getMessage();
+            }
+            String status = message;
+            SwingUtilities.invokeLater(() -> {
+                refreshTimer.stop();
+                refresh();
+                cancellation = null;
+                runButton.setEnabled(true);
+                stopButton.setEnabled(false);
+                progressLabel.setText(status);
+            });
+        }, "cross-validation");
+        th.setDaemon(true);
+        th.start();
+    }
+
+    private void requestStop() {
+        CancellationToken token = cancellation;
+        if (token == null) return;
+        token.cancel();
+        stopButton.setEnabled(false);
+        progressLabel.setText("Stopping...");
+    }
+
+    private void refresh() {
+        if (crossValidation == null) return;
+        CrossValidation.Summary summary = crossValidation.summary();
+        lossGraph.updateData(toList(summary.trainMean), toList(summary.validationMean));
+        statsModel.setSummary(summary);
+    }
+
+    private static List<Float> toList(float[] values) {
+        List<Float> list = new ArrayList<>(values.length);
+        for (float value : values) list.add(value);
+        return list;
+    }
+
+    private static class StatsTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Epoch", "Train Mean", "Train Variance",
+                "Validation Mean", "Validation Variance"};
+        private CrossValidation.Summary summary;
+
+        void setSummary(CrossValidation.Summary summary) {
+            this.summary = summary;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return summary == null ? 0 : Math.max(summary.trainMean.length, summary.validationMean.length);
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            float[] values = switch (column) {
+                case 1 -> summary.trainMean;
+                case 2 -> summary.trainVariance;
+                case 3 -> summary.validationMean;
+                case 4 -> summary.validationVariance;
+                default -> null;
+            };
+            if (values == null) return row + 1;
+            return row < values.length ? String.format("%.6f", values[row]) : "";
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package pl.szajsjem;
+
+import java.util.Arrays;
+
+/**
+ * Histogram with a fixed set of log-linear buckets (the HdrHistogram layout):
+ * every power of two is split into a constant number of linear sub-buckets,
+ * so recording is a couple of bit operations and the relative error stays
+ * bounded (about 3%) over the whole range. Not thread-safe.
+ */
+public class FixedBucketHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Largest trackable value is 2^(MAX_MAGNITUDE + 1) - 1, bigger values land in the last bucket
+    private static final int MAX_MAGNITUDE = 42;
+
+    private final long[] counts = new long[(MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT];
+    private long totalCount;
+    private long totalSum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts[bucketIndex(value)]++;
+        totalCount++;
+        totalSum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int magnitude = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_MAGNITUDE);
+        if (magnitude == MAX_MAGNITUDE && value >= (1L << (MAX_MAGNITUDE + 1))) {
+            return (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT - 1;
+        }
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile (0-100),
+     * clamped to the largest recorded value.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(totalCount * Math.min(100.0, percentile) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) totalSum / totalCount;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        totalSum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+}
@@ -0,0 +1,281 @@
+package pl.szajsjem;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Minimal pull parser for JSON. Reads tokens straight from a Reader through a
+ * small buffer, so a document of any size is parsed with constant working
+ * memory apart from the values the caller keeps.
+ */
+class JsonPullReader implements AutoCloseable {
+    enum Token {BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT}
+
+    private final Reader in;
+    private final char[] buffer = new char[16 * 1024];
+    private int pos, limit;
+    private final StringBuilder scratch = new StringBuilder();
+
+    // true right after '{' or '[' so the first element doesn't need a comma
+    private boolean first;
+    // Inside an object and expecting a member name next
+    private boolean expectName;
+    private final boolean[] inObject = new boolean[256];
+    private int depth;
+
+    JsonPullReader(Reader in) {
+        this.in = in;
+    }
+
+    Token peek() throws IOException {
+        int c = skipWhitespace();
+        if (c == -1) return Token.END_DOCUMENT;
+        if (c == ',' && !first) {
+            pos++;
+            c = skipWhitespace();
+        }
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '}':
+                return Token.END_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case ']':
+                return Token.END_ARRAY;
+            case '"':
+                return expectName ? Token.NAME : Token.STRING;
+            case 't':
+            case 'f':
+                return Token.BOOLEAN;
+            case 'n':
+                return Token.NULL;
+            default:
+                return Token.NUMBER;
+        }
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        pos++;
+        push(true);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        pos++;
+        pop();
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        pos++;
+        push(false);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        pos++;
+        pop();
+    }
+
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        pos++;
+        String name = readString();
+        if (skipWhitespace() != ':') throw syntaxError("Expected ':'");
+        pos++;
+        expectName = false;
+        first = true;
+        return name;
+    }
+
+    String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.NULL) {
+            readLiteral();
+            valueDone();
+            return null;
+        }
+        if (token != Token.STRING) throw syntaxError("Expected a string but was " + token);
+        pos++;
+        String value = readString();
+        valueDone();
+        return value;
+    }
+
+    double nextDouble() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            // org.json writes non-finite values as strings
+            return Double.parseDouble(nextString());
+        }
+        if (token != Token.NUMBER) throw syntaxError("Expected a number but was " + token);
+        double value = Double.parseDouble(readLiteral());
+        valueDone();
+        return value;
+    }
+
+    int nextInt() throws IOException {
+        if (peek() != Token.NUMBER) return toInt(nextDouble());
+        scanLiteral();
+        // Plain integers, which is what indices and coordinates are, skip Double parsing
+        int length = scratch.length();
+        boolean negative = scratch.charAt(0) == '-';
+        long value = 0;
+        int i = negative ? 1 : 0;
+        if (i < length && length - i <= 10) {
+            for (; i < length; i++) {
+                char c = scratch.charAt(i);
+                if (c < '0' || c > '9') break;
+                value = value * 10 + (c - '0');
+            }
+        }
+        double result = i == length ? (negative ? -value : value) : Double.parseDouble(scratch.toString());
+        valueDone();
+        return toInt(result);
+    }
+
+    private int toInt(double value) throws IOException {
+        if (value != (int) value) throw syntaxError("Expected an int but was " + value);
+        return (int) value;
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        String literal = readLiteral();
+        valueDone();
+        return literal.equals("true");
+    }
+
+    // Skips the next value along with everything nested in it
+    void skipValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT -> {
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+            }
+            case BEGIN_ARRAY -> {
+                beginArray();
+                while (hasNext()) skipValue();
+                endArray();
+            }
+            case STRING -> nextString();
+            case NAME -> throw syntaxError("Expected a value but was a name");
+            default -> {
+                readLiteral();
+                valueDone();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void push(boolean object) throws IOException {
+        if (depth == inObject.length) throw syntaxError("Nesting too deep");
+        inObject[depth++] = object;
+        expectName = object;
+        first = true;
+    }
+
+    private void pop() {
+        depth--;
+        valueDone();
+    }
+
+    // After a value the parent continues with a comma, inside objects with a name
+    private void valueDone() {
+        first = false;
+        expectName = depth > 0 && inObject[depth - 1];
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) throw syntaxError("Expected " + expected + " but was " + token);
+    }
+
+    private String readString() throws IOException {
+        scratch.setLength(0);
+        while (true) {
+            if (pos == limit && !fill()) throw syntaxError("Unterminated string");
+            // Copy unescaped runs in one go
+            int start = pos;
+            while (pos < limit && buffer[pos] != '"' && buffer[pos] != '\\') pos++;
+            scratch.append(buffer, start, pos - start);
+            if (pos == limit) continue;
+
+            char c = buffer[pos++];
+            if (c == '"') return scratch.toString();
+
+            if (pos == limit && !fill()) throw syntaxError("Unterminated escape");
+            char escaped = buffer[pos++];
+            switch (escaped) {
+                case 'n' -> scratch.append('\n');
+                case 't' -> scratch.append('\t');
+                case 'r' -> scratch.append('\r');
+                case 'b' -> scratch.append('\b');
+                case 'f' -> scratch.append('\f');
+                case 'u' -> {
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        if (pos == limit && !fill()) throw syntaxError("Unterminated escape");
+                        code = (code << 4) | Character.digit(buffer[pos++], 16);
+                    }
+                    scratch.append((char) code);
+                }
+                default -> scratch.append(escaped);
+            }
+        }
+    }
+
+    // Numbers, true, false and null run until the next delimiter
+    private String readLiteral() throws IOException {
+        scanLiteral();
+        return scratch.toString();
+    }
+
+    private void scanLiteral() throws IOException {
+        scratch.setLength(0);
+        while (true) {
+            if (pos == limit && !fill()) break;
+            char c = buffer[pos];
+            if (c == ',' || c == '}' || c == ']' || c == ':' || Character.isWhitespace(c)) break;
+            scratch.append(c);
+            pos++;
+        }
+        if (scratch.isEmpty()) throw syntaxError("Expected a value");
+    }
+
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) return -1;
+            char c = buffer[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+            pos++;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON: " + message);
+    }
+}
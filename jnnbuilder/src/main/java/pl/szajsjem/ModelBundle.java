@@ -0,0 +1,316 @@
+package pl.szajsjem;
+
+import pl.szajsjem.data.CategoricalMapping;
+import pl.szajsjem.data.ColumnEncoder;
+import pl.szajsjem.data.Normalization;
+import pl.szajsjem.data.PreprocessingPipeline;
+import pl.szajsjem.elements.Node;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * A design saved together with its trained network, in the same sectioned
+ * container as {@link BinaryNetworkSerializer} so it also opens as a plain
+ * design. On top of the design sections it holds the trained layers, the
+ * {@link PreprocessingPipeline} (column names, categorical dictionaries and
+ * encoders and,
+ * as raw little-endian float arrays, the normalization and clip bounds) and
+ * the loss history. The float arrays are memory mapped when the bundle is
+ * loaded rather than copied.
+ */
+public class ModelBundle {
+    static final int SECTION_MODEL = 16;
+    static final int SECTION_CATEGORIES = 17;
+    static final int SECTION_TRAIN_LOSS = 18;
+    static final int SECTION_VALIDATION_LOSS = 19;
+    static final int SECTION_INPUT_MIN = 20;
+    static final int SECTION_INPUT_RANGE = 21;
+    static final int SECTION_OUTPUT_MIN = 22;
+    static final int SECTION_OUTPUT_RANGE = 23;
+    // Only in training checkpoints
+    static final int SECTION_PROGRESS = 24;
+    static final int SECTION_CLIP_MIN = 25;
+    static final int SECTION_CLIP_MAX = 26;
+    static final int SECTION_COLUMNS = 27;
+    static final int SECTION_ENCODERS = 28;
+
+    private static final FloatBuffer NO_FLOATS = FloatBuffer.allocate(0);
+
+    public final List<Node> nodes;
+    public final String trainSettings;
+    public final int inputSize;
+    // Layer.save() output for each layer of the trained Net, in the order they were added
+    public final List<String> layers;
+    public final Map<Integer, CategoricalMapping> categoricalMappings;
+    // Null in bundles written before column names were stored
+    public final String[] inputColumnNames, outputColumnNames;
+    // By input column, null in bundles written before categories could be expanded
+    public final ColumnEncoder[] inputEncoders;
+    // Empty when the data wasn't normalized
+    public final FloatBuffer inputMin, inputRange, outputMin, outputRange;
+    // Empty when inputs aren't clipped
+    public final FloatBuffer clipMin, clipMax;
+    public final FloatBuffer trainLoss, validationLoss;
+    // Training progress of a checkpoint, both 0 for a finished model
+    public final int epochsDone, totalEpochs;
+
+    private ModelBundle(List<Node> nodes, String trainSettings, int inputSize, List<String> layers,
+                        Map<Integer, CategoricalMapping> categoricalMappings,
+                        String[] inputColumnNames, String[] outputColumnNames, ColumnEncoder[] inputEncoders,
+                        FloatBuffer inputMin, FloatBuffer inputRange, FloatBuffer outputMin, FloatBuffer outputRange,
+                        FloatBuffer clipMin, FloatBuffer clipMax,
+                        FloatBuffer trainLoss, FloatBuffer validationLoss, int epochsDone, int totalEpochs) {
+        this.nodes = nodes;
+        this.trainSettings = trainSettings;
+        this.inputSize = inputSize;
+        this.layers = layers;
+        this.categoricalMappings = categoricalMappings;
+        this.inputColumnNames = inputColumnNames;
+        this.outputColumnNames = outputColumnNames;
+        this.inputEncoders = inputEncoders;
+        this.inputMin = inputMin;
+        this.inputRange = inputRange;
+        this.outputMin = outputMin;
+        this.outputRange = outputRange;
+        this.clipMin = clipMin;
+        this.clipMax = clipMax;
+        this.trainLoss = trainLoss;
+        this.validationLoss = validationLoss;
+        this.epochsDone = epochsDone;
+        this.totalEpochs = totalEpochs;
+    }
+
+    public static boolean isBundle(Path path) throws IOException {
+        if (!BinaryNetworkSerializer.isBinary(path)) return false;
+        try (BinaryNetworkSerializer.SectionFile file = BinaryNetworkSerializer.SectionFile.open(path)) {
+            return file.hasSection(SECTION_MODEL);
+        }
+    }
+
+    /**
+     * Writes the design and the trained model to one file. The layers are
+     * serialized here, so training must have finished.
+     */
+    public static void save(Path path, List<Node> nodes, String trainSettings, TrainedModel model) throws IOException {
+        write(path, nodes, trainSettings, model.inputSize, model.saveLayers(), model.pipeline,
+                model.trainLoss, model.validationLoss, 0, 0);
+    }
+
+    /**
+     * Writes a bundle from already serialized layers, which doesn't touch
+     * BeeDNN and so can run on any thread. A non-zero totalEpochs marks the
+     * file as a checkpoint of an unfinished run.
+     */
+    static void write(Path path, List<Node> nodes, String trainSettings, int inputSize, List<String> savedLayers,
+                      PreprocessingPipeline pipeline, float[] trainLoss, float[] validationLoss, int epochsDone, int totalEpochs) throws IOException {
+        Map<Integer, byte[]> sections = new LinkedHashMap<>();
+        BinaryNetworkSerializer.encodeNetwork(nodes, trainSettings, sections);
+
+        BinaryNetworkSerializer.ByteSink modelSection = new BinaryNetworkSerializer.ByteSink();
+        modelSection.writeVarint(inputSize);
+        modelSection.writeVarint(savedLayers.size());
+        for (String layer : savedLayers) {
+            modelSection.writeString(layer);
+        }
+        sections.put(SECTION_MODEL, modelSection.toByteArray());
+
+        BinaryNetworkSerializer.ByteSink columns = new BinaryNetworkSerializer.ByteSink();
+        for (String[] names : new String[][]{pipeline.getInputColumnNames(), pipeline.getOutputColumnNames()}) {
+            columns.writeVarint(names.length);
+            for (String name : names) {
+                columns.writeString(name);
+            }
+        }
+        sections.put(SECTION_COLUMNS, columns.toByteArray());
+
+        // Per input column the encoding kind + 1, 0 for none, and its width
+        BinaryNetworkSerializer.ByteSink encoders = new BinaryNetworkSerializer.ByteSink();
+        encoders.writeVarint(pipeline.getInputEncoders().length);
+        for (ColumnEncoder encoder : pipeline.getInputEncoders()) {
+            encoders.writeVarint(encoder != null ? encoder.kind.ordinal() + 1 : 0);
+            encoders.writeVarint(encoder != null ? encoder.width : 0);
+        }
+        sections.put(SECTION_ENCODERS, encoders.toByteArray());
+
+        Map<Integer, CategoricalMapping> mappings = pipeline.getCategoricalMappings();
+        BinaryNetworkSerializer.ByteSink categories = new BinaryNetworkSerializer.ByteSink();
+        categories.writeVarint(mappings.size());
+        for (Map.Entry<Integer, CategoricalMapping> entry : new TreeMap<>(mappings).entrySet()) {
+            CategoricalMapping mapping = entry.getValue();
+            categories.writeVarint(entry.getKey());
+            categories.writeString(mapping.getColumnName());
+            List<String> values = mapping.getAllValues();
+            categories.writeVarint(values.size());
+            for (String value : values) {
+                categories.writeString(value);
+            }
+        }
+        sections.put(SECTION_CATEGORIES, categories.toByteArray());
+
+        sections.put(SECTION_TRAIN_LOSS, floats(trainLoss));
+        sections.put(SECTION_VALIDATION_LOSS, floats(validationLoss));
+        Normalization normalization = pipeline.getNormalization();
+        if (normalization != null) {
+            sections.put(SECTION_INPUT_MIN, floats(normalization.inputMin));
+            sections.put(SECTION_INPUT_RANGE, floats(normalization.inputRange));
+            sections.put(SECTION_OUTPUT_MIN, floats(normalization.outputMin));
+            sections.put(SECTION_OUTPUT_RANGE, floats(normalization.outputRange));
+        }
+        if (pipeline.getClipMin() != null) {
+            sections.put(SECTION_CLIP_MIN, floats(pipeline.getClipMin()));
+            sections.put(SECTION_CLIP_MAX, floats(pipeline.getClipMax()));
+        }
+        if (totalEpochs > 0) {
+            BinaryNetworkSerializer.ByteSink progress = new BinaryNetworkSerializer.ByteSink();
+            progress.writeVarint(epochsDone);
+            progress.writeVarint(totalEpochs);
+            sections.put(SECTION_PROGRESS, progress.toByteArray());
+        }
+
+        BinaryNetworkSerializer.writeSections(path, sections);
+    }
+
+    private static byte[] floats(float[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(values);
+        return buffer.array();
+    }
+
+    public static ModelBundle load(Path path) throws IOException {
+        try (BinaryNetworkSerializer.SectionFile file = BinaryNetworkSerializer.SectionFile.open(path)) {
+            ByteBuffer modelSection = file.readSection(SECTION_MODEL);
+            if (modelSection == null) {
+                throw new IOException("File has no trained model");
+            }
+            List<Node> nodes = file.readNodes(true);
+            String trainSettings = file.readTrainSettings();
+
+            int inputSize;
+            List<String> layers;
+            Map<Integer, CategoricalMapping> mappings = new HashMap<>();
+            int epochsDone = 0, totalEpochs = 0;
+            String[] inputNames = null, outputNames = null;
+            ColumnEncoder[] encoders = null;
+            try {
+                inputSize = BinaryNetworkSerializer.readVarint(modelSection);
+                layers = new ArrayList<>();
+                int layerCount = BinaryNetworkSerializer.readVarint(modelSection);
+                for (int i = 0; i < layerCount; i++) {
+                    layers.add(readString(modelSection));
+                }
+
+                ByteBuffer categories = file.readSection(SECTION_CATEGORIES);
+                int count = categories != null ? BinaryNetworkSerializer.readVarint(categories) : 0;
+                for (int i = 0; i < count; i++) {
+                    int column = BinaryNetworkSerializer.readVarint(categories);
+                    CategoricalMapping mapping = new CategoricalMapping(readString(categories));
+                    int values = BinaryNetworkSerializer.readVarint(categories);
+                    for (int v = 0; v < values; v++) {
+                        mapping.getOrCreateIndex(readString(categories));
+                    }
+                    mappings.put(column, mapping);
+                }
+
+                ByteBuffer columns = file.readSection(SECTION_COLUMNS);
+                if (columns != null) {
+                    inputNames = readStrings(columns);
+                    outputNames = readStrings(columns);
+                }
+
+                ByteBuffer encoderSection = file.readSection(SECTION_ENCODERS);
+                if (encoderSection != null) {
+                    encoders = new ColumnEncoder[BinaryNetworkSerializer.readVarint(encoderSection)];
+                    for (int i = 0; i < encoders.length; i++) {
+                        int kind = BinaryNetworkSerializer.readVarint(encoderSection);
+                        int width = BinaryNetworkSerializer.readVarint(encoderSection);
+                        if (kind > 0) {
+                            encoders[i] = new ColumnEncoder(ColumnEncoder.Kind.values()[kind - 1], width);
+                        }
+                    }
+                }
+
+                ByteBuffer progress = file.readSection(SECTION_PROGRESS);
+                if (progress != null) {
+                    epochsDone = BinaryNetworkSerializer.readVarint(progress);
+                    totalEpochs = BinaryNetworkSerializer.readVarint(progress);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt model bundle", e);
+            }
+
+            return new ModelBundle(nodes, trainSettings, inputSize, layers, mappings, inputNames, outputNames, encoders,
+                    mapFloats(file, SECTION_INPUT_MIN), mapFloats(file, SECTION_INPUT_RANGE),
+                    mapFloats(file, SECTION_OUTPUT_MIN), mapFloats(file, SECTION_OUTPUT_RANGE),
+                    mapFloats(file, SECTION_CLIP_MIN), mapFloats(file, SECTION_CLIP_MAX),
+                    mapFloats(file, SECTION_TRAIN_LOSS), mapFloats(file, SECTION_VALIDATION_LOSS),
+                    epochsDone, totalEpochs);
+        }
+    }
+
+    private static FloatBuffer mapFloats(BinaryNetworkSerializer.SectionFile file, int section) throws IOException {
+        ByteBuffer bytes = file.mapSection(section);
+        return bytes != null ? bytes.asFloatBuffer() : NO_FLOATS;
+    }
+
+    private static String[] readStrings(ByteBuffer in) {
+        String[] strings = new String[BinaryNetworkSerializer.readVarint(in)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(in);
+        }
+        return strings;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = BinaryNetworkSerializer.readVarint(in);
+        byte[] utf8 = new byte[length];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    // A checkpoint written while training was still running
+    public boolean isCheckpoint() {
+        return totalEpochs > 0 && epochsDone < totalEpochs;
+    }
+
+    public Normalization getNormalization() {
+        if (inputMin.capacity() == 0) return null;
+        return new Normalization(toArray(inputMin), toArray(inputRange), toArray(outputMin), toArray(outputRange));
+    }
+
+    public PreprocessingPipeline getPipeline() {
+        String[] inputs = inputColumnNames, outputs = outputColumnNames;
+        if (inputs == null) {
+            // Older bundles don't name their columns
+            inputs = numbered("Input ", inputSize);
+            outputs = numbered("Output ", outputMin.capacity());
+        }
+        return new PreprocessingPipeline(inputs, outputs, categoricalMappings, getNormalization(),
+                clipMin.capacity() > 0 ? toArray(clipMin) : null, clipMax.capacity() > 0 ? toArray(clipMax) : null,
+                inputEncoders);
+    }
+
+    private static String[] numbered(String prefix, int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = prefix + (i + 1);
+        }
+        return names;
+    }
+
+    // Rebuilds the trained network from the stored layers, no training needed
+    public TrainedModel restoreModel() {
+        return TrainedModel.restore(layers, inputSize, toArray(trainLoss), toArray(validationLoss), getPipeline());
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        float[] array = new float[buffer.capacity()];
+        buffer.duplicate().rewind().get(array);
+        return array;
+    }
+}
@@ -1,7 +1,6 @@
 package pl.szajsjem;
 
 import com.beednn.Layer;
-import com.beednn.Net;
 import com.beednn.NetTrain;
 import pl.szajsjem.data.CSVLoaderDialog;
 import pl.szajsjem.data.DataManager;
@@ -18,10 +17,12 @@ import java.awt.geom.Point2D;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class NetworkEditorGUI extends JFrame {
     private final JPanel canvas;
     private final NodeManager nodeManager;
+    private final BackgroundValidator backgroundValidator;
     private final StatusBar statusBar;
     private final ToolPanel toolPanel;
     private Point dragStart;
@@ -33,9 +34,14 @@ public class NetworkEditorGUI extends JFrame {
     private JFrame dataFrame;
     JMenu dataMenu = new JMenu("Data");
     private NetTrain netTrain;
-    private Net trainedNetwork = null;
+    private TrainedModel trainedModel = null;
     private File currentFile = null;
+    // Format used when saving over currentFile, taken from the file that was opened
+    private NetworkSerializer.Format currentFormat = NetworkSerializer.Format.JSON;
     private boolean hasUnsavedChanges = false;
+    // Null if another window owns the autosave journal
+    private AutosaveJournal autosave;
+    private boolean showPerformanceOverlay = false;
 
     public NetworkEditorGUI() {
         setTitle("Neural Network Editor");
@@ -50,8 +56,16 @@ public class NetworkEditorGUI extends JFrame {
         // Create components
         canvas = new CanvasPanel();
         nodeManager = new NodeManager(canvas, this);
+        backgroundValidator = new BackgroundValidator(nodeManager.getGraphModel(), () -> netTrain,
+                this::showValidationResult);
         toolPanel = new ToolPanel(this);
         statusBar = new StatusBar();
+        try {
+            autosave = AutosaveJournal.open(AutosaveJournal.defaultDirectory(), nodeManager.getGraphModel(),
+                    statusBar::setStatus);
+        } catch (IOException e) {
+            autosave = null;
+        }
 
         // Setup main split pane
         JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT);
@@ -81,7 +95,9 @@ public class NetworkEditorGUI extends JFrame {
             } catch (Exception e) {
                 e.printStackTrace();
             }
-            new NetworkEditorGUI().setVisible(true);
+            NetworkEditorGUI gui = new NetworkEditorGUI();
+            gui.setVisible(true);
+            gui.recoverAutosave();
         });
     }
 
@@ -331,6 +347,8 @@ public class NetworkEditorGUI extends JFrame {
             // Create data manager if it doesn't exist
             if (dataManager == null) {
                 dataManager = new DataManager();
+                // Deletions, edits and normalization in the data manager apply to what gets trained
+                dataManager.addDataListener(data -> currentData = data);
             }
 
             // Update data in manager
@@ -391,6 +409,7 @@ public class NetworkEditorGUI extends JFrame {
         // Clear all nodes and reset state
         nodeManager.getAllNodes().clear();
         nodeManager.getSelectedNodes().clear();
+        nodeManager.clearHistory();
 
         // Reset view
         zoomLevel = 1.0f;
@@ -399,6 +418,7 @@ public class NetworkEditorGUI extends JFrame {
 
         // Clear training settings
         netTrain = new NetTrain();
+        trainedModel = null;
 
         // Clear any loaded data
         currentData = null;
@@ -415,6 +435,9 @@ public class NetworkEditorGUI extends JFrame {
             }
         }
 
+        updateAutosaveInfo();
+        setHasUnsavedChanges(false);
+
         // Update status
         statusBar.setStatus("New network created");
 
@@ -471,6 +494,18 @@ public class NetworkEditorGUI extends JFrame {
         // If never saved or Save As requested, prompt for file
         if (currentFile == null || saveAs) {
             JFileChooser fileChooser = getjFileChooser();
+            javax.swing.filechooser.FileFilter jsonFilter = fileChooser.getFileFilter();
+            javax.swing.filechooser.FileFilter binaryFilter = new javax.swing.filechooser.FileFilter() {
+                public boolean accept(File f) {
+                    return jsonFilter.accept(f);
+                }
+
+                public String getDescription() {
+                    return "Compact Binary Network Files (*.bnn)";
+                }
+            };
+            fileChooser.addChoosableFileFilter(binaryFilter);
+            fileChooser.setFileFilter(currentFormat != NetworkSerializer.Format.JSON ? binaryFilter : jsonFilter);
 
             if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
                 File file = fileChooser.getSelectedFile();
@@ -479,14 +514,22 @@ public class NetworkEditorGUI extends JFrame {
                     file = new File(file.getPath() + ".bnn");
                 }
                 currentFile = file;
+                currentFormat = fileChooser.getFileFilter() == binaryFilter
+                        ? NetworkSerializer.Format.BINARY : NetworkSerializer.Format.JSON;
             } else {
                 return; // User cancelled
             }
         }
 
         try {
-            NetworkSerializer.saveToFile(currentFile.getPath(), nodeManager.getAllNodes(), netTrain);
+            if (currentFormat == NetworkSerializer.Format.BUNDLE && trainedModel != null) {
+                // Opened from a model bundle, keep the trained model in it
+                ModelBundle.save(currentFile.toPath(), nodeManager.getAllNodes(), netTrain.save(), trainedModel);
+            } else {
+                NetworkSerializer.saveToFile(currentFile.getPath(), nodeManager.getAllNodes(), netTrain, currentFormat);
+            }
             statusBar.setStatus("Network saved to " + currentFile.getName());
+            updateAutosaveInfo();
 
             setHasUnsavedChanges(false);  // Clear unsaved changes flag
             updateWindowTitle();
@@ -520,6 +563,10 @@ public class NetworkEditorGUI extends JFrame {
             }
         }
 
+        // Everything the user wanted is saved, a clean exit leaves nothing to recover
+        if (autosave != null) {
+            autosave.discard();
+        }
         dispose();
         System.exit(0);
     }
@@ -528,6 +575,104 @@ public class NetworkEditorGUI extends JFrame {
         this.hasUnsavedChanges = hasChanges;
         // Update window title to show unsaved status
         updateWindowTitle();
+        // Every edit ends up here, so this is where revalidation gets scheduled
+        if (backgroundValidator != null) {
+            backgroundValidator.schedule();
+        }
+        if (autosave != null) {
+            if (hasChanges) {
+                autosave.schedule();
+            } else {
+                autosave.markClean();
+            }
+        }
+    }
+
+    // Offers to bring back work from a session that ended without saving, then starts journaling
+    private void recoverAutosave() {
+        if (autosave == null) {
+            statusBar.setStatus("Autosave is off, another editor window is using it");
+            return;
+        }
+        try {
+            AutosaveJournal.Recovery recovery = autosave.recover();
+            if (recovery != null && !recovery.nodes.isEmpty()) {
+                int choice = JOptionPane.showConfirmDialog(this,
+                        "The editor was closed without saving " + recovery.nodes.size() + " node(s) of work.\n" +
+                                "Would you like to recover them?",
+                        "Recover Unsaved Work",
+                        JOptionPane.YES_NO_OPTION,
+                        JOptionPane.QUESTION_MESSAGE);
+                if (choice == JOptionPane.YES_OPTION) {
+                    nodeManager.getAllNodes().addAll(recovery.nodes);
+                    if (recovery.trainSettings != null) {
+                        netTrain.load(recovery.trainSettings);
+                    }
+                    if (recovery.filePath != null && new File(recovery.filePath).exists()) {
+                        currentFile = new File(recovery.filePath);
+                        currentFormat = NetworkSerializer.detectFormat(recovery.filePath);
+                    }
+                    setHasUnsavedChanges(true);
+                    fitToWindow();
+                    statusBar.setStatus("Recovered " + recovery.nodes.size() + " node(s) from autosave");
+                    canvas.repaint();
+                }
+            }
+        } catch (IOException e) {
+            statusBar.setStatus("Could not read autosave: " + e.getMessage());
+        }
+        autosave.start(currentFile != null ? currentFile.getPath() : null, netTrain.save(), hasUnsavedChanges);
+    }
+
+    private void updateAutosaveInfo() {
+        if (autosave != null) {
+            autosave.setCurrentFile(currentFile != null ? currentFile.getPath() : null);
+            autosave.setTrainSettings(netTrain != null ? netTrain.save() : null);
+        }
+    }
+
+    private void showValidationResult(BackgroundValidator.Result result) {
+        for (Node node : nodeManager.getAllNodes()) {
+            node.errorHighlighted = result.invalidNodeIds.contains(node.getId());
+        }
+        if (result.snapshot.isEmpty()) {
+            statusBar.setStatus("Ready");
+        } else if (result.hasErrors()) {
+            statusBar.setStatus(result.errors.size() + " validation issue(s): " + result.errors.get(0));
+        } else {
+            statusBar.setStatus("Network valid" + (result.warnings.isEmpty() ? "" : ", " + result.warnings.size() + " warning(s)"));
+        }
+        canvas.repaint();
+    }
+
+    private void showValidationDialogs(BackgroundValidator.Result validation) {
+        showValidationResult(validation);
+        if (!validation.warnings.isEmpty()) {
+            StringBuilder warningMsg = new StringBuilder("Warnings:\n\n");
+            for (String warning : validation.warnings) {
+                warningMsg.append("• ").append(warning).append("\n");
+            }
+            JOptionPane.showMessageDialog(this,
+                    warningMsg.toString(),
+                    "Network Validation Warnings",
+                    JOptionPane.WARNING_MESSAGE);
+        }
+
+        if (validation.hasErrors()) {
+            StringBuilder errorMsg = new StringBuilder("Validation found the following errors:\n\n");
+            for (String error : validation.errors) {
+                errorMsg.append("• ").append(error).append("\n");
+            }
+            JOptionPane.showMessageDialog(this,
+                    errorMsg.toString(),
+                    "Validation Error",
+                    JOptionPane.ERROR_MESSAGE);
+        } else if (validation.warnings.isEmpty()) {
+            JOptionPane.showMessageDialog(this,
+                    "Network validation successful: No issues found.",
+                    "Validation Result",
+                    JOptionPane.INFORMATION_MESSAGE);
+        }
     }
 
     private void updateWindowTitle() {
@@ -604,6 +749,7 @@ public class NetworkEditorGUI extends JFrame {
             // Clear existing network
             nodeManager.getAllNodes().clear();
             nodeManager.getSelectedNodes().clear();
+            nodeManager.clearHistory();
 
             // Load the new network
             nodeManager.getAllNodes().addAll(validation.networkData.nodes);
@@ -611,6 +757,12 @@ public class NetworkEditorGUI extends JFrame {
 
             // Update file reference and UI
             currentFile = fileChooser.getSelectedFile();
+            currentFormat = NetworkSerializer.detectFormat(currentFile.getPath());
+            trainedModel = null;
+            if (currentFormat == NetworkSerializer.Format.BUNDLE) {
+                trainedModel = ModelBundle.load(currentFile.toPath()).restoreModel();
+            }
+            updateAutosaveInfo();
             setHasUnsavedChanges(false);
             updateWindowTitle();
 
@@ -618,7 +770,8 @@ public class NetworkEditorGUI extends JFrame {
             fitToWindow();
 
             // Update status
-            statusBar.setStatus("Loaded network from " + currentFile.getName());
+            statusBar.setStatus("Loaded network " + (trainedModel != null ? "and trained model " : "")
+                    + "from " + currentFile.getName());
             canvas.repaint();
 
         } catch (IOException e) {
@@ -629,9 +782,9 @@ public class NetworkEditorGUI extends JFrame {
         }
     }
 
-    private void exportBeeDNNModel() {
+    private void exportModelBundle() {
         // Check if there are any nodes
-        if (trainedNetwork == null) {
+        if (trainedModel == null) {
             JOptionPane.showMessageDialog(this,
                     "No network to export, please train it first",
                     "Export Error",
@@ -643,11 +796,11 @@ public class NetworkEditorGUI extends JFrame {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setFileFilter(new javax.swing.filechooser.FileFilter() {
             public boolean accept(File f) {
-                return f.isDirectory() || f.getName().toLowerCase().endsWith(".beednn");
+                return f.isDirectory() || f.getName().toLowerCase().endsWith(".bnn");
             }
 
             public String getDescription() {
-                return "BeeDNN Model Files (*.beednn)";
+                return "Model Bundles (*.bnn)";
             }
         });
 
@@ -656,21 +809,13 @@ public class NetworkEditorGUI extends JFrame {
         }
 
         File file = fileChooser.getSelectedFile();
-        if (!file.getName().toLowerCase().endsWith(".beednn")) {
-            file = new File(file.getPath() + ".beednn");
+        if (!file.getName().toLowerCase().endsWith(".bnn")) {
+            file = new File(file.getPath() + ".bnn");
         }
 
         try {
-            // Get the Net instance and save its string representation
-
-            // TODO: Add layers to net in correct order
-            String modelData = "not implemented";//todo trainedNetwork.saveAsLayer();
-
-            // Write to file
-            try (FileWriter writer = new FileWriter(file)) {
-                writer.write(modelData);
-            }
-
+            // Design, settings, trained layers, data encoding and loss history in one file
+            ModelBundle.save(file.toPath(), nodeManager.getAllNodes(), netTrain.save(), trainedModel);
             statusBar.setStatus("Model exported to " + file.getName());
 
         } catch (IOException e) {
@@ -771,11 +916,98 @@ public class NetworkEditorGUI extends JFrame {
             return;
         }
 
-        // Validate network
-        List<String> errors = nodeManager.connectionManager.validateNetwork();
-        if (!errors.isEmpty()) {
+        // Validation runs on the worker, the dialog opens once the result for the current graph is in
+        statusBar.setStatus("Validating network...");
+        backgroundValidator.requestNow(this::startTraining);
+    }
+
+    private void startSweep() {
+        withValidNetwork("a sweep", serializer -> {
+            SweepDialog dialog = new SweepDialog(this, serializer, currentData, netTrain);
+            if (dialog.showDialog()) {
+                updateAutosaveInfo();
+            }
+        });
+    }
+
+    private void startCrossValidation() {
+        withValidNetwork("cross-validation", serializer ->
+                new CrossValidationDialog(this, serializer, currentData, netTrain).setVisible(true));
+    }
+
+    // Runs the action with a pre-compiled serializer once data is loaded and the network has no errors
+    private void withValidNetwork(String what, Consumer<NetworkStructureSerializer> action) {
+        if (currentData == null) {
+            JOptionPane.showMessageDialog(this,
+                    "Please load training data first.",
+                    "No Training Data",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        statusBar.setStatus("Validating network...");
+        backgroundValidator.requestNow(validation -> {
+            if (validation.hasErrors()) {
+                JOptionPane.showMessageDialog(this,
+                        "Cannot run " + what + " on an invalid network:\n\n• " + String.join("\n• ", validation.errors),
+                        "Validation Error",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if (netTrain == null) netTrain = new NetTrain();
+            action.accept(validation.serializer);
+        });
+    }
+
+    // Picks up a run that was interrupted, using the settings it was started with
+    private void resumeTraining() {
+        ModelBundle checkpoint;
+        try {
+            checkpoint = TrainingCheckpoints.loadUnfinished(TrainingCheckpoints.defaultFile());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this,
+                    "Error reading checkpoint: " + e.getMessage(),
+                    "Resume Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (checkpoint == null) {
+            JOptionPane.showMessageDialog(this,
+                    "There is no unfinished training run to resume.",
+                    "Resume Training",
+                    JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        if (currentData == null || currentData.getEncodedInputSize() != checkpoint.inputSize) {
+            JOptionPane.showMessageDialog(this,
+                    "Please load the training data of the interrupted run first (" + checkpoint.inputSize + " inputs).",
+                    "No Training Data",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        try {
+            if (checkpoint.trainSettings != null) {
+                netTrain.load(checkpoint.trainSettings);
+            }
+            TrainingDialog dialog = new TrainingDialog(this, checkpoint, currentData, netTrain);
+            dialog.setVisible(true);
+
+            TrainedModel trained = dialog.getTrainedModel();
+            if (trained != null) {
+                trainedModel = trained;
+            }
+        } catch (Exception e) {
+            JOptionPane.showMessageDialog(this,
+                    "Error resuming training: " + e.getMessage(),
+                    "Training Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void startTraining(BackgroundValidator.Result validation) {
+        if (validation.hasErrors()) {
             StringBuilder message = new StringBuilder("Cannot start training due to the following issues:\n\n");
-            for (String error : errors) {
+            for (String error : validation.errors) {
                 message.append("• ").append(error).append("\n");
             }
             JOptionPane.showMessageDialog(this,
@@ -786,15 +1018,21 @@ public class NetworkEditorGUI extends JFrame {
         }
 
         try {
-            // Create network serializer
-            NetworkStructureSerializer serializer = new NetworkStructureSerializer(nodeManager.getAllNodes());
+            // Reuse the pre-compiled serializer when validation produced one
+            NetworkStructureSerializer serializer = validation.serializer != null
+                    ? validation.serializer
+                    : new NetworkStructureSerializer(validation.snapshot);
 
             // Create and show training dialog
-            TrainingDialog dialog = new TrainingDialog(this, serializer, currentData, netTrain);
+            TrainingDialog dialog = new TrainingDialog(this, serializer, currentData, netTrain,
+                    dataManager != null ? dataManager.getNormalization() : null);
             dialog.setVisible(true);
 
             // Store trained network if training completed successfully
-            trainedNetwork = dialog.getTrainedNetwork();
+            TrainedModel trained = dialog.getTrainedModel();
+            if (trained != null) {
+                trainedModel = trained;
+            }
 
 
         } catch (Exception e) {
@@ -836,8 +1074,8 @@ public class NetworkEditorGUI extends JFrame {
 
         JMenu exportMenu = new JMenu("Export");
 
-        JMenuItem exportModelItem = new JMenuItem("BeeDNN Model...");
-        exportModelItem.addActionListener(e -> exportBeeDNNModel());
+        JMenuItem exportModelItem = new JMenuItem("Model Bundle...");
+        exportModelItem.addActionListener(e -> exportModelBundle());
         exportMenu.add(exportModelItem);
 
         JMenuItem exportJarItem = new JMenuItem("Trained Network JAR...");
@@ -929,6 +1167,24 @@ public class NetworkEditorGUI extends JFrame {
         viewMenu.addSeparator();
         viewMenu.add(new JCheckBoxMenuItem("Show Grid"));
 
+        JCheckBoxMenuItem overlayItem = new JCheckBoxMenuItem("Performance Overlay");
+        overlayItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F12, 0));
+        overlayItem.addActionListener(e -> {
+            showPerformanceOverlay = overlayItem.isSelected();
+            nodeManager.getRenderMetrics().reset();
+            canvas.repaint();
+        });
+        viewMenu.add(overlayItem);
+
+        JMenuItem copyMetricsItem = new JMenuItem("Copy Render Metrics");
+        copyMetricsItem.addActionListener(e -> {
+            String report = nodeManager.getRenderMetrics().report();
+            Toolkit.getDefaultToolkit().getSystemClipboard()
+                    .setContents(new java.awt.datatransfer.StringSelection(report), null);
+            statusBar.setStatus("Render metrics copied to clipboard");
+        });
+        viewMenu.add(copyMetricsItem);
+
 
         // Data menu
         JMenuItem manageDataItem = new JMenuItem("Manage Data");
@@ -946,35 +1202,8 @@ public class NetworkEditorGUI extends JFrame {
 
         JMenuItem validateItem = new JMenuItem("Validate");
         validateItem.addActionListener(e -> {
-            NetworkValidator.ValidationResult validation = NetworkValidator.validate(nodeManager.getAllNodes(), netTrain);
-
-            List<String> errors = nodeManager.connectionManager.validateNetwork();
-            if (!validation.warnings.isEmpty()) {
-                StringBuilder warningMsg = new StringBuilder("Warnings:\n\n");
-                for (String warning : validation.warnings) {
-                    warningMsg.append("• ").append(warning).append("\n");
-                }
-                JOptionPane.showMessageDialog(this,
-                        warningMsg.toString(),
-                        "Network Validation Warnings",
-                        JOptionPane.WARNING_MESSAGE);
-            }
-
-            if (validation.hasErrors()) {
-                StringBuilder errorMsg = new StringBuilder("Validation found the following errors:\n\n");
-                for (String error : validation.errors) {
-                    errorMsg.append("• ").append(error).append("\n");
-                }
-                JOptionPane.showMessageDialog(this,
-                        errorMsg.toString(),
-                        "Validation Error",
-                        JOptionPane.ERROR_MESSAGE);
-            } else if (validation.warnings.isEmpty()) {
-                JOptionPane.showMessageDialog(this,
-                        "Network validation successful: No issues found.",
-                        "Validation Result",
-                        JOptionPane.INFORMATION_MESSAGE);
-            }
+            statusBar.setStatus("Validating network...");
+            backgroundValidator.requestNow(this::showValidationDialogs);
         });
 
         JMenuItem autoLayoutItem = new JMenuItem("Auto-Layout");
@@ -982,6 +1211,7 @@ public class NetworkEditorGUI extends JFrame {
         autoLayoutItem.addActionListener(e -> {
             // Call auto-layout
             NetworkLayout.autoLayout(nodeManager.getAllNodes());
+            nodeManager.getGraphModel().touchAll(nodeManager.getAllNodes());
 
             // Reset view to fit all nodes
             fitToWindow();
@@ -994,7 +1224,9 @@ public class NetworkEditorGUI extends JFrame {
         trainingSettingsItem.addActionListener(e -> {
             if (netTrain == null) netTrain = new NetTrain();
             TrainingSettingsDialog dialog = new TrainingSettingsDialog(this, netTrain);
-            dialog.showDialog();
+            if (dialog.showDialog()) {
+                updateAutosaveInfo();
+            }
         });
 
         networkMenu.add(validateItem);
@@ -1004,6 +1236,15 @@ public class NetworkEditorGUI extends JFrame {
         JMenuItem startTrainingItem = new JMenuItem("Start Training");
         startTrainingItem.addActionListener(e -> startTraining());
         networkMenu.add(startTrainingItem);
+        JMenuItem resumeTrainingItem = new JMenuItem("Resume Training from Checkpoint");
+        resumeTrainingItem.addActionListener(e -> resumeTraining());
+        networkMenu.add(resumeTrainingItem);
+        JMenuItem sweepItem = new JMenuItem("Hyperparameter Sweep...");
+        sweepItem.addActionListener(e -> startSweep());
+        networkMenu.add(sweepItem);
+        JMenuItem crossValidationItem = new JMenuItem("Cross-Validate...");
+        crossValidationItem.addActionListener(e -> startCrossValidation());
+        networkMenu.add(crossValidationItem);
 
         menuBar.add(fileMenu);
         menuBar.add(editMenu);
@@ -1037,6 +1278,8 @@ public class NetworkEditorGUI extends JFrame {
 
         @Override
         protected void paintComponent(Graphics g) {
+            RenderMetrics metrics = nodeManager.getRenderMetrics();
+            metrics.beginFrame();
             super.paintComponent(g);
             Graphics2D g2d = (Graphics2D) g;
 
@@ -1062,6 +1305,34 @@ public class NetworkEditorGUI extends JFrame {
 
             // Restore original transform
             g2d.setTransform(originalTransform);
+            metrics.endFrame();
+
+            if (showPerformanceOverlay) {
+                drawPerformanceOverlay(g2d, metrics);
+            }
+        }
+
+        private void drawPerformanceOverlay(Graphics2D g2d, RenderMetrics metrics) {
+            List<String> lines = metrics.overlayLines();
+            FontMetrics fm = g2d.getFontMetrics();
+            int lineHeight = fm.getHeight();
+            int boxWidth = 0;
+            for (String line : lines) {
+                boxWidth = Math.max(boxWidth, fm.stringWidth(line));
+            }
+            boxWidth += 16;
+            int boxHeight = lines.size() * lineHeight + 10;
+            int boxX = getVisibleRect().x + getVisibleRect().width - boxWidth - 10;
+            int boxY = getVisibleRect().y + 10;
+
+            g2d.setColor(new Color(0, 0, 0, 170));
+            g2d.fillRect(boxX, boxY, boxWidth, boxHeight);
+            g2d.setColor(Color.GREEN);
+            int y = boxY + 5 + fm.getAscent();
+            for (String line : lines) {
+                g2d.drawString(line, boxX + 8, y);
+                y += lineHeight;
+            }
         }
 
         private void drawGrid(Graphics2D g2d) {
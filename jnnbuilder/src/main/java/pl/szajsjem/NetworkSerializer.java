@@ -1,204 +1,341 @@
 package pl.szajsjem;
 
 import com.beednn.NetTrain;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import org.json.JSONWriter;
 import pl.szajsjem.elements.ConnectionPoint;
 import pl.szajsjem.elements.Node;
 import pl.szajsjem.elements.SpecialNode;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
 
 public class NetworkSerializer {
+    private static final int IO_BUFFER = 64 * 1024;
+
+    // All formats share the .bnn extension, files are told apart by their content.
+    // A BUNDLE is a binary design with a trained model attached, see ModelBundle.
+    public enum Format {JSON, BINARY, BUNDLE}
+
+    public static Format detectFormat(String filePath) throws IOException {
+        Path path = Path.of(filePath);
+        if (!BinaryNetworkSerializer.isBinary(path)) return Format.JSON;
+        return ModelBundle.isBundle(path) ? Format.BUNDLE : Format.BINARY;
+    }
+
     public static void saveToFile(String filePath, List<Node> nodes, NetTrain netTrain) throws IOException {
-        JSONObject root = new JSONObject();
+        saveToFile(filePath, nodes, netTrain, Format.JSON);
+    }
 
-        // Save nodes
-        JSONArray nodesArray = new JSONArray();
-        Map<Node, Integer> nodeIndices = new HashMap<>();
+    public static void saveToFile(String filePath, List<Node> nodes, NetTrain netTrain, Format format) throws IOException {
+        // Settings come from native code, fetch them before opening the file
+        String trainSettings = netTrain != null ? netTrain.save() : null;
+        // Only the design is written here, bundles lose their model (ModelBundle.save keeps it)
+        if (format != Format.JSON) {
+            BinaryNetworkSerializer.saveToFile(Path.of(filePath), nodes, trainSettings);
+            return;
+        }
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(filePath), StandardCharsets.UTF_8), IO_BUFFER)) {
+            writeNetwork(writer, nodes, trainSettings);
+        }
+    }
 
-        // First pass: save node data and build index map
+    /**
+     * Streams the design to the writer node by node. Only the node index map
+     * is kept in memory, the JSON itself is never built up as a tree.
+     */
+    public static void writeNetwork(Writer writer, List<Node> nodes, String trainSettings) {
+        Map<Node, Integer> nodeIndices = new IdentityHashMap<>(nodes.size() * 2);
         int index = 0;
         for (Node node : nodes) {
-            JSONObject nodeObj = new JSONObject();
-            nodeObj.put("type", node.getType());
-            nodeObj.put("x", node.x);
-            nodeObj.put("y", node.y);
-            nodeObj.put("stringParams", new JSONArray(node.getStringParams()));
-            nodeObj.put("floatParams", new JSONArray(node.getFloatParams()));
-            nodeObj.put("isSpecial", node instanceof SpecialNode);
-
-            nodesArray.put(nodeObj);
             nodeIndices.put(node, index++);
         }
 
-        // Second pass: save connections
-        for (int i = 0; i < nodes.size(); i++) {
-            Node node = nodes.get(i);
-            JSONObject nodeObj = nodesArray.getJSONObject(i);
+        JSONWriter json = new JSONWriter(writer);
+        json.object().key("nodes").array();
+        for (Node node : nodes) {
+            json.object()
+                    .key("type").value(node.getType())
+                    .key("x").value(node.x)
+                    .key("y").value(node.y)
+                    .key("isSpecial").value(node instanceof SpecialNode);
+
+            json.key("stringParams").array();
+            for (String param : node.getStringParams()) {
+                json.value(param);
+            }
+            json.endArray();
+
+            json.key("floatParams").array();
+            for (float param : node.getFloatParams()) {
+                // Boxed so it prints as a float rather than its double expansion
+                json.value(Float.valueOf(param));
+            }
+            json.endArray();
 
             // Save regular connections
-            saveConnectionPoints(nodeObj, "prevConnections", node.prev, nodeIndices);
-            saveConnectionPoints(nodeObj, "nextConnections", node.next, nodeIndices);
+            writeConnections(json, "prevConnections", node.prev, nodeIndices);
+            writeConnections(json, "nextConnections", node.next, nodeIndices);
 
             // Save special connections if applicable
             if (node instanceof SpecialNode specialNode) {
-                JSONArray specialPointsArray = new JSONArray();
+                json.key("specialPoints").array();
                 for (ConnectionPoint sp : specialNode.specialPoints) {
-                    JSONObject spObj = new JSONObject();
-                    spObj.put("isInput", sp.isInput());
-                    saveConnectionPoints(spObj, "connections", sp, nodeIndices);
-                    specialPointsArray.put(spObj);
+                    json.object().key("isInput").value(sp.isInput());
+                    writeConnections(json, "connections", sp, nodeIndices);
+                    json.endObject();
                 }
-                nodeObj.put("specialPoints", specialPointsArray);
+                json.endArray();
             }
+            json.endObject();
         }
-        root.put("nodes", nodesArray);
+        json.endArray();
 
         // Save training settings
-        if (netTrain != null) {
-            root.put("trainSettings", netTrain.save());
+        if (trainSettings != null) {
+            json.key("trainSettings").value(trainSettings);
         }
+        json.endObject();
+    }
 
-        // Write to file
-        try (FileWriter writer = new FileWriter(filePath)) {
-            root.write(writer);
+    private static void writeConnections(JSONWriter json, String key, ConnectionPoint point,
+                                         Map<Node, Integer> nodeIndices) {
+        json.key(key).array();
+        for (ConnectionPoint connected : point.connected) {
+            json.value(nodeIndices.get(connected.parent));
         }
+        json.endArray();
     }
 
     public static NetworkData loadFromFile(String filePath) throws IOException {
-        String jsonStr = readFile(filePath);
-        JSONObject root = new JSONObject(jsonStr);
+        ParsedNetwork parsed;
+        if (detectFormat(filePath) != Format.JSON) {
+            parsed = BinaryNetworkSerializer.readNetwork(Path.of(filePath));
+        } else {
+            try (Reader reader = new InputStreamReader(new FileInputStream(filePath), StandardCharsets.UTF_8)) {
+                parsed = readNetwork(reader);
+            }
+        }
 
-        List<Node> nodes = loadNodes(root.getJSONArray("nodes"));
         NetTrain netTrain = new NetTrain();
-
-        if (root.has("trainSettings")) {
-            netTrain.load(root.getString("trainSettings"));
+        if (parsed.trainSettings != null) {
+            netTrain.load(parsed.trainSettings);
         }
 
-        return new NetworkData(nodes, netTrain);
+        return new NetworkData(parsed.nodes, netTrain);
     }
 
-    private static void saveConnectionPoints(JSONObject container, String key,
-                                             ConnectionPoint point, Map<Node, Integer> nodeIndices) {
-        JSONArray connections = new JSONArray();
-        for (ConnectionPoint connected : point.connected) {
-            connections.put(nodeIndices.get(connected.parent));
+    // Nodes and raw training settings, before anything native is created
+    public static class ParsedNetwork {
+        public final List<Node> nodes;
+        public final String trainSettings;
+
+        ParsedNetwork(List<Node> nodes, String trainSettings) {
+            this.nodes = nodes;
+            this.trainSettings = trainSettings;
         }
-        container.put(key, connections);
     }
 
-    private static List<Node> loadNodes(JSONArray nodesArray) {
+    /**
+     * Reads a design in a single pass. Nodes are created as soon as their
+     * object has been read; connections are kept as target indices per
+     * connection point until every node exists and are then linked on both
+     * ends.
+     */
+    public static ParsedNetwork readNetwork(Reader reader) throws IOException {
+        JsonPullReader json = new JsonPullReader(reader);
         List<Node> nodes = new ArrayList<>();
-        Map<Integer, Node> nodeMap = new HashMap<>();
-
-        // First pass: create all nodes and restore basic properties
-        for (int i = 0; i < nodesArray.length(); i++) {
-            JSONObject nodeObj = nodesArray.getJSONObject(i);
-
-            // Create appropriate node type
-            Node node;
-            String type = nodeObj.getString("type");
-            if (nodeObj.getBoolean("isSpecial")) {
-                node = new SpecialNode(type);
-            } else {
-                node = new Node(type);
+        List<int[][]> links = new ArrayList<>();
+        String trainSettings = null;
+        boolean sawNodes = false;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "nodes" -> {
+                    sawNodes = true;
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        readNode(json, nodes, links);
+                    }
+                    json.endArray();
+                }
+                case "trainSettings" -> trainSettings = json.nextString();
+                default -> json.skipValue();
             }
+        }
+        json.endObject();
 
-            // Restore position
-            node.x = nodeObj.getInt("x");
-            node.y = nodeObj.getInt("y");
+        if (!sawNodes) {
+            throw new IOException("File has no \"nodes\" array");
+        }
+        linkNodes(nodes, links);
+        return new ParsedNetwork(nodes, trainSettings);
+    }
 
-            // Restore parameters
-            JSONArray stringParamsArray = nodeObj.getJSONArray("stringParams");
-            String[] stringParams = new String[stringParamsArray.length()];
-            for (int j = 0; j < stringParamsArray.length(); j++) {
-                stringParams[j] = stringParamsArray.getString(j);
+    private static void readNode(JsonPullReader json, List<Node> nodes, List<int[][]> links) throws IOException {
+        // Keys can come in any order (older files were written from a HashMap), so collect first
+        String type = null;
+        boolean isSpecial = false;
+        int x = 0, y = 0;
+        String[] stringParams = new String[0];
+        float[] floatParams = new float[0];
+        int[] prev = new int[0], next = new int[0];
+        List<int[]> special = new ArrayList<>();
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "type" -> type = json.nextString();
+                case "isSpecial" -> isSpecial = json.nextBoolean();
+                case "x" -> x = json.nextInt();
+                case "y" -> y = json.nextInt();
+                case "stringParams" -> {
+                    List<String> params = new ArrayList<>();
+                    json.beginArray();
+                    while (json.hasNext()) params.add(json.nextString());
+                    json.endArray();
+                    stringParams = params.toArray(new String[0]);
+                }
+                case "floatParams" -> {
+                    float[] params = new float[8];
+                    int count = 0;
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        if (count == params.length) params = Arrays.copyOf(params, count * 2);
+                        params[count++] = (float) json.nextDouble();
+                    }
+                    json.endArray();
+                    floatParams = Arrays.copyOf(params, count);
+                }
+                case "prevConnections" -> prev = readIndices(json);
+                case "nextConnections" -> next = readIndices(json);
+                case "specialPoints" -> {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        int[] connections = new int[0];
+                        json.beginObject();
+                        while (json.hasNext()) {
+                            if (json.nextName().equals("connections")) {
+                                connections = readIndices(json);
+                            } else {
+                                json.skipValue();
+                            }
+                        }
+                        json.endObject();
+                        special.add(connections);
+                    }
+                    json.endArray();
+                }
+                default -> json.skipValue();
             }
-            node.setStringParams(stringParams);
+        }
+        json.endObject();
 
-            JSONArray floatParamsArray = nodeObj.getJSONArray("floatParams");
-            float[] floatParams = new float[floatParamsArray.length()];
-            for (int j = 0; j < floatParamsArray.length(); j++) {
-                floatParams[j] = (float) floatParamsArray.getDouble(j);
-            }
-            node.setFloatParams(floatParams);
+        if (type == null) {
+            throw new IOException("Node " + nodes.size() + " has no type");
+        }
 
-            nodes.add(node);
-            nodeMap.put(i, node);
+        // Create appropriate node type
+        Node node = isSpecial ? new SpecialNode(type) : new Node(type);
+        node.x = x;
+        node.y = y;
+        node.setStringParams(stringParams);
+        node.setFloatParams(floatParams);
+
+        // Target node indices by connection point index
+        int[][] pointLinks = new int[node.getPointCount()][];
+        pointLinks[0] = prev;
+        pointLinks[1] = next;
+        for (int i = 2; i < pointLinks.length; i++) {
+            pointLinks[i] = i - 2 < special.size() ? special.get(i - 2) : new int[0];
         }
 
-        // Second pass: restore connections
-        for (int i = 0; i < nodesArray.length(); i++) {
-            JSONObject nodeObj = nodesArray.getJSONObject(i);
-            Node node = nodeMap.get(i);
+        nodes.add(node);
+        links.add(pointLinks);
+    }
 
-            // Restore regular connections
-            restoreConnections(nodeObj.getJSONArray("prevConnections"), node.prev, nodeMap);
-            restoreConnections(nodeObj.getJSONArray("nextConnections"), node.next, nodeMap);
+    private static int[] readIndices(JsonPullReader json) throws IOException {
+        int[] indices = new int[4];
+        int count = 0;
+        json.beginArray();
+        while (json.hasNext()) {
+            if (count == indices.length) indices = Arrays.copyOf(indices, count * 2);
+            indices[count++] = json.nextInt();
+        }
+        json.endArray();
+        return Arrays.copyOf(indices, count);
+    }
 
-            // Restore special connections if applicable
-            if (node instanceof SpecialNode specialNode) {
-                JSONArray specialPointsArray = nodeObj.getJSONArray("specialPoints");
-                for (int j = 0; j < specialPointsArray.length(); j++) {
-                    JSONObject spObj = specialPointsArray.getJSONObject(j);
-                    ConnectionPoint sp = specialNode.specialPoints.get(j);
-                    restoreConnections(spObj.getJSONArray("connections"), sp, nodeMap);
+    /**
+     * The file only stores the target node of each connection, not the target
+     * point. Every connection is normally listed on both ends, so an output
+     * listing node B is matched with an input point of B that lists it back.
+     * Inputs left unmatched come from files that only listed one end and are
+     * linked to the target's output, like before.
+     */
+    private static void linkNodes(List<Node> nodes, List<int[][]> links) throws IOException {
+        for (int a = 0; a < nodes.size(); a++) {
+            Node node = nodes.get(a);
+            int[][] pointLinks = links.get(a);
+            for (int p = 0; p < pointLinks.length; p++) {
+                ConnectionPoint point = node.getPoint(p);
+                if (point.isInput()) continue;
+                for (int b : pointLinks[p]) {
+                    Node target = targetNode(nodes, b);
+                    ConnectionPoint targetPoint = claimInput(target, links.get(b), a);
+                    link(point, targetPoint != null ? targetPoint : target.prev);
                 }
             }
         }
 
-        return nodes;
-    }
-
-    private static void restoreConnections(JSONArray connections, ConnectionPoint point, Map<Integer, Node> nodeMap) {
-        for (int i = 0; i < connections.length(); i++) {
-            int targetIndex = connections.getInt(i);
-            Node targetNode = nodeMap.get(targetIndex);
-
-            // Find the corresponding connection point in the target node
-            ConnectionPoint targetPoint = null;
-            if (point.isInput()) {
-                if (!targetNode.next.connected.contains(point)) {
-                    targetNode.next.connected.add(point);
-                }
-            } else {
-                if (point.parent instanceof SpecialNode sourceSpecial) {
-                    // For special nodes, find the correct special point that was connected
-                    int specialIndex = sourceSpecial.specialPoints.indexOf(point);
-                    if (specialIndex >= 0) {
-                        targetPoint = targetNode.prev;
-                        if (!point.connected.contains(targetPoint)) {
-                            point.connected.add(targetPoint);
-                        }
-                    }
-                } else {
-                    targetPoint = targetNode.prev;
-                    if (!point.connected.contains(targetPoint)) {
-                        point.connected.add(targetPoint);
+        for (int a = 0; a < nodes.size(); a++) {
+            Node node = nodes.get(a);
+            int[][] pointLinks = links.get(a);
+            for (int p = 0; p < pointLinks.length; p++) {
+                ConnectionPoint point = node.getPoint(p);
+                if (!point.isInput()) continue;
+                for (int b : pointLinks[p]) {
+                    if (b >= 0) {
+                        link(targetNode(nodes, b).next, point);
                     }
                 }
             }
         }
     }
 
-    private static String readFile(String filePath) throws IOException {
-        StringBuilder content = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                content.append(line).append("\n");
+    // Finds an input point of the target that lists the source, and marks that entry used
+    private static ConnectionPoint claimInput(Node target, int[][] targetLinks, int source) {
+        for (int q = 0; q < targetLinks.length; q++) {
+            ConnectionPoint candidate = target.getPoint(q);
+            if (!candidate.isInput()) continue;
+            int[] list = targetLinks[q];
+            for (int i = 0; i < list.length; i++) {
+                if (list[i] == source) {
+                    list[i] = -1;
+                    return candidate;
+                }
             }
         }
-        return content.toString();
+        return null;
+    }
+
+    private static Node targetNode(List<Node> nodes, int index) throws IOException {
+        if (index < 0 || index >= nodes.size()) {
+            throw new IOException("Connection to missing node " + index);
+        }
+        return nodes.get(index);
+    }
+
+    private static void link(ConnectionPoint output, ConnectionPoint input) {
+        if (!output.connected.contains(input)) {
+            output.connected.add(input);
+        }
+        if (!input.connected.contains(output)) {
+            input.connected.add(output);
+        }
     }
 
     public static class NetworkData {
@@ -3,30 +3,57 @@ package pl.szajsjem;
 import com.beednn.Layer;
 import com.beednn.Net;
 import pl.szajsjem.elements.Node;
+import pl.szajsjem.graph.GraphSnapshot;
 
 import java.util.*;
 
 public class NetworkStructureSerializer {
     private final List<Node> nodes;
     private final Map<Node, CompositeLayer> processedNodes = new HashMap<>();
+    // Layer order worked out ahead of time by precompile()
+    private List<CompositeLayer> compiledLayers;
+    // Every layer added to the last built Net, in the order it was added
+    private final List<Layer> builtLayers = new ArrayList<>();
 
     public NetworkStructureSerializer(List<Node> nodes) {
         this.nodes = new ArrayList<>(nodes);
     }
 
+    // Works on a private copy of the snapshot, so it can run off the event thread
+    public NetworkStructureSerializer(GraphSnapshot snapshot) {
+        this.nodes = snapshot.materialize();
+    }
+
+    /**
+     * Works out the layer order without touching BeeDNN, so it is safe to run
+     * on a worker thread. The nodes must already have passed validation;
+     * buildNetwork() then only has to create the native layers.
+     */
+    public void precompile() {
+        compiledLayers = serializeNetwork(new ConnectionManager(new ArrayList<>(nodes)));
+    }
+
+    public boolean isPrecompiled() {
+        return compiledLayers != null;
+    }
+
     public Net buildNetwork() {
-        // First validate the network structure
-        ConnectionManager connectionManager = new ConnectionManager(new ArrayList<>(nodes));
-        List<String> errors = connectionManager.validateNetwork();
-        if (!errors.isEmpty()) {
-            throw new IllegalStateException("Invalid network structure: " + String.join(", ", errors));
+        List<CompositeLayer> layers = compiledLayers;
+        if (layers == null) {
+            // First validate the network structure
+            ConnectionManager connectionManager = new ConnectionManager(new ArrayList<>(nodes));
+            List<String> errors = connectionManager.validateNetwork();
+            if (!errors.isEmpty()) {
+                throw new IllegalStateException("Invalid network structure: " + String.join(", ", errors));
+            }
+
+            // Get the list of layers in correct order using serializeNetwork
+            layers = serializeNetwork(connectionManager);
         }
 
         // Create new Net instance
         Net network = new Net();
-
-        // Get the list of layers in correct order using serializeNetwork
-        List<CompositeLayer> layers = serializeNetwork(connectionManager);
+        builtLayers.clear();
 
         // Helper function to recursively add layers and get their layer references
         addLayersToNet(network, layers);
@@ -34,6 +61,15 @@ public class NetworkStructureSerializer {
         return network;
     }
 
+    // The design this serializer builds, a private copy
+    public List<Node> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    public List<Layer> getBuiltLayers() {
+        return new ArrayList<>(builtLayers);
+    }
+
     // Returns layer pointer for referencing in parent layers
     private String addLayersToNet(Net network, List<CompositeLayer> layers) {
         StringBuilder layerPtrs = new StringBuilder();
@@ -55,6 +91,7 @@ public class NetworkStructureSerializer {
                 Layer parallelLayer = new Layer("LayerParallel", new float[0],
                         reductionType + "," + String.join(",", childPtrs));
                 network.addLayer(parallelLayer);
+                builtLayers.add(parallelLayer);
 
                 if (layerPtrs.length() > 0) layerPtrs.append(",");
                 layerPtrs.append(parallelLayer.getNativePtr());
@@ -63,6 +100,7 @@ public class NetworkStructureSerializer {
                 Layer layer = createLayer(compositeLayer);
                 if (layer != null) {
                     network.addLayer(layer);
+                    builtLayers.add(layer);
                     if (layerPtrs.length() > 0) layerPtrs.append(",");
                     layerPtrs.append(layer.getNativePtr());
                 }
@@ -22,8 +22,12 @@ public class NetworkValidator {
 
         // Validate nodes
         for (Node node : nodes) {
+            int errorCount = result.errors.size();
             validateNode(node, availableLayerTypes, availableActivations,
                     availableInitializers, availableReductions, result);
+            if (result.errors.size() > errorCount) {
+                result.invalidNodes.add(node);
+            }
         }
 
         // Validate network structure
@@ -114,11 +118,14 @@ public class NetworkValidator {
         ConnectionManager connectionManager = new ConnectionManager(new ArrayList<>(nodes));
         List<String> structureErrors = connectionManager.validateNetwork();
         result.errors.addAll(structureErrors);
+        result.invalidNodes.addAll(connectionManager.getInvalidNodes());
     }
 
     public static class ValidationResult {
         public final List<String> errors = new ArrayList<>();
         public final List<String> warnings = new ArrayList<>();
+        // Nodes mentioned by the errors
+        public final Set<Node> invalidNodes = new HashSet<>();
 
         public boolean hasErrors() {
             return !errors.isEmpty();
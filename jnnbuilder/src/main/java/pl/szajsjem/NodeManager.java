@@ -4,21 +4,35 @@ package pl.szajsjem;
 import pl.szajsjem.elements.ConnectionPoint;
 import pl.szajsjem.elements.Node;
 import pl.szajsjem.elements.SpecialNode;
+import pl.szajsjem.graph.GraphModel;
+import pl.szajsjem.graph.NodeList;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 import java.awt.geom.Point2D;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.List;
 import java.util.*;
 
 public class NodeManager {
-    private final List<Node> nodes = new ArrayList<>();
+    // Undo state kept on the heap, older entries are spilled to a temp file journal
+    private static final long UNDO_MEMORY_BUDGET = 8L * 1024 * 1024;
+    private static final long UNDO_JOURNAL_BUDGET = 256L * 1024 * 1024;
+    // Rough heap cost of a node with its connection points, without parameters
+    private static final int NODE_BYTES = 400;
+
+    private final NodeList nodes = new NodeList();
+    private final GraphModel graphModel = new GraphModel(nodes);
     final ConnectionManager connectionManager;
     private final Set<Node> selectedNodes = new HashSet<>();
-    private final Stack<UndoableAction> undoStack = new Stack<>();
-    private final Stack<UndoableAction> redoStack = new Stack<>();
+    private final UndoHistory history = new UndoHistory(UNDO_MEMORY_BUDGET, UNDO_JOURNAL_BUDGET, new ActionCodec());
+    // Nodes referenced by spilled undo entries, by id
+    private final Map<Integer, WeakReference<Node>> journalNodes = new HashMap<>();
     private final JPanel canvas;
     private final NetworkEditorGUI parentgui;
     private Node draggedNode = null;
@@ -29,11 +43,13 @@ public class NodeManager {
     private final Point clipboardOffset = new Point();
     private final Map<Node, Node> nodeMapping = new HashMap<>();
     private ConnectionPoint sourcePoint = null;
+    private final RenderMetrics renderMetrics = new RenderMetrics();
 
     public NodeManager(JPanel canvas, NetworkEditorGUI networkEditorGUI) {
         this.canvas = canvas;
         this.parentgui = networkEditorGUI;
-        connectionManager = new ConnectionManager((ArrayList<Node>) nodes);
+        connectionManager = new ConnectionManager(nodes);
+        connectionManager.addChangeListener(graphModel::touch);
     }
 
     private void setHasUnsavedChanges() {
@@ -59,27 +75,47 @@ public class NodeManager {
     }
 
     public void drawNodes(Graphics2D g2d) {
+        // Clip bounds are in canvas coordinates, anything outside is culled
+        Rectangle view = g2d.getClipBounds();
+
+        // Draw connections underneath all nodes
+        for (Node node : nodes) {
+            int total = node.getOutgoingConnectionCount();
+            if (total == 0) continue;
+            int drawn = node.paintConnections(g2d, view);
+            renderMetrics.edgesDrawn(drawn);
+            renderMetrics.edgesCulled(total - drawn);
+        }
 
         // Draw dragged node on bottom
         if (draggedNode != null) {
-            draggedNode.paint(g2d, selectedNodes.contains(draggedNode));
+            paintNode(g2d, draggedNode, selectedNodes.contains(draggedNode), view);
         }
 
         // Draw non-selected nodes
         for (Node node : nodes) {
-            if (node != draggedNode) {
-                node.paint(g2d, false);
+            if (node != draggedNode && !selectedNodes.contains(node)) {
+                paintNode(g2d, node, false, view);
             }
         }
 
         // Draw selected nodes
         for (Node node : selectedNodes) {
             if (draggedNode != node) {
-                node.paint(g2d, true);
+                paintNode(g2d, node, true, view);
             }
         }
     }
 
+    private void paintNode(Graphics2D g2d, Node node, boolean isSelected, Rectangle view) {
+        if (view != null && !node.intersects(view)) {
+            renderMetrics.nodeCulled();
+            return;
+        }
+        node.paintBody(g2d, isSelected);
+        renderMetrics.nodeDrawn();
+    }
+
     public void handleMousePressed(Point transformedPoint, int modifiers) {
         sourcePoint = null;
         lastMousePosition = transformedPoint;
@@ -139,6 +175,15 @@ public class NodeManager {
             int dx = transformedPoint.x - dragOffset.x - draggedNode.x;
             int dy = transformedPoint.y - dragOffset.y - draggedNode.y;
 
+            // Remember where everything was, consecutive steps get merged into one undo entry
+            Node[] moved = getMovedNodes();
+            int[] oldX = new int[moved.length];
+            int[] oldY = new int[moved.length];
+            for (int i = 0; i < moved.length; i++) {
+                oldX[i] = moved[i].x;
+                oldY[i] = moved[i].y;
+            }
+
             // Move all selected nodes
             for (Node node : selectedNodes) {
                 node.x += dx;
@@ -155,11 +200,31 @@ public class NodeManager {
             draggedNode.x = Math.round(draggedNode.x / 20f) * 20;
             draggedNode.y = Math.round(draggedNode.y / 20f) * 20;
 
+            MoveNodeAction move = new MoveNodeAction(moved, oldX, oldY);
+            if (move.hasMoved()) {
+                graphModel.touchAll(Arrays.asList(moved));
+                addUndoableAction(move);
+            }
+
             updateConnectionPointHighlights(transformedPoint);
             setHasUnsavedChanges();
         }
     }
 
+    // The selection plus the dragged node, which may have just been ctrl-clicked out of it
+    private Node[] getMovedNodes() {
+        int count = selectedNodes.size() + (selectedNodes.contains(draggedNode) ? 0 : 1);
+        Node[] moved = new Node[count];
+        int i = 0;
+        for (Node node : selectedNodes) {
+            moved[i++] = node;
+        }
+        if (i < count) {
+            moved[i] = draggedNode;
+        }
+        return moved;
+    }
+
     public void handleMouseReleased(Point transformedPoint) {
         if (sourcePoint != null) {
             Node targetNode = getNodeAt(transformedPoint);
@@ -249,14 +314,18 @@ public class NodeManager {
 
 
     public Node getNodeAt(Point p) {
+        long start = System.nanoTime();
+        Node found = null;
         // Check in reverse order to get top-most node
         for (int i = nodes.size() - 1; i >= 0; i--) {
             Node node = nodes.get(i);
             if (node.contains(p)) {
-                return node;
+                found = node;
+                break;
             }
         }
-        return null;
+        renderMetrics.recordHitTest(System.nanoTime() - start);
+        return found;
     }
 
     public void handleDragging(Point p) {
@@ -275,10 +344,13 @@ public class NodeManager {
     public void stopDragging(Point p) {
         if (draggedNode != null) {
             // Record position for undo
-            addUndoableAction(new MoveNodeAction(draggedNode,
-                    new Point(draggedNode.x - (p.x - dragOffset.x),
-                            draggedNode.y - (p.y - dragOffset.y)),
-                    new Point(draggedNode.x, draggedNode.y)));
+            MoveNodeAction move = new MoveNodeAction(new Node[]{draggedNode},
+                    new int[]{draggedNode.x - (p.x - dragOffset.x)},
+                    new int[]{draggedNode.y - (p.y - dragOffset.y)});
+            if (move.hasMoved()) {
+                graphModel.touch(draggedNode);
+                addUndoableAction(move);
+            }
 
             // Check for connections
             handlePotentialConnections(p);
@@ -562,10 +634,9 @@ public class NodeManager {
     }
 
     public void undo() {
-        if (!undoStack.isEmpty()) {
-            UndoableAction action = undoStack.pop();
+        UndoableAction action = history.undo();
+        if (action != null) {
             action.undo();
-            redoStack.push(action);
             canvas.repaint();  // Add this line
             notifySelectionListeners();
             setHasUnsavedChanges();
@@ -573,15 +644,18 @@ public class NodeManager {
     }
 
     private void addUndoableAction(UndoableAction action) {
-        undoStack.push(action);
-        redoStack.clear();
+        history.add(action);
+    }
+
+    public void clearHistory() {
+        history.clear();
+        journalNodes.clear();
     }
 
     public void redo() {
-        if (!redoStack.isEmpty()) {
-            UndoableAction action = redoStack.pop();
+        UndoableAction action = history.redo();
+        if (action != null) {
             action.redo();
-            undoStack.push(action);
             canvas.repaint();  // Add this line
             notifySelectionListeners();
             setHasUnsavedChanges();
@@ -607,13 +681,31 @@ public class NodeManager {
         return nodes;
     }
 
-    // Undoable Action interfaces and implementations
-    private interface UndoableAction {
-        void undo();
+    public GraphModel getGraphModel() {
+        return graphModel;
+    }
+
+    public RenderMetrics getRenderMetrics() {
+        return renderMetrics;
+    }
 
-        void redo();
+    private static long estimateNodeSize(Node node) {
+        long size = NODE_BYTES + node.getFloatParams().length * 4L;
+        for (String param : node.getStringParams()) {
+            size += 48 + (param != null ? param.length() : 0);
+        }
+        return size;
     }
 
+    private static long estimateConnectionsSize(Map<ConnectionPoint, List<ConnectionPoint>> connections) {
+        long size = 48;
+        for (List<ConnectionPoint> list : connections.values()) {
+            size += 64 + list.size() * 8L;
+        }
+        return size;
+    }
+
+    // Undoable Action implementations
     private class CreateNodeAction implements UndoableAction {
         private final Node node;
 
@@ -621,6 +713,11 @@ public class NodeManager {
             this.node = node;
         }
 
+        @Override
+        public long estimatedSize() {
+            return 32 + estimateNodeSize(node);
+        }
+
         @Override
         public void undo() {
             nodes.remove(node);
@@ -650,6 +747,16 @@ public class NodeManager {
             }
         }
 
+        private DeleteNodeAction(Node node, Map<ConnectionPoint, List<ConnectionPoint>> storedConnections) {
+            this.node = node;
+            this.storedConnections = storedConnections;
+        }
+
+        @Override
+        public long estimatedSize() {
+            return 32 + estimateNodeSize(node) + estimateConnectionsSize(storedConnections);
+        }
+
         private void storeConnections(ConnectionPoint point) {
             List<ConnectionPoint> connections = new ArrayList<>(point.connected);
             if (!connections.isEmpty()) {
@@ -707,6 +814,23 @@ public class NodeManager {
             }
         }
 
+        private CutAction(List<Node> cutNodes, Map<Node, Map<ConnectionPoint, List<ConnectionPoint>>> storedConnections) {
+            this.cutNodes = cutNodes;
+            this.storedConnections = storedConnections;
+        }
+
+        @Override
+        public long estimatedSize() {
+            long size = 48;
+            for (Node node : cutNodes) {
+                size += 8 + estimateNodeSize(node);
+            }
+            for (Map<ConnectionPoint, List<ConnectionPoint>> nodeConnections : storedConnections.values()) {
+                size += estimateConnectionsSize(nodeConnections);
+            }
+            return size;
+        }
+
         private void storeConnectionsForPoint(ConnectionPoint point, Map<ConnectionPoint, List<ConnectionPoint>> nodeConnections) {
             List<ConnectionPoint> connections = new ArrayList<>(point.connected);
             if (!connections.isEmpty()) {
@@ -733,6 +857,7 @@ public class NodeManager {
                             } else {
                                 point.connected.add(connectedPoint);
                             }
+                            graphModel.touch(connectedPoint.parent);
                         }
                     }
                 }
@@ -755,6 +880,7 @@ public class NodeManager {
                             } else {
                                 point.connected.remove(connectedPoint);
                             }
+                            graphModel.touch(connectedPoint.parent);
                         }
                     }
                 }
@@ -772,6 +898,15 @@ public class NodeManager {
             this.pastedNodes = new ArrayList<>(nodes);
         }
 
+        @Override
+        public long estimatedSize() {
+            long size = 32;
+            for (Node node : pastedNodes) {
+                size += 8 + estimateNodeSize(node);
+            }
+            return size;
+        }
+
         @Override
         public void undo() {
             // Remove pasted nodes
@@ -790,27 +925,69 @@ public class NodeManager {
         }
     }
 
+    // Moves a group of nodes; consecutive moves of the same group collapse into one entry
     private class MoveNodeAction implements UndoableAction {
-        private final Node node;
-        private final Point oldPos;
-        private final Point newPos;
+        private final Node[] movedNodes;
+        private final int[] oldX, oldY;
+        private final int[] newX, newY;
+
+        // Takes the old positions, the nodes' current positions are the new ones
+        public MoveNodeAction(Node[] movedNodes, int[] oldX, int[] oldY) {
+            this.movedNodes = movedNodes;
+            this.oldX = oldX;
+            this.oldY = oldY;
+            this.newX = new int[movedNodes.length];
+            this.newY = new int[movedNodes.length];
+            for (int i = 0; i < movedNodes.length; i++) {
+                newX[i] = movedNodes[i].x;
+                newY[i] = movedNodes[i].y;
+            }
+        }
 
-        public MoveNodeAction(Node node, Point oldPos, Point newPos) {
-            this.node = node;
-            this.oldPos = oldPos;
-            this.newPos = newPos;
+        private MoveNodeAction(Node[] movedNodes, int[] oldX, int[] oldY, int[] newX, int[] newY) {
+            this.movedNodes = movedNodes;
+            this.oldX = oldX;
+            this.oldY = oldY;
+            this.newX = newX;
+            this.newY = newY;
+        }
+
+        boolean hasMoved() {
+            return !Arrays.equals(oldX, newX) || !Arrays.equals(oldY, newY);
         }
 
         @Override
         public void undo() {
-            node.x = oldPos.x;
-            node.y = oldPos.y;
+            for (int i = 0; i < movedNodes.length; i++) {
+                movedNodes[i].x = oldX[i];
+                movedNodes[i].y = oldY[i];
+                graphModel.touch(movedNodes[i]);
+            }
         }
 
         @Override
         public void redo() {
-            node.x = newPos.x;
-            node.y = newPos.y;
+            for (int i = 0; i < movedNodes.length; i++) {
+                movedNodes[i].x = newX[i];
+                movedNodes[i].y = newY[i];
+                graphModel.touch(movedNodes[i]);
+            }
+        }
+
+        @Override
+        public long estimatedSize() {
+            return 64 + movedNodes.length * 24L;
+        }
+
+        @Override
+        public boolean mergeWith(UndoableAction next) {
+            // Node identity, and the same iteration order as long as the selection didn't change
+            if (!(next instanceof MoveNodeAction move) || !Arrays.equals(movedNodes, move.movedNodes)) {
+                return false;
+            }
+            System.arraycopy(move.newX, 0, newX, 0, newX.length);
+            System.arraycopy(move.newY, 0, newY, 0, newY.length);
+            return true;
         }
     }
 
@@ -825,12 +1002,236 @@ public class NodeManager {
 
         @Override
         public void undo() {
-            connectionManager.disconnectPoints(output, input);
+            // Either end can be missing if a spilled entry outlived its nodes
+            if (output != null && input != null) {
+                connectionManager.disconnectPoints(output, input);
+            }
         }
 
         @Override
         public void redo() {
-            connectionManager.connectPoints(output, input);
+            if (output != null && input != null) {
+                connectionManager.connectPoints(output, input);
+            }
+        }
+    }
+
+    /**
+     * Writes undo entries to the history journal and reads them back. Nodes
+     * are referenced by id; entries that removed nodes from the graph also
+     * store the nodes themselves, so a node that has been garbage collected
+     * in the meantime can be recreated when its entry is read back. Entries
+     * come back newest first, so any node an older entry refers to has been
+     * restored by then.
+     */
+    private class ActionCodec implements UndoHistory.Codec {
+        private static final int CREATE = 1, DELETE = 2, CUT = 3, PASTE = 4, MOVE = 5, CONNECT = 6;
+
+        private int refsSincePrune;
+
+        @Override
+        public void write(UndoableAction action, DataOutputStream out) throws IOException {
+            if (action instanceof CreateNodeAction a) {
+                out.writeByte(CREATE);
+                writeNode(out, a.node);
+            } else if (action instanceof DeleteNodeAction a) {
+                out.writeByte(DELETE);
+                writeNode(out, a.node);
+                writeConnections(out, a.node, a.storedConnections);
+            } else if (action instanceof CutAction a) {
+                out.writeByte(CUT);
+                out.writeInt(a.cutNodes.size());
+                for (Node node : a.cutNodes) {
+                    writeNode(out, node);
+                    writeConnections(out, node, a.storedConnections.getOrDefault(node, Map.of()));
+                }
+            } else if (action instanceof PasteAction a) {
+                out.writeByte(PASTE);
+                out.writeInt(a.pastedNodes.size());
+                for (Node node : a.pastedNodes) {
+                    writeNode(out, node);
+                }
+            } else if (action instanceof MoveNodeAction a) {
+                out.writeByte(MOVE);
+                out.writeInt(a.movedNodes.length);
+                for (int i = 0; i < a.movedNodes.length; i++) {
+                    writeNodeRef(out, a.movedNodes[i]);
+                    out.writeInt(a.oldX[i]);
+                    out.writeInt(a.oldY[i]);
+                    out.writeInt(a.newX[i]);
+                    out.writeInt(a.newY[i]);
+                }
+            } else if (action instanceof CreateConnectionAction a) {
+                out.writeByte(CONNECT);
+                writePointRef(out, a.output);
+                writePointRef(out, a.input);
+            } else {
+                throw new IOException("Unsupported action " + action.getClass().getSimpleName());
+            }
+        }
+
+        @Override
+        public UndoableAction read(DataInputStream in) throws IOException {
+            int tag = in.readByte();
+            switch (tag) {
+                case CREATE:
+                    return new CreateNodeAction(readNode(in));
+                case DELETE: {
+                    Node node = readNode(in);
+                    return new DeleteNodeAction(node, readConnections(in, node));
+                }
+                case CUT: {
+                    int count = in.readInt();
+                    List<Node> cutNodes = new ArrayList<>(count);
+                    Map<Node, Map<ConnectionPoint, List<ConnectionPoint>>> stored = new HashMap<>();
+                    for (int i = 0; i < count; i++) {
+                        Node node = readNode(in);
+                        cutNodes.add(node);
+                        Map<ConnectionPoint, List<ConnectionPoint>> connections = readConnections(in, node);
+                        if (!connections.isEmpty()) {
+                            stored.put(node, connections);
+                        }
+                    }
+                    return new CutAction(cutNodes, stored);
+                }
+                case PASTE: {
+                    int count = in.readInt();
+                    List<Node> pasted = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        pasted.add(readNode(in));
+                    }
+                    return new PasteAction(pasted);
+                }
+                case MOVE: {
+                    int count = in.readInt();
+                    List<Node> moved = new ArrayList<>(count);
+                    int[] oldX = new int[count], oldY = new int[count], newX = new int[count], newY = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        Node node = readNodeRef(in);
+                        int ox = in.readInt(), oy = in.readInt(), nx = in.readInt(), ny = in.readInt();
+                        if (node == null) continue;
+                        int k = moved.size();
+                        moved.add(node);
+                        oldX[k] = ox;
+                        oldY[k] = oy;
+                        newX[k] = nx;
+                        newY[k] = ny;
+                    }
+                    int k = moved.size();
+                    return new MoveNodeAction(moved.toArray(new Node[0]), Arrays.copyOf(oldX, k),
+                            Arrays.copyOf(oldY, k), Arrays.copyOf(newX, k), Arrays.copyOf(newY, k));
+                }
+                case CONNECT:
+                    return new CreateConnectionAction(readPointRef(in), readPointRef(in));
+                default:
+                    throw new IOException("Corrupt undo journal entry " + tag);
+            }
+        }
+
+        private void writeNodeRef(DataOutputStream out, Node node) throws IOException {
+            // Drop ids of collected nodes every so often so the registry doesn't grow forever
+            if (++refsSincePrune >= 4096) {
+                journalNodes.values().removeIf(ref -> ref.get() == null);
+                refsSincePrune = 0;
+            }
+            journalNodes.putIfAbsent(node.getId(), new WeakReference<>(node));
+            out.writeInt(node.getId());
+        }
+
+        private Node readNodeRef(DataInputStream in) throws IOException {
+            WeakReference<Node> ref = journalNodes.get(in.readInt());
+            return ref != null ? ref.get() : null;
+        }
+
+        private void writeNode(DataOutputStream out, Node node) throws IOException {
+            writeNodeRef(out, node);
+            out.writeUTF(node.getType());
+            out.writeBoolean(node instanceof SpecialNode);
+            out.writeInt(node.x);
+            out.writeInt(node.y);
+            String[] stringParams = node.getStringParams();
+            out.writeInt(stringParams.length);
+            for (String param : stringParams) {
+                out.writeUTF(param != null ? param : "");
+            }
+            float[] floatParams = node.getFloatParams();
+            out.writeInt(floatParams.length);
+            for (float param : floatParams) {
+                out.writeFloat(param);
+            }
+        }
+
+        private Node readNode(DataInputStream in) throws IOException {
+            int id = in.readInt();
+            String type = in.readUTF();
+            boolean special = in.readBoolean();
+            int x = in.readInt();
+            int y = in.readInt();
+            String[] stringParams = new String[in.readInt()];
+            for (int i = 0; i < stringParams.length; i++) {
+                stringParams[i] = in.readUTF();
+            }
+            float[] floatParams = new float[in.readInt()];
+            for (int i = 0; i < floatParams.length; i++) {
+                floatParams[i] = in.readFloat();
+            }
+
+            WeakReference<Node> ref = journalNodes.get(id);
+            Node node = ref != null ? ref.get() : null;
+            if (node == null) {
+                node = special ? new SpecialNode(type) : new Node(type);
+                node.x = x;
+                node.y = y;
+                node.setStringParams(stringParams);
+                node.setFloatParams(floatParams);
+                // Later entries still know the node by its old id
+                journalNodes.put(id, new WeakReference<>(node));
+            }
+            return node;
+        }
+
+        private void writePointRef(DataOutputStream out, ConnectionPoint point) throws IOException {
+            writeNodeRef(out, point.parent);
+            out.writeByte(point.parent.indexOfPoint(point));
+        }
+
+        private ConnectionPoint readPointRef(DataInputStream in) throws IOException {
+            Node node = readNodeRef(in);
+            int index = in.readByte();
+            return node != null ? node.getPoint(index) : null;
+        }
+
+        private void writeConnections(DataOutputStream out, Node node, Map<ConnectionPoint, List<ConnectionPoint>> connections)
+                throws IOException {
+            out.writeInt(connections.size());
+            for (Map.Entry<ConnectionPoint, List<ConnectionPoint>> entry : connections.entrySet()) {
+                out.writeByte(node.indexOfPoint(entry.getKey()));
+                out.writeInt(entry.getValue().size());
+                for (ConnectionPoint connected : entry.getValue()) {
+                    writePointRef(out, connected);
+                }
+            }
+        }
+
+        private Map<ConnectionPoint, List<ConnectionPoint>> readConnections(DataInputStream in, Node node)
+                throws IOException {
+            int count = in.readInt();
+            Map<ConnectionPoint, List<ConnectionPoint>> connections = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                ConnectionPoint point = node.getPoint(in.readByte());
+                int size = in.readInt();
+                List<ConnectionPoint> list = new ArrayList<>(size);
+                for (int j = 0; j < size; j++) {
+                    ConnectionPoint connected = readPointRef(in);
+                    if (connected != null) {
+                        list.add(connected);
+                    }
+                }
+                if (point != null && !list.isEmpty()) {
+                    connections.put(point, list);
+                }
+            }
+            return connections;
         }
     }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package pl.szajsjem;
 
 import com.beednn.Net;
 import pl.szajsjem.data.CSVLoaderDialog;
+import pl.szajsjem.data.PreprocessingPipeline;
 
 import javax.swing.*;
 import javax.swing.table.AbstractTableModel;
@@ -15,12 +16,25 @@ public class OutputPreviewPanel extends JPanel {
     private final CSVLoaderDialog.LoadedData trainingData;
     private final int numPreviewRows = 5;
     private final int[] previewIndices;
+    // Preview rows packed for one batched predict, and where its results land; reused every update
+    private final float[] previewInputs;
+    private final float[] predicted;
     private float[][] currentOutputs;
+    // Expected outputs in the same units as the predictions
+    private final float[] expected;
+    private PreprocessingPipeline pipeline;
 
     public OutputPreviewPanel(CSVLoaderDialog.LoadedData data) {
         super(new BorderLayout());
         this.trainingData = data;
         this.previewIndices = selectRandomIndices(data.inputs.length, numPreviewRows);
+        int inputSize = data.getEncodedInputSize();
+        previewInputs = new float[numPreviewRows * inputSize];
+        for (int i = 0; i < numPreviewRows; i++) {
+            data.encodeInputs(previewIndices[i], previewInputs, i * inputSize);
+        }
+        predicted = new float[numPreviewRows * data.outputs[0].length];
+        expected = new float[numPreviewRows * data.outputs[0].length];
 
         setBorder(BorderFactory.createTitledBorder("Output Preview"));
 
@@ -48,20 +62,28 @@ public class OutputPreviewPanel extends JPanel {
     }
 
 
-    public void updatePreview(Net network) {
-        // Get inputs for preview rows
-        float[][] previewInputs = new float[numPreviewRows][];
-        for (int i = 0; i < numPreviewRows; i++) {
-            previewInputs[i] = trainingData.inputs[previewIndices[i]];
-        }
-
+    /**
+     * Predicts the preview rows. With a pipeline both the expected and the
+     * predicted values are shown in raw units, otherwise as trained on.
+     */
+    public void updatePreview(Net network, PreprocessingPipeline pipeline) {
         try {
-            // Predict outputs
-            currentOutputs = new float[numPreviewRows][trainingData.outputs[0].length];
+            // All preview rows in a single call instead of one JNI round trip per row
+            network.predict(previewInputs, numPreviewRows, trainingData.getEncodedInputSize(), predicted);
+            int outputSize = trainingData.outputs[0].length;
             for (int i = 0; i < numPreviewRows; i++) {
-                float[] output = new float[trainingData.outputs[0].length];
-                network.predict(previewInputs[i], 1, previewInputs[i].length, output);
-                currentOutputs[i] = output;
+                System.arraycopy(trainingData.outputs[previewIndices[i]], 0, expected, i * outputSize, outputSize);
+            }
+            if (pipeline != null) {
+                pipeline.inverseOutputs(predicted, numPreviewRows);
+                pipeline.inverseOutputs(expected, numPreviewRows);
+            }
+            this.pipeline = pipeline;
+            if (currentOutputs == null) {
+                currentOutputs = new float[numPreviewRows][outputSize];
+            }
+            for (int i = 0; i < numPreviewRows; i++) {
+                System.arraycopy(predicted, i * outputSize, currentOutputs[i], 0, outputSize);
             }
             tableModel.fireTableDataChanged();
         } catch (Exception e) {
@@ -69,6 +91,10 @@ public class OutputPreviewPanel extends JPanel {
         }
     }
 
+    private String format(int column, float value) {
+        return pipeline != null ? pipeline.formatOutput(column, value) : String.format("%.4f", value);
+    }
+
     private class PreviewTableModel extends AbstractTableModel {
         @Override
         public int getRowCount() {
@@ -92,11 +118,13 @@ public class OutputPreviewPanel extends JPanel {
             int outputIdx = column / 2;
             if (column % 2 == 0) {
                 // Expected output
-                return String.format("%.4f", trainingData.outputs[previewIndices[row]][outputIdx]);
+                return format(outputIdx, currentOutputs != null
+                        ? expected[row * trainingData.outputs[0].length + outputIdx]
+                        : trainingData.outputs[previewIndices[row]][outputIdx]);
             } else {
                 // Predicted output
                 if (currentOutputs != null) {
-                    return String.format("%.4f", currentOutputs[row][outputIdx]);
+                    return format(outputIdx, currentOutputs[row][outputIdx]);
                 }
                 return "N/A";
             }
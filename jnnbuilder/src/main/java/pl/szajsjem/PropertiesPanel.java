@@ -257,6 +257,7 @@ public class PropertiesPanel extends JPanel {
         for (Node node : selectedNodes) {
             node.setStringParams(stringParams.clone());
             node.setFloatParams(floatParams.clone());
+            nodeManager.getGraphModel().touch(node);
 
             // Recreate the layer in BeeDNN
             try {
@@ -0,0 +1,189 @@
+package pl.szajsjem;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frame-time telemetry for the editor canvas. All methods are expected to be
+ * called from the Swing event dispatch thread.
+ */
+public class RenderMetrics {
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    private final FixedBucketHistogram paintTimes = new FixedBucketHistogram();
+    private final FixedBucketHistogram hitTestTimes = new FixedBucketHistogram();
+    private final FixedBucketHistogram frameAllocations = new FixedBucketHistogram();
+    private final com.sun.management.ThreadMXBean threadBean;
+
+    private long frameStart;
+    private long frameAllocStart;
+    private int nodesDrawn, nodesCulled, edgesDrawn, edgesCulled;
+
+    // Values of the last completed frame
+    private long lastPaintNanos;
+    private int lastNodesDrawn, lastNodesCulled, lastEdgesDrawn, lastEdgesCulled;
+
+    // Allocation rate is averaged over roughly one second of frames
+    private long rateWindowStart;
+    private long rateWindowBytes;
+    private double allocationRate = -1;
+
+    public RenderMetrics() {
+        com.sun.management.ThreadMXBean bean = null;
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean sunBean
+                && sunBean.isThreadAllocatedMemorySupported()) {
+            sunBean.setThreadAllocatedMemoryEnabled(true);
+            bean = sunBean;
+        }
+        this.threadBean = bean;
+    }
+
+    public void beginFrame() {
+        nodesDrawn = nodesCulled = edgesDrawn = edgesCulled = 0;
+        frameAllocStart = allocatedBytes();
+        frameStart = System.nanoTime();
+        if (rateWindowStart == 0) {
+            rateWindowStart = frameStart;
+        }
+    }
+
+    public void endFrame() {
+        long now = System.nanoTime();
+        lastPaintNanos = now - frameStart;
+        paintTimes.record(lastPaintNanos);
+
+        lastNodesDrawn = nodesDrawn;
+        lastNodesCulled = nodesCulled;
+        lastEdgesDrawn = edgesDrawn;
+        lastEdgesCulled = edgesCulled;
+
+        if (threadBean != null) {
+            long bytes = allocatedBytes() - frameAllocStart;
+            frameAllocations.record(bytes);
+            rateWindowBytes += bytes;
+            if (now - rateWindowStart >= RATE_WINDOW_NANOS) {
+                allocationRate = rateWindowBytes * 1e9 / (now - rateWindowStart);
+                rateWindowBytes = 0;
+                rateWindowStart = now;
+            }
+        }
+    }
+
+    public void nodeDrawn() {
+        nodesDrawn++;
+    }
+
+    public void nodeCulled() {
+        nodesCulled++;
+    }
+
+    public void edgesDrawn(int count) {
+        edgesDrawn += count;
+    }
+
+    public void edgesCulled(int count) {
+        edgesCulled += count;
+    }
+
+    public void recordHitTest(long nanos) {
+        hitTestTimes.record(nanos);
+    }
+
+    private long allocatedBytes() {
+        return threadBean != null ? threadBean.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    public FixedBucketHistogram getPaintTimes() {
+        return paintTimes;
+    }
+
+    public FixedBucketHistogram getHitTestTimes() {
+        return hitTestTimes;
+    }
+
+    public FixedBucketHistogram getFrameAllocations() {
+        return frameAllocations;
+    }
+
+    public long getLastPaintNanos() {
+        return lastPaintNanos;
+    }
+
+    public int getLastNodesDrawn() {
+        return lastNodesDrawn;
+    }
+
+    public int getLastNodesCulled() {
+        return lastNodesCulled;
+    }
+
+    public int getLastEdgesDrawn() {
+        return lastEdgesDrawn;
+    }
+
+    public int getLastEdgesCulled() {
+        return lastEdgesCulled;
+    }
+
+    // Bytes per second allocated by the painting thread, -1 if the JVM can't tell
+    public double getAllocationRate() {
+        return allocationRate;
+    }
+
+    public void reset() {
+        paintTimes.reset();
+        hitTestTimes.reset();
+        frameAllocations.reset();
+        rateWindowStart = 0;
+        rateWindowBytes = 0;
+        allocationRate = -1;
+    }
+
+    public List<String> overlayLines() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("paint %.2f ms (p50 %.2f, p99 %.2f, max %.2f)",
+                lastPaintNanos / 1e6,
+                paintTimes.getValueAtPercentile(50) / 1e6,
+                paintTimes.getValueAtPercentile(99) / 1e6,
+                paintTimes.getMax() / 1e6));
+        lines.add(String.format("nodes %d drawn / %d culled", lastNodesDrawn, lastNodesCulled));
+        lines.add(String.format("edges %d drawn / %d culled", lastEdgesDrawn, lastEdgesCulled));
+        lines.add(String.format("hit-test p50 %.1f us, p99 %.1f us",
+                hitTestTimes.getValueAtPercentile(50) / 1e3,
+                hitTestTimes.getValueAtPercentile(99) / 1e3));
+        if (threadBean != null) {
+            lines.add(String.format("alloc %.1f KB/frame p50, %.1f MB/s",
+                    frameAllocations.getValueAtPercentile(50) / 1024.0,
+                    Math.max(0, allocationRate) / (1024.0 * 1024.0)));
+        } else {
+            lines.add("alloc n/a");
+        }
+        return lines;
+    }
+
+    /**
+     * Plain-text summary suitable for pasting into a bug report.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder("Render metrics\n");
+        appendHistogram(sb, "paint time (us)", paintTimes, 1e3);
+        appendHistogram(sb, "hit-test time (us)", hitTestTimes, 1e3);
+        if (threadBean != null) {
+            appendHistogram(sb, "allocation per frame (KB)", frameAllocations, 1024.0);
+            sb.append(String.format("allocation rate: %.1f MB/s%n", Math.max(0, allocationRate) / (1024.0 * 1024.0)));
+        }
+        sb.append(String.format("last frame: %d nodes drawn, %d culled; %d edges drawn, %d culled%n",
+                lastNodesDrawn, lastNodesCulled, lastEdgesDrawn, lastEdgesCulled));
+        return sb.toString();
+    }
+
+    private static void appendHistogram(StringBuilder sb, String name, FixedBucketHistogram h, double unit) {
+        sb.append(String.format("%s: n=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f max=%.1f%n",
+                name, h.getCount(), h.getMean() / unit,
+                h.getValueAtPercentile(50) / unit,
+                h.getValueAtPercentile(90) / unit,
+                h.getValueAtPercentile(99) / unit,
+                h.getMax() / unit));
+    }
+}
@@ -0,0 +1,152 @@
+package pl.szajsjem;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Early-stopping schedule for a sweep. All trials are trained for a few
+ * epochs, the best 1/eta of them are kept and trained eta times longer, and
+ * so on until the survivors reach the full epoch count. Survivors carry on
+ * from the network they already have instead of starting over, so a trial
+ * is never trained on the same epoch twice.
+ * <p>
+ * The schedule only talks to a {@link Trainer}, which makes it easy to drive
+ * with a deterministic stand-in (see {@code bench.HalvingBenchmark}).
+ */
+public class SuccessiveHalving {
+    public interface Trainer<R> {
+        R start(SweepSpace.Trial trial);
+
+        // Trains the run up to toEpochs in total and returns where it stands
+        SweepRunner.TrialResult advance(R run, int toEpochs, CancellationToken cancel);
+    }
+
+    // One round: how long the trials that reach it are trained, and how many do
+    public record Rung(int epochs, int trials) {
+    }
+
+    private final int minEpochs;
+    private final int maxEpochs;
+    private final int eta;
+
+    public SuccessiveHalving(int minEpochs, int maxEpochs, int eta) {
+        if (minEpochs < 1 || maxEpochs < minEpochs || eta < 2) {
+            throw new IllegalArgumentException("Need 1 <= min epochs <= max epochs and a reduction factor of at least 2");
+        }
+        this.minEpochs = minEpochs;
+        this.maxEpochs = maxEpochs;
+        this.eta = eta;
+    }
+
+    public List<Rung> plan(int trialCount) {
+        List<Rung> rungs = new ArrayList<>();
+        int epochs = minEpochs;
+        int count = trialCount;
+        while (true) {
+            rungs.add(new Rung(epochs, count));
+            if (epochs >= maxEpochs) break;
+            count = Math.max(1, (count + eta - 1) / eta);
+            // A lone survivor has nobody to be compared with, it goes straight to the end
+            epochs = count == 1 ? maxEpochs : (int) Math.min(maxEpochs, (long) epochs * eta);
+        }
+        return rungs;
+    }
+
+    // Epochs trained in total over the whole schedule
+    public long totalEpochs(int trialCount) {
+        long total = 0;
+        int previous = 0;
+        for (Rung rung : plan(trialCount)) {
+            total += (long) (rung.epochs() - previous) * rung.trials();
+            previous = rung.epochs();
+        }
+        return total;
+    }
+
+    /**
+     * Runs the schedule on the pool and returns the last result of every
+     * trial, the ones that got furthest first and each group ranked by
+     * validation loss. Blocks until done or the token is cancelled.
+     */
+    public <R> List<SweepRunner.TrialResult> run(List<SweepSpace.Trial> trials, Trainer<R> trainer,
+                                                 ExecutorService pool, SweepRunner.Listener listener,
+                                                 CancellationToken cancel) throws InterruptedException {
+        List<Entry<R>> entries = new ArrayList<>(trials.size());
+        for (SweepSpace.Trial trial : trials) {
+            entries.add(new Entry<>(entries.size(), trial));
+        }
+        List<Rung> rungs = plan(trials.size());
+        int totalRuns = 0;
+        for (Rung rung : rungs) totalRuns += rung.trials();
+        AtomicInteger finished = new AtomicInteger();
+        int total = totalRuns;
+
+        List<Entry<R>> alive = new ArrayList<>(entries);
+        for (int r = 0; r < rungs.size(); r++) {
+            Rung rung = rungs.get(r);
+            if (cancel.isCancelled()) break;
+            alive = new ArrayList<>(alive.subList(0, Math.min(alive.size(), rung.trials())));
+
+            List<Future<?>> futures = new ArrayList<>(alive.size());
+            for (Entry<R> entry : alive) {
+                futures.add(pool.submit(() -> {
+                    if (cancel.isCancelled()) return;
+                    if (entry.run == null) {
+                        entry.run = trainer.start(entry.trial);
+                    }
+                    entry.result = trainer.advance(entry.run, rung.epochs(), cancel);
+                    listener.trialFinished(entry.result, finished.incrementAndGet(), total);
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+
+            alive.sort(ENTRY_ORDER);
+            // Eliminated trials let go of their networks
+            int survivors = r + 1 < rungs.size() ? rungs.get(r + 1).trials() : alive.size();
+            for (int i = survivors; i < alive.size(); i++) {
+                alive.get(i).run = null;
+            }
+        }
+
+        entries.removeIf(entry -> entry.result == null);
+        entries.sort(Comparator.comparingInt((Entry<R> entry) -> -entry.result.trial().epochs())
+                .thenComparing(ENTRY_ORDER));
+        List<SweepRunner.TrialResult> results = new ArrayList<>(entries.size());
+        for (Entry<R> entry : entries) {
+            results.add(entry.result);
+        }
+        return results;
+    }
+
+    // By validation loss, ties by position in the grid so the outcome doesn't depend on timing
+    private static final Comparator<Entry<?>> ENTRY_ORDER = (a, b) -> {
+        int byLoss = SweepRunner.BY_VALIDATION_LOSS.compare(resultOrFailed(a), resultOrFailed(b));
+        return byLoss != 0 ? byLoss : Integer.compare(a.index, b.index);
+    };
+
+    private static SweepRunner.TrialResult resultOrFailed(Entry<?> entry) {
+        return entry.result != null ? entry.result
+                : new SweepRunner.TrialResult(entry.trial, Float.NaN, Float.NaN, 0, "not run");
+    }
+
+    private static class Entry<R> {
+        final int index;
+        final SweepSpace.Trial trial;
+        R run;
+        volatile SweepRunner.TrialResult result;
+
+        Entry(int index, SweepSpace.Trial trial) {
+            this.index = index;
+            this.trial = trial;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package pl.szajsjem;
+
+import com.beednn.NetTrain;
+import pl.szajsjem.data.CSVLoaderDialog;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Sets up a hyperparameter sweep, runs it with {@link SweepRunner} and shows
+ * the trials ranked by validation loss as they finish. The settings of a
+ * trial can be copied to the editor's training settings.
+ */
+public class SweepDialog extends JDialog {
+    private static final long SPLIT_SEED = 42;
+
+    private final NetworkStructureSerializer serializer;
+    private final CSVLoaderDialog.LoadedData data;
+    private final NetTrain netTrain;
+
+    private final JTextField epochsField = new JTextField("100", 16);
+    private final JTextField batchSizeField = new JTextField("16, 32, 64", 16);
+    private final JList<String> optimizerList = new JList<>(NetTrain.getAvailableOptimizers());
+    private final JTextField learningRateField = new JTextField("0.0001..0.1*4", 16);
+    private final JTextField decayField = new JTextField("0", 16);
+    private final JTextField momentumField = new JTextField("0.9", 16);
+    private final JList<String> regularizerList = new JList<>(NetTrain.getAvailableRegularizers());
+    private final JTextField regularizerParamField = new JTextField("0.01", 16);
+    private final JComboBox<String> lossCombo = new JComboBox<>(NetTrain.getAvailableLosses());
+    private final JCheckBox halvingCheck = new JCheckBox("Successive Halving", true);
+    private final JSpinner minEpochsSpinner = new JSpinner(new SpinnerNumberModel(9, 1, 1_000_000, 1));
+    private final JSpinner etaSpinner = new JSpinner(new SpinnerNumberModel(3, 2, 10, 1));
+
+    private final JButton runButton = new JButton("Run Sweep");
+    private final JButton stopButton = new JButton("Stop");
+    private final JButton applyButton = new JButton("Use Selected Settings");
+    private final JLabel progressLabel = new JLabel(" ");
+    private final ResultsTableModel resultsModel = new ResultsTableModel();
+    private final JTable resultsTable = new JTable(resultsModel);
+
+    private volatile CancellationToken cancellation;
+    private boolean applied = false;
+
+    public SweepDialog(JFrame parent, NetworkStructureSerializer serializer,
+                       CSVLoaderDialog.LoadedData data, NetTrain netTrain) {
+        super(parent, "Hyperparameter Sweep", true);
+        this.serializer = serializer;
+        this.data = data;
+        this.netTrain = netTrain;
+
+        setLayout(new BorderLayout(10, 10));
+
+        JPanel settingsPanel = new JPanel();
+        settingsPanel.setLayout(new BoxLayout(settingsPanel, BoxLayout.Y_AXIS));
+        settingsPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        String rangeHelp = "Values separated by commas, from..to/count for an even range or from..to*count for a log range";
+        addSettingRow(settingsPanel, "Epochs:", epochsField, rangeHelp);
+        addSettingRow(settingsPanel, "Batch Sizes:", batchSizeField, rangeHelp);
+        addSettingRow(settingsPanel, "Learning Rates:", learningRateField, rangeHelp);
+        addSettingRow(settingsPanel, "Decays:", decayField, rangeHelp);
+        addSettingRow(settingsPanel, "Momentums:", momentumField, rangeHelp);
+        addSettingRow(settingsPanel, "Regularizer Parameters:", regularizerParamField, rangeHelp);
+        addSettingRow(settingsPanel, "Loss Function:", lossCombo, null);
+        addSettingRow(settingsPanel, "", halvingCheck,
+                "Train every trial briefly, keep the best and give them more epochs, up to the largest epoch count");
+        addSettingRow(settingsPanel, "First Round Epochs:", minEpochsSpinner,
+                "One or two epochs mostly show how fast a setting learns, not where it ends up, and often drop the best one;"
+                        + " about the largest epoch count / (Keep 1 in)² keeps it at a fraction of the cost");
+        addSettingRow(settingsPanel, "Keep 1 in:", etaSpinner, null);
+        halvingCheck.addActionListener(e -> {
+            minEpochsSpinner.setEnabled(halvingCheck.isSelected());
+            etaSpinner.setEnabled(halvingCheck.isSelected());
+        });
+
+        optimizerList.setVisibleRowCount(4);
+        optimizerList.setSelectedIndex(0);
+        regularizerList.setVisibleRowCount(4);
+        regularizerList.setSelectedIndex(0);
+        JPanel listsPanel = new JPanel(new GridLayout(1, 2, 10, 0));
+        listsPanel.add(titled("Optimizers", new JScrollPane(optimizerList)));
+        listsPanel.add(titled("Regularizers", new JScrollPane(regularizerList)));
+        settingsPanel.add(listsPanel);
+        add(settingsPanel, BorderLayout.WEST);
+
+        resultsTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        resultsTable.getColumnModel().getColumn(0).setMaxWidth(50);
+        add(titled("Results", new JScrollPane(resultsTable)), BorderLayout.CENTER);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton closeButton = new JButton("Close");
+        stopButton.setEnabled(false);
+        applyButton.setEnabled(false);
+        buttonPanel.add(runButton);
+        buttonPanel.add(stopButton);
+        buttonPanel.add(applyButton);
+        buttonPanel.add(closeButton);
+        buttonPanel.add(progressLabel);
+        add(buttonPanel, BorderLayout.SOUTH);
+
+        runButton.addActionListener(e -> startSweep());
+        stopButton.addActionListener(e -> requestStop());
+        applyButton.addActionListener(e -> applySelected());
+        closeButton.addActionListener(e -> {
+            requestStop();
+            dispose();
+        });
+        resultsTable.getSelectionModel().addListSelectionListener(e ->
+                applyButton.setEnabled(resultsTable.getSelectedRow() >= 0));
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                requestStop();
+            }
+        });
+
+        setSize(1000, 600);
+        setLocationRelativeTo(parent);
+    }
+
+    private static JComponent titled(String title, JComponent component) {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(BorderFactory.createTitledBorder(title));
+        panel.add(component, BorderLayout.CENTER);
+        return panel;
+    }
+
+    private void addSettingRow(JPanel panel, String label, JComponent component, String tooltip) {
+        JPanel row = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        if (!label.isEmpty()) {
+            row.add(new JLabel(label));
+        }
+        row.add(component);
+        if (tooltip != null) {
+            component.setToolTipText(tooltip);
+        }
+        panel.add(row);
+    }
+
+    private SweepSpace readSpace() {
+        List<String> optimizers = optimizerList.getSelectedValuesList();
+        List<String> regularizers = regularizerList.getSelectedValuesList();
+        if (optimizers.isEmpty() || regularizers.isEmpty()) {
+            throw new IllegalArgumentException("Select at least one optimizer and one regularizer");
+        }
+        return new SweepSpace(
+                SweepSpace.parseInts(epochsField.getText()),
+                SweepSpace.parseInts(batchSizeField.getText()),
+                optimizers,
+                SweepSpace.parseFloats(learningRateField.getText()),
+                SweepSpace.parseFloats(decayField.getText()),
+                SweepSpace.parseFloats(momentumField.getText()),
+                regularizers,
+                SweepSpace.parseFloats(regularizerParamField.getText()),
+                (String) lossCombo.getSelectedItem());
+    }
+
+    private void startSweep() {
+        SweepSpace space;
+        SweepRunner runner;
+        SuccessiveHalving schedule = null;
+        List<SweepSpace.Trial> trials;
+        try {
+            space = readSpace();
+            runner = new SweepRunner(serializer, data, SPLIT_SEED);
+            trials = space.trials();
+            if (halvingCheck.isSelected()) {
+                int maxEpochs = Collections.max(space.epochs);
+                int minEpochs = Math.min(maxEpochs, (Integer) minEpochsSpinner.getValue());
+                schedule = new SuccessiveHalving(minEpochs, maxEpochs, (Integer) etaSpinner.getValue());
+                // The schedule decides the epochs, so trials differing only in epochs are the same trial
+                Set<SweepSpace.Trial> distinct = new LinkedHashSet<>();
+                for (SweepSpace.Trial trial : trials) {
+                    distinct.add(trial.withEpochs(maxEpochs));
+                }
+                trials = new ArrayList<>(distinct);
+            }
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this,
+                    "Invalid sweep settings: " + e.getMessage(),
+                    "Sweep Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        CancellationToken token = new CancellationToken();
+        cancellation = token;
+        resultsModel.clear(schedule != null);
+        runButton.setEnabled(false);
+        stopButton.setEnabled(true);
+        progressLabel.setText(trials.size() + " trials on " + runner.getThreads() + " threads");
+
+        List<SweepSpace.Trial> sweepTrials = trials;
+        SuccessiveHalving halving = schedule;
+        var th = new Thread(() -> {
+            String message;
+            try {
+                SweepRunner.Listener listener = (result, finished, total) ->
+                        SwingUtilities.invokeLater(() -> {
+                            resultsModel.add(result);
+                            progressLabel.setText(finished + " of " + total + " runs on "
+                                    + runner.getThreads() + " threads");
+                        });
+                List<SweepRunner.TrialResult> ranked = halving != null
+                        ? runner.runHalving(sweepTrials, halving, listener, token)
+                        : runner.run(sweepTrials, listener, token);
+                message = token.isCancelled()
+                        ? "Stopped after " + ranked.size() + " of " + sweepTrials.size() + " trials"
+                        + (token.getLatencyMillis() >= 0 ? " (stopping took " + token.getLatencyMillis() + " ms)" : "")
+                        : "Finished " + ranked.size() + " trials"
+                        + (halving != null ? " using " + halving.totalEpochs(sweepTrials.size()) + " of "
+                        + (long) sweepTrials.size() * Collections.max(space.epochs) + " epochs of a full grid" : "");
+            } catch (Exception e) {
+                message = "Sweep failed: " + e.getMessage();
+            }
+            String status = message;
+            SwingUtilities.invokeLater(() -> {
+                cancellation = null;
+                runButton.setEnabled(true);
+                stopButton.setEnabled(false);
+                progressLabel.setText(status);
+            });
+        }, "sweep");
+        th.setDaemon(true);
+        th.start();
+    }
+
+    private void requestStop() {
+        CancellationToken token = cancellation;
+        if (token == null) return;
+        token.cancel();
+        stopButton.setEnabled(false);
+        progressLabel.setText("Stopping...");
+    }
+
+    private void applySelected() {
+        int row = resultsTable.getSelectedRow();
+        if (row < 0) return;
+        try {
+            resultsModel.get(row).trial().applyTo(netTrain);
+            applied = true;
+            progressLabel.setText("Training settings updated");
+        } catch (Exception e) {
+            JOptionPane.showMessageDialog(this,
+                    "Error applying settings: " + e.getMessage(),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    // True if the settings of a trial were copied to the training settings
+    public boolean showDialog() {
+        setVisible(true);
+        return applied;
+    }
+
+    /**
+     * Keeps the rows ranked as results come in. Under successive halving a
+     * trial that trained further replaces its earlier row, and the trials
+     * that got furthest rank first.
+     */
+    private static class ResultsTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Rank", "Validation Loss", "Train Loss", "Time (s)", "Settings"};
+        private static final Comparator<SweepRunner.TrialResult> BY_PROGRESS = Comparator
+                .comparingInt((SweepRunner.TrialResult r) -> -r.trial().epochs())
+                .thenComparing(SweepRunner.BY_VALIDATION_LOSS);
+        private final List<SweepRunner.TrialResult> results = new ArrayList<>();
+        private boolean halving;
+
+        void add(SweepRunner.TrialResult result) {
+            if (halving) {
+                SweepSpace.Trial key = result.trial().withEpochs(0);
+                results.removeIf(r -> r.trial().withEpochs(0).equals(key));
+            }
+            results.add(result);
+            results.sort(halving ? BY_PROGRESS : SweepRunner.BY_VALIDATION_LOSS);
+            fireTableDataChanged();
+        }
+
+        void clear(boolean halving) {
+            this.halving = halving;
+            results.clear();
+            fireTableDataChanged();
+        }
+
+        SweepRunner.TrialResult get(int row) {
+            return results.get(row);
+        }
+
+        @Override
+        public int getRowCount() {
+            return results.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            SweepRunner.TrialResult result = results.get(row);
+            return switch (column) {
+                case 0 -> row + 1;
+                case 1 -> result.failed() ? "failed" : String.format("%.6f", result.validationLoss());
+                case 2 -> result.failed() ? "" : String.format("%.6f", result.trainLoss());
+                case 3 -> String.format("%.1f", result.millis() / 1000.0);
+                default -> result.failed() ? result.trial() + ": " + result.error() : result.trial().toString();
+            };
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package pl.szajsjem;
+
+import com.beednn.Net;
+import com.beednn.NetTrain;
+import pl.szajsjem.data.CSVLoaderDialog;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trains one network per sweep trial, several at a time on a pool with a
+ * thread per core. Every trial gets its own Net built from the same
+ * serializer and its own NetTrain, so trials share nothing native. A fixed
+ * part of the data is held out and the trials are ranked by their loss on
+ * it.
+ */
+public class SweepRunner {
+    public static final double VALIDATION_FRACTION = 0.2;
+
+    public record TrialResult(SweepSpace.Trial trial, float validationLoss, float trainLoss,
+                              long millis, String error) {
+        public boolean failed() {
+            return error != null;
+        }
+    }
+
+    public interface Listener {
+        // Called on a worker thread as each trial finishes
+        void trialFinished(TrialResult result, int finished, int total);
+    }
+
+    // Best first, failed and diverged trials last
+    public static final Comparator<TrialResult> BY_VALIDATION_LOSS = Comparator
+            .comparing((TrialResult r) -> r.failed() || Float.isNaN(r.validationLoss()))
+            .thenComparingDouble(TrialResult::validationLoss);
+
+    private final NetworkStructureSerializer serializer;
+    private final int inputSize, outputSize;
+    private final int trainRows, validationRows;
+    // Flattened once and shared read-only by every trial
+    private final float[] trainInputs, trainOutputs, validationInputs, validationOutputs;
+    private final int threads;
+
+    public SweepRunner(NetworkStructureSerializer serializer, CSVLoaderDialog.LoadedData data, long seed) {
+        this(serializer, data, seed, Runtime.getRuntime().availableProcessors());
+    }
+
+    public SweepRunner(NetworkStructureSerializer serializer, CSVLoaderDialog.LoadedData data, long seed, int threads) {
+        int rows = data.inputs.length;
+        if (rows < 2) {
+            throw new IllegalArgumentException("A sweep needs at least two rows of data");
+        }
+        this.serializer = serializer;
+        this.threads = Math.max(1, threads);
+        inputSize = data.getEncodedInputSize();
+        outputSize = data.outputs[0].length;
+
+        // Same split for every trial, so their losses compare
+        Integer[] order = new Integer[rows];
+        for (int i = 0; i < rows; i++) order[i] = i;
+        Collections.shuffle(Arrays.asList(order), new Random(seed));
+        validationRows = Math.max(1, (int) Math.round(rows * VALIDATION_FRACTION));
+        trainRows = rows - validationRows;
+
+        trainInputs = new float[trainRows * inputSize];
+        trainOutputs = new float[trainRows * outputSize];
+        validationInputs = new float[validationRows * inputSize];
+        validationOutputs = new float[validationRows * outputSize];
+        for (int i = 0; i < rows; i++) {
+            int row = order[i];
+            if (i < trainRows) {
+                data.encodeInputs(row, trainInputs, i * inputSize);
+                System.arraycopy(data.outputs[row], 0, trainOutputs, i * outputSize, outputSize);
+            } else {
+                int v = i - trainRows;
+                data.encodeInputs(row, validationInputs, v * inputSize);
+                System.arraycopy(data.outputs[row], 0, validationOutputs, v * outputSize, outputSize);
+            }
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Runs every trial and returns the results ranked by validation loss.
+     * Blocks until all trials are done or the token is cancelled; trials
+     * that hadn't started by then are left out.
+     */
+    public List<TrialResult> run(List<SweepSpace.Trial> trials, Listener listener, CancellationToken cancel)
+            throws InterruptedException {
+        ExecutorService pool = newPool(Math.min(threads, Math.max(1, trials.size())));
+        List<TrialResult> results = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger finished = new AtomicInteger();
+        try {
+            List<Future<?>> futures = new ArrayList<>(trials.size());
+            for (SweepSpace.Trial trial : trials) {
+                futures.add(pool.submit(() -> {
+                    if (cancel.isCancelled()) return;
+                    TrialRun run = new TrialRun(trial);
+                    run.advance(trial.epochs(), cancel);
+                    TrialResult result = run.result();
+                    results.add(result);
+                    listener.trialFinished(result, finished.incrementAndGet(), trials.size());
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // TrialRun records its own failures, anything else is a listener bug
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        List<TrialResult> ranked = new ArrayList<>(results);
+        ranked.sort(BY_VALIDATION_LOSS);
+        return ranked;
+    }
+
+    /**
+     * Runs the trials under a successive halving schedule, which decides how
+     * many epochs each one gets. The epochs of the trials themselves are
+     * ignored. Returns the results of the trials that got furthest first.
+     */
+    public List<TrialResult> runHalving(List<SweepSpace.Trial> trials, SuccessiveHalving schedule,
+                                        Listener listener, CancellationToken cancel) throws InterruptedException {
+        ExecutorService pool = newPool(Math.min(threads, Math.max(1, trials.size())));
+        try {
+            return schedule.run(trials, new SuccessiveHalving.Trainer<TrialRun>() {
+                @Override
+                public TrialRun start(SweepSpace.Trial trial) {
+                    return new TrialRun(trial);
+                }
+
+                @Override
+                public TrialResult advance(TrialRun run, int toEpochs, CancellationToken token) {
+                    run.advance(toEpochs, token);
+                    return run.result();
+                }
+            }, pool, listener, cancel);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    static ExecutorService newPool(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "sweep-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static float[] append(float[] history, float[] more) {
+        float[] joined = Arrays.copyOf(history, history.length + more.length);
+        System.arraycopy(more, 0, joined, history.length, more.length);
+        return joined;
+    }
+
+    /**
+     * One trial's network and trainer. Training can be advanced in steps,
+     * each continuing from where the last one stopped. Each step is a single
+     * fit: the sweep ranks optimizer, rate, decay and momentum settings, so
+     * it must not restart the optimizer anywhere but between halving rungs.
+     */
+    class TrialRun {
+        final SweepSpace.Trial trial;
+        private Net network;
+        private NetTrain netTrain;
+        private float[] trainHistory = new float[0];
+        private float[] validationHistory = new float[0];
+        private int epochsDone;
+        private long millis;
+        private String error;
+
+        TrialRun(SweepSpace.Trial trial) {
+            this.trial = trial;
+        }
+
+        void advance(int toEpochs, CancellationToken cancel) {
+            if (error != null || epochsDone >= toEpochs) return;
+            long start = System.nanoTime();
+            try {
+                if (network == null) {
+                    // The serializer records the layers of the Net it last built, so builds take turns
+                    synchronized (serializer) {
+                        network = serializer.buildNetwork();
+                        network.init(inputSize);
+                    }
+                    netTrain = new NetTrain();
+                    trial.applyTo(netTrain);
+                    netTrain.setTrainData(trainInputs, trainRows, inputSize, trainOutputs, trainRows, outputSize);
+                    netTrain.setValidationData(validationInputs, validationRows, inputSize,
+                            validationOutputs, validationRows, outputSize);
+                }
+                if (!cancel.isCancelled()) {
+                    netTrain.setEpochs(toEpochs - epochsDone);
+                    netTrain.fit(network);
+                    trainHistory = append(trainHistory, netTrain.getTrainLoss());
+                    validationHistory = append(validationHistory, netTrain.getValidationLoss());
+                    epochsDone = toEpochs;
+                }
+            } catch (Exception e) {
+                error = e.getMessage() != null ? e.getMessage() : e.toString();
+            }
+            millis += (System.nanoTime() - start) / 1_000_000;
+        }
+
+        TrialResult result() {
+            if (error != null) {
+                return new TrialResult(trial.withEpochs(epochsDone), Float.NaN, Float.NaN, millis, error);
+            }
+            float[] validation = validationHistory;
+            float[] train = trainHistory;
+            float validationLoss = validation.length > 0 ? validation[validation.length - 1]
+                    : netTrain.computeLossAccuracy(validationInputs, validationRows, inputSize,
+                    validationOutputs, validationRows, outputSize);
+            float trainLoss = train.length > 0 ? train[train.length - 1] : Float.NaN;
+            return new TrialResult(trial.withEpochs(epochsDone), validationLoss, trainLoss, millis, null);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package pl.szajsjem;
+
+import com.beednn.NetTrain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The values to try for each training setting of a hyperparameter sweep.
+ * Every combination becomes one {@link Trial}. Numeric values are given as
+ * text: a comma separated list ({@code 0.1, 0.01}), an evenly spaced range
+ * ({@code 0..0.9/4} for four values) or a log spaced range
+ * ({@code 0.0001..0.1*4}).
+ */
+public class SweepSpace {
+    public final List<Integer> epochs;
+    public final List<Integer> batchSizes;
+    public final List<String> optimizers;
+    public final List<Float> learningRates;
+    public final List<Float> decays;
+    public final List<Float> momentums;
+    public final List<String> regularizers;
+    public final List<Float> regularizerParams;
+    // Not swept, the same for every trial
+    public final String loss;
+
+    public SweepSpace(List<Integer> epochs, List<Integer> batchSizes, List<String> optimizers,
+                      List<Float> learningRates, List<Float> decays, List<Float> momentums,
+                      List<String> regularizers, List<Float> regularizerParams, String loss) {
+        this.epochs = List.copyOf(epochs);
+        this.batchSizes = List.copyOf(batchSizes);
+        this.optimizers = List.copyOf(optimizers);
+        this.learningRates = List.copyOf(learningRates);
+        this.decays = List.copyOf(decays);
+        this.momentums = List.copyOf(momentums);
+        this.regularizers = List.copyOf(regularizers);
+        this.regularizerParams = List.copyOf(regularizerParams);
+        this.loss = loss;
+    }
+
+    // The settings of one training run
+    public record Trial(int epochs, int batchSize, String optimizer, float learningRate, float decay,
+                        float momentum, String regularizer, float regularizerParam, String loss) {
+
+        // Same calls the training settings dialog makes
+        public void applyTo(NetTrain netTrain) {
+            netTrain.setEpochs(epochs);
+            netTrain.setBatchSize(batchSize);
+            if (loss != null) {
+                netTrain.setLoss(loss);
+            }
+            netTrain.setOptimizer(optimizer, learningRate, decay, momentum);
+            netTrain.setRegularizer(regularizer, regularizerParam);
+        }
+
+        public Trial withEpochs(int epochs) {
+            return new Trial(epochs, batchSize, optimizer, learningRate, decay, momentum,
+                    regularizer, regularizerParam, loss);
+        }
+
+        @Override
+        public String toString() {
+            return optimizer + " lr=" + learningRate + " decay=" + decay + " momentum=" + momentum
+                    + " batch=" + batchSize + " " + regularizer + "=" + regularizerParam + " epochs=" + epochs;
+        }
+    }
+
+    public int size() {
+        return epochs.size() * batchSizes.size() * optimizers.size() * learningRates.size()
+                * decays.size() * momentums.size() * regularizers.size() * regularizerParams.size();
+    }
+
+    // Every combination, with the learning rate varying fastest
+    public List<Trial> trials() {
+        List<Trial> trials = new ArrayList<>(size());
+        for (int epochCount : epochs)
+            for (int batchSize : batchSizes)
+                for (String optimizer : optimizers)
+                    for (String regularizer : regularizers)
+                        for (float regularizerParam : regularizerParams)
+                            for (float momentum : momentums)
+                                for (float decay : decays)
+                                    for (float learningRate : learningRates)
+                                        trials.add(new Trial(epochCount, batchSize, optimizer, learningRate,
+                                                decay, momentum, regularizer, regularizerParam, loss));
+        return trials;
+    }
+
+    public static List<Float> parseFloats(String text) {
+        List<Float> values = new ArrayList<>();
+        for (double value : parse(text)) {
+            values.add((float) value);
+        }
+        return values;
+    }
+
+    public static List<Integer> parseInts(String text) {
+        List<Integer> values = new ArrayList<>();
+        for (double value : parse(text)) {
+            int rounded = (int) Math.round(value);
+            if (!values.contains(rounded)) {
+                values.add(rounded);
+            }
+        }
+        return values;
+    }
+
+    private static List<Double> parse(String text) {
+        List<Double> values = new ArrayList<>();
+        for (String part : text.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) continue;
+            int range = part.indexOf("..");
+            if (range < 0) {
+                values.add(Double.parseDouble(part));
+                continue;
+            }
+            boolean log = part.indexOf('*', range) >= 0;
+            int countAt = part.indexOf(log ? '*' : '/', range);
+            if (countAt < 0) {
+                throw new IllegalArgumentException("Range needs a count, e.g. 1..10/4: " + part);
+            }
+            double from = Double.parseDouble(part.substring(0, range).trim());
+            double to = Double.parseDouble(part.substring(range + 2, countAt).trim());
+            int count = Integer.parseInt(part.substring(countAt + 1).trim());
+            if (count < 1) {
+                throw new IllegalArgumentException("Range count must be positive: " + part);
+            }
+            if (log && (from <= 0 || to <= 0)) {
+                throw new IllegalArgumentException("Log range must be positive: " + part);
+            }
+            for (int i = 0; i < count; i++) {
+                double t = count == 1 ? 0 : (double) i / (count - 1);
+                values.add(log ? from * Math.pow(to / from, t) : from + (to - from) * t);
+            }
+        }
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("No values given");
+        }
+        return values;
+    }
+}
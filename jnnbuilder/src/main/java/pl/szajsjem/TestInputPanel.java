@@ -2,7 +2,7 @@ package pl.szajsjem;
 
 import com.beednn.Net;
 import pl.szajsjem.data.CSVLoaderDialog;
-import pl.szajsjem.data.CategoricalMapping;
+import pl.szajsjem.data.PreprocessingPipeline;
 
 import javax.swing.*;
 import java.awt.*;
@@ -68,25 +68,24 @@ public class TestInputPanel extends JPanel {
 
     private void runTest() {
         Net network = trainingDialog.getTrainedNetwork();
+        if (network == null) {
+            JOptionPane.showMessageDialog(this,
+                    "Train the network first.",
+                    "Test Error",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
+        }
 
         try {
-            // Collect input values
+            // Values are typed as in the CSV; the pipeline scales them like the training data was
+            PreprocessingPipeline pipeline = trainingDialog.getPipeline();
             float[] inputs = new float[inputFields.size()];
             for (int i = 0; i < inputFields.size(); i++) {
-                String text = inputFields.get(i).getText().trim();
-
-                // Check for categorical values
-                if (trainingData.categoricalMappings.containsKey(i)) {
-                    CategoricalMapping mapping = trainingData.categoricalMappings.get(i);
-                    inputs[i] = mapping.getOrCreateIndex(text);
-                } else {
-                    inputs[i] = Float.parseFloat(text);
-                }
+                inputs[i] = pipeline.encodeInput(i, inputFields.get(i).getText().trim());
             }
 
-            // Run network forward pass
-            float[] output = new float[trainingData.outputs[0].length];
-            network.predict(inputs, 1, inputs.length, output);
+            // Run network forward pass, output comes back in raw units
+            float[] output = pipeline.predict(network, inputs, 1, trainingData.outputs[0].length);
 
             // Update output display
             outputPanel.removeAll();
@@ -95,14 +94,7 @@ public class TestInputPanel extends JPanel {
                 JLabel label = new JLabel(trainingData.outputColumnNames[i] + ": ");
                 JLabel value = new JLabel();
 
-                // Format output value
-                if (trainingData.categoricalMappings.containsKey(trainingData.inputColumnNames.length + i)) {
-                    CategoricalMapping mapping = trainingData.categoricalMappings.get(trainingData.inputColumnNames.length + i);
-                    int index = Math.round(output[i]);
-                    value.setText(String.format("%s (%.2f)", mapping.getValue(index), output[i]));
-                } else {
-                    value.setText(String.format("%.4f", output[i]));
-                }
+                value.setText(pipeline.formatOutput(i, output[i]));
 
                 row.add(label);
                 row.add(value);
@@ -0,0 +1,60 @@
+package pl.szajsjem;
+
+import com.beednn.Layer;
+import com.beednn.Net;
+import pl.szajsjem.data.PreprocessingPipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A trained network together with what is needed to store and use it: the
+ * layers in the order they were added to the Net, the input size it was
+ * initialised with, the loss history of its training and the preprocessing
+ * that turns raw values into what it was trained on.
+ */
+public class TrainedModel {
+    public final Net network;
+    public final List<Layer> layers;
+    public final int inputSize;
+    public final float[] trainLoss;
+    public final float[] validationLoss;
+    public final PreprocessingPipeline pipeline;
+
+    public TrainedModel(Net network, List<Layer> layers, int inputSize, float[] trainLoss, float[] validationLoss,
+                        PreprocessingPipeline pipeline) {
+        this.network = network;
+        this.layers = new ArrayList<>(layers);
+        this.inputSize = inputSize;
+        this.trainLoss = trainLoss;
+        this.validationLoss = validationLoss;
+        this.pipeline = pipeline;
+    }
+
+    // Scores rows of encoded raw inputs, returns the outputs in raw units
+    public float[] predict(float[] encodedInputs, int rows, int outputSize) {
+        return pipeline.predict(network, encodedInputs, rows, outputSize);
+    }
+
+    // Serialized form of every layer, weights included
+    public List<String> saveLayers() {
+        List<String> saved = new ArrayList<>(layers.size());
+        for (Layer layer : layers) {
+            saved.add(layer.save());
+        }
+        return saved;
+    }
+
+    // Rebuilds a network from saved layers, keeping the trained weights
+    public static TrainedModel restore(List<String> savedLayers, int inputSize, float[] trainLoss, float[] validationLoss,
+                                       PreprocessingPipeline pipeline) {
+        Net network = new Net();
+        List<Layer> layers = new ArrayList<>(savedLayers.size());
+        for (String saved : savedLayers) {
+            Layer layer = Layer.fromString(saved);
+            network.addLayer(layer);
+            layers.add(layer);
+        }
+        return new TrainedModel(network, layers, inputSize, trainLoss, validationLoss, pipeline);
+    }
+}
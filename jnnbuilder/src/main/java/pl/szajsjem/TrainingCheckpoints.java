@@ -0,0 +1,104 @@
+package pl.szajsjem;
+
+import pl.szajsjem.data.PreprocessingPipeline;
+import pl.szajsjem.elements.Node;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Writes training checkpoints in the background. A checkpoint is a model
+ * bundle with the run's progress added, written to a temp file and renamed
+ * into place so a crash mid-write leaves the previous checkpoint intact. If
+ * checkpoints come in faster than they can be written only the newest one
+ * is kept.
+ */
+public class TrainingCheckpoints {
+    // Everything a checkpoint holds, already serialized so writing needs no BeeDNN calls
+    public record Checkpoint(List<Node> nodes, String trainSettings, int inputSize, List<String> layers,
+                             PreprocessingPipeline pipeline,
+                             float[] trainLoss, float[] validationLoss, int epochsDone, int totalEpochs) {
+    }
+
+    private final Path file;
+    private final Consumer<IOException> errorListener;
+    private final AtomicReference<Checkpoint> pending = new AtomicReference<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "training-checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> lastWrite;
+
+    public TrainingCheckpoints(Path file, Consumer<IOException> errorListener) {
+        this.file = file;
+        this.errorListener = errorListener;
+    }
+
+    public static Path defaultFile() {
+        return Path.of(System.getProperty("user.home"), ".jnnbuilder", "checkpoints", "checkpoint.bnn");
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public synchronized void submit(Checkpoint checkpoint) {
+        // A write already queued picks up the newest checkpoint when it runs
+        if (pending.getAndSet(checkpoint) == null) {
+            lastWrite = executor.submit(this::writePending);
+        }
+    }
+
+    // Blocks until every submitted checkpoint is on disk
+    public void flush() {
+        Future<?> write;
+        synchronized (this) {
+            write = lastWrite;
+        }
+        if (write == null) return;
+        try {
+            write.get();
+        } catch (Exception e) {
+            // Reported through the error listener already
+        }
+    }
+
+    public void shutdown() {
+        flush();
+        executor.shutdown();
+    }
+
+    private void writePending() {
+        Checkpoint checkpoint = pending.getAndSet(null);
+        if (checkpoint == null) return;
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            ModelBundle.write(temp, checkpoint.nodes(), checkpoint.trainSettings(), checkpoint.inputSize(),
+                    checkpoint.layers(), checkpoint.pipeline(),
+                    checkpoint.trainLoss(), checkpoint.validationLoss(),
+                    checkpoint.epochsDone(), checkpoint.totalEpochs());
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            errorListener.accept(e);
+        }
+    }
+
+    // The checkpoint of an unfinished run, or null if there is none
+    public static ModelBundle loadUnfinished(Path file) throws IOException {
+        if (!Files.exists(file)) return null;
+        ModelBundle bundle = ModelBundle.load(file);
+        return bundle.isCheckpoint() ? bundle : null;
+    }
+}
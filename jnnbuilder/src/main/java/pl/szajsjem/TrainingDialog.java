@@ -1,11 +1,17 @@
 package pl.szajsjem;
 
+import com.beednn.Layer;
 import com.beednn.Net;
 import com.beednn.NetTrain;
 import pl.szajsjem.data.CSVLoaderDialog;
+import pl.szajsjem.data.Normalization;
+import pl.szajsjem.data.PreprocessingPipeline;
+import pl.szajsjem.elements.Node;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Timer;
@@ -15,25 +21,39 @@ public class TrainingDialog extends JDialog {
     private final NetworkStructureSerializer networkSerializer;
     private final CSVLoaderDialog.LoadedData trainingData;
     private final NetTrain netTrain;
+    private final Normalization normalization;
+    // Fitted on first use, or taken over from the checkpoint being resumed
+    private PreprocessingPipeline pipeline;
+    // Design the network was built from, stored with every checkpoint
+    private final List<Node> designNodes;
+    private final TrainingCheckpoints checkpoints;
     private final JButton startButton;
     private final JButton trainMoreButton;
     private final JButton stopButton;
+    private final JSpinner epochsSpinner;
+    private final JLabel progressLabel;
     private final List<Float> trainLosses = new ArrayList<>();
     private final List<Float> validationLosses = new ArrayList<>();
     private final LossGraph lossGraph;
     private final OutputPreviewPanel outputPreview;
     private final TestInputPanel testInput;
     private Net network;
-    private volatile boolean isTraining = false;
-    private final boolean initialTrainingDone = false;
+    private List<Layer> layers = new ArrayList<>();
+    private int epochsDone;
+    // Only touched on the training thread, runs of one dialog never overlap
+    private boolean trainDataSet;
+    // Token of the run in progress, null when idle
+    private volatile CancellationToken cancellation;
     private Timer updateTimer;
 
     public TrainingDialog(JFrame parent, NetworkStructureSerializer serializer,
-                          CSVLoaderDialog.LoadedData data, NetTrain netTrain) {
+                          CSVLoaderDialog.LoadedData data, NetTrain netTrain, Normalization normalization) {
         super(parent, "Network Training", true);
         this.networkSerializer = serializer;
         this.trainingData = data;
         this.netTrain = netTrain;
+        this.normalization = normalization;
+        this.designNodes = serializer.getNodes();
 
         setLayout(new BorderLayout(10, 10));
         setSize(800, 600);
@@ -46,9 +66,21 @@ public class TrainingDialog extends JDialog {
         trainMoreButton = new JButton("Train More");
         stopButton = new JButton("Stop Training");
         stopButton.setEnabled(false);
+        // The optimizer is only restarted where a checkpoint is written, so training runs in long fits
+        stopButton.setToolTipText("Stops and checkpoints at the end of the current chunk, which can take up to "
+                + TrainingDriver.CHECKPOINT_INTERVAL_MS / 1000 + " seconds");
         trainMoreButton.setEnabled(false);
+        epochsSpinner = new JSpinner(new SpinnerNumberModel(
+                TrainingDriver.epochsFromSettings(netTrain.save()), 1, 1_000_000, 1));
+        progressLabel = new JLabel(" ");
+        checkpoints = new TrainingCheckpoints(TrainingCheckpoints.defaultFile(), e ->
+                SwingUtilities.invokeLater(() -> progressLabel.setText("Checkpoint failed: " + e.getMessage())));
+        buttonPanel.add(new JLabel("Epochs:"));
+        buttonPanel.add(epochsSpinner);
         buttonPanel.add(startButton);
+        buttonPanel.add(trainMoreButton);
         buttonPanel.add(stopButton);
+        buttonPanel.add(progressLabel);
         topPanel.add(buttonPanel, BorderLayout.WEST);
         add(topPanel, BorderLayout.NORTH);
 
@@ -70,27 +102,65 @@ public class TrainingDialog extends JDialog {
         add(testInput, BorderLayout.SOUTH);
 
         // Button actions
-        startButton.addActionListener(e -> startTraining());
-        stopButton.addActionListener(e -> stopTraining());
+        startButton.addActionListener(e -> startTraining(false));
+        trainMoreButton.addActionListener(e -> startTraining(true));
+        stopButton.addActionListener(e -> requestStop());
+
+        // Closing the dialog abandons the run, so don't leave fit running behind it
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                requestStop();
+            }
+        });
+    }
+
+    /**
+     * Continues an interrupted run from its checkpoint. The network is
+     * restored from the checkpoint's layers and Train More picks up where
+     * the run stopped.
+     */
+    public TrainingDialog(JFrame parent, ModelBundle checkpoint,
+                          CSVLoaderDialog.LoadedData data, NetTrain netTrain) {
+        this(parent, new NetworkStructureSerializer(checkpoint.nodes), data, netTrain, checkpoint.getNormalization());
+        TrainedModel restored = checkpoint.restoreModel();
+        network = restored.network;
+        layers = restored.layers;
+        pipeline = restored.pipeline;
+        epochsDone = checkpoint.epochsDone;
+        for (float loss : restored.trainLoss) trainLosses.add(loss);
+        for (float loss : restored.validationLoss) validationLosses.add(loss);
+        lossGraph.updateData(trainLosses, validationLosses);
+
+        epochsSpinner.setValue(checkpoint.totalEpochs - checkpoint.epochsDone);
+        trainMoreButton.setEnabled(true);
+        progressLabel.setText("Resuming at epoch " + checkpoint.epochsDone + " of " + checkpoint.totalEpochs);
     }
 
-    private void startTraining() {
+    // Train network starts over from a freshly built network, Train More continues the current one
+    private void startTraining(boolean continueTraining) {
         try {
-            // Build network if not already built
-            if (network == null) {
+            if (!continueTraining || network == null) {
                 network = networkSerializer.buildNetwork();
-                network.init(trainingData.inputs[0].length);
+                network.init(trainingData.getEncodedInputSize());
+                layers = networkSerializer.getBuiltLayers();
+                epochsDone = 0;
+
+                // Clear previous training data
+                trainLosses.clear();
+                validationLosses.clear();
+                lossGraph.reset();
             }
+            int totalEpochs = epochsDone + (Integer) epochsSpinner.getValue();
+            float[] trainHistory = toArray(trainLosses);
+            float[] validationHistory = toArray(validationLosses);
 
             // Setup training
             startButton.setEnabled(false);
+            trainMoreButton.setEnabled(false);
             stopButton.setEnabled(true);
-            isTraining = true;
-
-            // Clear previous training data
-            trainLosses.clear();
-            validationLosses.clear();
-            lossGraph.reset();
+            CancellationToken token = new CancellationToken();
+            cancellation = token;
 
             // Start update timer
             updateTimer = new Timer();
@@ -104,7 +174,7 @@ public class TrainingDialog extends JDialog {
             }, 0, 1000); // Update every second
 
             // Start training in background thread
-            var th = new Thread(this::trainNetwork);
+            var th = new Thread(() -> trainNetwork(totalEpochs, trainHistory, validationHistory, token));
             th.setDaemon(true);
             th.start();
         } catch (Exception e) {
@@ -116,28 +186,51 @@ public class TrainingDialog extends JDialog {
         }
     }
 
+    // Training stops after the chunk that is running, up to a checkpoint interval; trainNetwork reports when
+    private void requestStop() {
+        CancellationToken token = cancellation;
+        if (token == null) return;
+        token.cancel();
+        stopButton.setEnabled(false);
+        progressLabel.setText("Stopping...");
+    }
+
     private void stopTraining() {
-        isTraining = false;
+        cancellation = null;
         if (updateTimer != null) {
             updateTimer.cancel();
         }
         startButton.setEnabled(true);
+        trainMoreButton.setEnabled(network != null);
         stopButton.setEnabled(false);
     }
 
-    private void trainNetwork() {
+    private void trainNetwork(int totalEpochs, float[] trainHistory, float[] validationHistory,
+                              CancellationToken token) {
         try {
-            // Convert 2D arrays to 1D arrays for JNI
-            float[] flatInputs = flattenArray(trainingData.inputs);
-            float[] flatOutputs = flattenArray(trainingData.outputs);
-
-            // Set training data
-            netTrain.setTrainData(
-                    flatInputs, trainingData.inputs.length, trainingData.inputs[0].length,
-                    flatOutputs, trainingData.outputs.length, trainingData.outputs[0].length
-            );
+            // The flattened data is cached on the dataset and the NetTrain keeps its own copy, so hand it over once
+            if (!trainDataSet) {
+                netTrain.setTrainData(
+                        trainingData.getFlatInputs(), trainingData.inputs.length, trainingData.getEncodedInputSize(),
+                        trainingData.getFlatOutputs(), trainingData.outputs.length, trainingData.outputs[0].length
+                );
+                trainDataSet = true;
+            }
 
-            netTrain.fit(network);
+            PreprocessingPipeline fitted = getPipeline();
+            TrainingDriver driver = new TrainingDriver(netTrain, network, layers, checkpoints,
+                    (settings, savedLayers, trainLoss, validationLoss, done, total) ->
+                            new TrainingCheckpoints.Checkpoint(designNodes, settings, trainingData.getEncodedInputSize(),
+                                    savedLayers, fitted, trainLoss, validationLoss, done, total));
+            driver.setHistory(trainHistory, validationHistory);
+            driver.run(epochsDone, totalEpochs, (done, total, trainLoss, validationLoss) -> {
+                epochsDone = done;
+                SwingUtilities.invokeLater(() -> {
+                    updateGraph(trainLoss, validationLoss);
+                    progressLabel.setText("Epoch " + done + " of " + total);
+                });
+            }, token);
+            checkpoints.flush();
         } catch (Exception e) {
             SwingUtilities.invokeLater(() -> {
                 JOptionPane.showMessageDialog(this,
@@ -146,10 +239,15 @@ public class TrainingDialog extends JDialog {
                         JOptionPane.ERROR_MESSAGE);
             });
         }
-        updateGraph();
-        stopTraining();
-        updateOutputPreview();
         SwingUtilities.invokeLater(() -> {
+            stopTraining();
+            updateOutputPreview();
+            if (token.isCancelled()) {
+                long latency = token.getLatencyMillis();
+                progressLabel.setText("Stopped at epoch " + epochsDone
+                        + (latency >= 0 ? " (stopping took " + latency + " ms)" : ""));
+                return;
+            }
             JOptionPane.showMessageDialog(this,
                     "Finished training",
                     "Message",
@@ -157,23 +255,7 @@ public class TrainingDialog extends JDialog {
         });
     }
 
-    private float[] flattenArray(float[][] array2D) {
-        int rows = array2D.length;
-        int cols = array2D[0].length;
-        float[] flat = new float[rows * cols];
-
-        for (int i = 0; i < rows; i++) {
-            System.arraycopy(array2D[i], 0, flat, i * cols, cols);
-        }
-
-        return flat;
-    }
-
-    private void updateGraph() {
-        // Get latest loss values from NetTrain
-        float[] trainLoss = netTrain.getTrainLoss();
-        float[] validationLoss = netTrain.getValidationLoss();
-
+    private void updateGraph(float[] trainLoss, float[] validationLoss) {
         for (int i = 0; i < trainLoss.length; i++)
             trainLosses.add(trainLoss[i]);
         for (int i = 0; i < validationLoss.length; i++)
@@ -184,11 +266,39 @@ public class TrainingDialog extends JDialog {
 
     private void updateOutputPreview() {
         if (network != null) {
-            outputPreview.updatePreview(network);
+            // The training thread fits the pipeline, the event thread doesn't wait for it
+            PreprocessingPipeline fitted;
+            synchronized (this) {
+                fitted = pipeline;
+            }
+            outputPreview.updatePreview(network, fitted);
         }
     }
 
     public Net getTrainedNetwork() {
         return network;
     }
-}
\ No newline at end of file
+
+    // Null until a network has been built
+    public TrainedModel getTrainedModel() {
+        if (network == null) return null;
+        return new TrainedModel(network, layers, trainingData.getEncodedInputSize(),
+                toArray(trainLosses), toArray(validationLosses), getPipeline());
+    }
+
+    // How raw values are turned into what the network sees, fitted to the training data
+    public synchronized PreprocessingPipeline getPipeline() {
+        if (pipeline == null) {
+            pipeline = PreprocessingPipeline.fit(trainingData, normalization);
+        }
+        return pipeline;
+    }
+
+    private static float[] toArray(List<Float> values) {
+        float[] array = new float[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,173 @@
+package pl.szajsjem;
+
+import com.beednn.Layer;
+import com.beednn.Net;
+import com.beednn.NetTrain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a training session as a series of {@code fit} calls, each sized to
+ * take about {@link #CHECKPOINT_INTERVAL_MS}. Every fit restarts the
+ * optimizer's moments and decay schedule, so the session is only split where
+ * a checkpoint is written: after each chunk the losses are reported and the
+ * layers are serialized and handed to {@link TrainingCheckpoints} to be
+ * written in the background. The first chunk is a single epoch, to measure
+ * how long one takes. Without checkpoints there is nothing to resume from,
+ * so the whole run is one fit. A native fit can't be interrupted, so
+ * cancellation is checked between chunks and can take up to one chunk.
+ */
+public class TrainingDriver {
+    public static final int DEFAULT_EPOCHS = 100;
+    // Also the usual upper bound on how long a cancel waits
+    public static final long CHECKPOINT_INTERVAL_MS = 60_000;
+    private static final Pattern EPOCHS = Pattern.compile("(?i)epochs?\\W*(\\d+)");
+
+    public interface Listener {
+        // Called on the training thread with the losses of the epochs just run
+        void chunkFinished(int epochsDone, int totalEpochs, float[] trainLoss, float[] validationLoss);
+    }
+
+    // Supplies everything but the layers and losses for a checkpoint
+    public interface CheckpointFactory {
+        TrainingCheckpoints.Checkpoint create(String trainSettings, List<String> layers,
+                                              float[] trainLoss, float[] validationLoss,
+                                              int epochsDone, int totalEpochs);
+    }
+
+    private final NetTrain netTrain;
+    private final Net network;
+    private final List<Layer> layers;
+    private final TrainingCheckpoints checkpoints;
+    private final CheckpointFactory checkpointFactory;
+    private final FloatHistory trainLoss = new FloatHistory();
+    private final FloatHistory validationLoss = new FloatHistory();
+
+    public TrainingDriver(NetTrain netTrain, Net network, List<Layer> layers,
+                          TrainingCheckpoints checkpoints, CheckpointFactory checkpointFactory) {
+        this.netTrain = netTrain;
+        this.network = network;
+        this.layers = layers;
+        this.checkpoints = checkpoints;
+        this.checkpointFactory = checkpointFactory;
+    }
+
+    /**
+     * Best guess at the epoch count in saved training settings. BeeDNN has
+     * no getter for it, so this looks for it in the text and falls back to
+     * the settings dialog's default.
+     */
+    public static int epochsFromSettings(String settings) {
+        if (settings != null) {
+            Matcher matcher = EPOCHS.matcher(settings);
+            if (matcher.find()) {
+                try {
+                    return Math.max(1, Integer.parseInt(matcher.group(1)));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return DEFAULT_EPOCHS;
+    }
+
+    // Loss history to continue from, e.g. when resuming a checkpoint
+    public void setHistory(float[] trainLoss, float[] validationLoss) {
+        this.trainLoss.clear();
+        this.trainLoss.addAll(trainLoss);
+        this.validationLoss.clear();
+        this.validationLoss.addAll(validationLoss);
+    }
+
+    /**
+     * Trains from epochsDone up to totalEpochs on the calling thread. The
+     * data must already be set on the NetTrain. Returns the epochs done,
+     * which is less than totalEpochs if the token was cancelled; the run is
+     * then checkpointed so it can be resumed.
+     */
+    public int run(int epochsDone, int totalEpochs, Listener listener, CancellationToken cancel) {
+        // Splitting only pays for itself where a checkpoint is written
+        int chunk = checkpoints != null ? 1 : totalEpochs - epochsDone;
+        try {
+            while (epochsDone < totalEpochs) {
+                if (cancel.isCancelled()) {
+                    cancel.acknowledge();
+                    if (checkpoints != null) {
+                        checkpoint(epochsDone, totalEpochs);
+                    }
+                    break;
+                }
+                int epochs = Math.min(chunk, totalEpochs - epochsDone);
+                netTrain.setEpochs(epochs);
+                long start = System.nanoTime();
+                netTrain.fit(network);
+                long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+                epochsDone += epochs;
+
+                float[] chunkTrain = netTrain.getTrainLoss();
+                float[] chunkValidation = netTrain.getValidationLoss();
+                trainLoss.addAll(chunkTrain);
+                validationLoss.addAll(chunkValidation);
+                listener.chunkFinished(epochsDone, totalEpochs, chunkTrain, chunkValidation);
+
+                // Every chunk boundary is a point the run can be resumed from
+                if (checkpoints != null) {
+                    checkpoint(epochsDone, totalEpochs);
+                }
+
+                // Aim the next chunk at the checkpoint interval based on how fast this one went
+                long msPerEpoch = Math.max(1, elapsedMs / epochs);
+                chunk = (int) Math.max(1, Math.min(Integer.MAX_VALUE, CHECKPOINT_INTERVAL_MS / msPerEpoch));
+            }
+        } finally {
+            // Leave the full count in the settings, not the last chunk size
+            netTrain.setEpochs(totalEpochs);
+        }
+        return epochsDone;
+    }
+
+    // Serializes on this thread, between fits, so nothing native runs concurrently
+    private void checkpoint(int epochsDone, int totalEpochs) {
+        netTrain.setEpochs(totalEpochs);
+        String settings = netTrain.save();
+        List<String> saved = new ArrayList<>(layers.size());
+        for (Layer layer : layers) {
+            saved.add(layer.save());
+        }
+        checkpoints.submit(checkpointFactory.create(settings, saved,
+                trainLoss.toArray(), validationLoss.toArray(), epochsDone, totalEpochs));
+    }
+
+    public float[] getTrainLoss() {
+        return trainLoss.toArray();
+    }
+
+    public float[] getValidationLoss() {
+        return validationLoss.toArray();
+    }
+
+    // Growable float list without boxing
+    private static class FloatHistory {
+        private float[] values = new float[64];
+        private int size;
+
+        void addAll(float[] more) {
+            if (size + more.length > values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + more.length));
+            }
+            System.arraycopy(more, 0, values, size, more.length);
+            size += more.length;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        float[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package pl.szajsjem;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Undo/redo history with a memory budget. Consecutive actions are merged when
+ * they allow it, and once the in-memory entries exceed the budget the oldest
+ * undo entries are written to an on-disk journal and read back when the user
+ * undoes that far. The journal itself is capped too; beyond that the oldest
+ * entries are forgotten, and the file is compacted so it stays within about
+ * twice the cap.
+ */
+class UndoHistory {
+    interface Codec {
+        void write(UndoableAction action, DataOutputStream out) throws IOException;
+
+        UndoableAction read(DataInputStream in) throws IOException;
+    }
+
+    private final Deque<UndoableAction> undoEntries = new ArrayDeque<>();
+    private final Deque<UndoableAction> redoEntries = new ArrayDeque<>();
+    private final long memoryBudget;
+    private final long journalBudget;
+    private final Codec codec;
+    private long memoryUsed;
+
+    // Spilled entries, oldest first; records before firstRecord were dropped
+    private RandomAccessFile journal;
+    private File journalFile;
+    private long[] recordOffsets = new long[16];
+    private int recordCount;
+    private int firstRecord;
+
+    UndoHistory(long memoryBudget, long journalBudget, Codec codec) {
+        this.memoryBudget = memoryBudget;
+        this.journalBudget = journalBudget;
+        this.codec = codec;
+    }
+
+    void add(UndoableAction action) {
+        clearRedo();
+        UndoableAction newest = undoEntries.peekFirst();
+        if (newest != null) {
+            long before = newest.estimatedSize();
+            if (newest.mergeWith(action)) {
+                memoryUsed += newest.estimatedSize() - before;
+                return;
+            }
+        }
+        undoEntries.addFirst(action);
+        memoryUsed += action.estimatedSize();
+        enforceBudget();
+    }
+
+    // Returns the action to undo, or null if there is nothing left
+    UndoableAction undo() {
+        UndoableAction action = undoEntries.pollFirst();
+        if (action == null) {
+            action = readSpilled();
+            if (action == null) return null;
+        } else {
+            memoryUsed -= action.estimatedSize();
+        }
+        redoEntries.addFirst(action);
+        memoryUsed += action.estimatedSize();
+        enforceBudget();
+        return action;
+    }
+
+    // Returns the action to redo, or null if there is nothing to redo
+    UndoableAction redo() {
+        UndoableAction action = redoEntries.pollFirst();
+        if (action == null) return null;
+        // Moving between the deques doesn't change the memory in use
+        undoEntries.addFirst(action);
+        enforceBudget();
+        return action;
+    }
+
+    boolean canUndo() {
+        return !undoEntries.isEmpty() || recordCount > firstRecord;
+    }
+
+    boolean canRedo() {
+        return !redoEntries.isEmpty();
+    }
+
+    long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    int getSpilledCount() {
+        return recordCount - firstRecord;
+    }
+
+    void clear() {
+        undoEntries.clear();
+        redoEntries.clear();
+        memoryUsed = 0;
+        resetJournal();
+    }
+
+    private void clearRedo() {
+        for (UndoableAction action : redoEntries) {
+            memoryUsed -= action.estimatedSize();
+        }
+        redoEntries.clear();
+    }
+
+    private void enforceBudget() {
+        // Keep at least the newest entry in memory so undo stays instant
+        while (memoryUsed > memoryBudget && undoEntries.size() > 1) {
+            UndoableAction oldest = undoEntries.pollLast();
+            memoryUsed -= oldest.estimatedSize();
+            spill(oldest);
+        }
+        // Redo entries are only dropped once the undo side can't give anything back
+        while (memoryUsed > memoryBudget && !redoEntries.isEmpty()) {
+            memoryUsed -= redoEntries.pollLast().estimatedSize();
+        }
+    }
+
+    private void spill(UndoableAction action) {
+        try {
+            if (journal == null) {
+                journalFile = File.createTempFile("jnnbuilder-undo", ".journal");
+                journalFile.deleteOnExit();
+                journal = new RandomAccessFile(journalFile, "rw");
+            }
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+            codec.write(action, new DataOutputStream(buffer));
+
+            long offset = journal.length();
+            journal.seek(offset);
+            journal.writeInt(buffer.size());
+            journal.write(buffer.toByteArray());
+
+            if (recordCount == recordOffsets.length) {
+                recordOffsets = Arrays.copyOf(recordOffsets, recordCount * 2);
+            }
+            recordOffsets[recordCount++] = offset;
+
+            // Forget the oldest entries once the journal grows past its budget
+            while (recordCount - firstRecord > 1 && journal.length() - recordOffsets[firstRecord] > journalBudget) {
+                firstRecord++;
+            }
+            // Forgotten records are still in the file; once they outweigh the budget, drop them from it
+            if (recordOffsets[firstRecord] > journalBudget) {
+                compactJournal();
+            }
+        } catch (IOException e) {
+            // Without a journal the oldest history is simply lost
+            System.err.println("Could not spill undo history: " + e.getMessage());
+            resetJournal();
+        }
+    }
+
+    // Copies the live records to a fresh file that replaces the journal, so it holds only what can still be undone
+    private void compactJournal() throws IOException {
+        long start = recordOffsets[firstRecord];
+        File compacted = File.createTempFile("jnnbuilder-undo", ".journal", journalFile.getParentFile());
+        compacted.deleteOnExit();
+        try (RandomAccessFile out = new RandomAccessFile(compacted, "rw")) {
+            byte[] block = new byte[64 * 1024];
+            journal.seek(start);
+            int read;
+            while ((read = journal.read(block)) > 0) {
+                out.write(block, 0, read);
+            }
+        }
+        journal.close();
+        journal = null;
+        Files.move(compacted.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        journal = new RandomAccessFile(journalFile, "rw");
+
+        int live = recordCount - firstRecord;
+        long[] offsets = new long[Math.max(16, Integer.highestOneBit(live) * 2)];
+        for (int i = 0; i < live; i++) {
+            offsets[i] = recordOffsets[firstRecord + i] - start;
+        }
+        recordOffsets = offsets;
+        recordCount = live;
+        firstRecord = 0;
+    }
+
+    private UndoableAction readSpilled() {
+        if (recordCount <= firstRecord) return null;
+        long offset = recordOffsets[--recordCount];
+        try {
+            journal.seek(offset);
+            byte[] data = new byte[journal.readInt()];
+            journal.readFully(data);
+            journal.setLength(offset);
+            if (recordCount == firstRecord) {
+                resetJournal();
+            }
+            return codec.read(new DataInputStream(new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            System.err.println("Could not read spilled undo history: " + e.getMessage());
+            resetJournal();
+            return null;
+        }
+    }
+
+    private void resetJournal() {
+        recordCount = 0;
+        firstRecord = 0;
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ignored) {
+            }
+            journal = null;
+        }
+        // A failed compaction can leave the file without an open journal
+        if (journalFile != null) {
+            journalFile.delete();
+            journalFile = null;
+        }
+    }
+}
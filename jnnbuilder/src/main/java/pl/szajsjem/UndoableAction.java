@@ -0,0 +1,17 @@
+package pl.szajsjem;
+
+interface UndoableAction {
+    void undo();
+
+    void redo();
+
+    // Rough number of heap bytes kept alive by this action, used for the history budget
+    default long estimatedSize() {
+        return 32;
+    }
+
+    // Folds an action that directly follows this one into it, returns false if they can't be merged
+    default boolean mergeWith(UndoableAction next) {
+        return false;
+    }
+}
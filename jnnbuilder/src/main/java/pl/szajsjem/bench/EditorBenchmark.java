@@ -0,0 +1,228 @@
+package pl.szajsjem.bench;
+
+import pl.szajsjem.ConnectionManager;
+import pl.szajsjem.FixedBucketHistogram;
+import pl.szajsjem.NetworkLayout;
+import pl.szajsjem.NodeManager;
+import pl.szajsjem.elements.Node;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.InputEvent;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Headless stress harness for the editor. Generates a design with
+ * {@link GraphGenerator}, replays an edit script against {@link NodeManager},
+ * {@link ConnectionManager} and {@link NetworkLayout}, and prints latency
+ * percentiles per operation.
+ * <p>
+ * Scripts are plain text, one operation per line:
+ * <pre>
+ * press x y [ctrl|shift]   mouse press in canvas coordinates
+ * drag x y                 mouse drag
+ * release x y              mouse release
+ * move x y                 mouse move (hover highlight)
+ * hit x y                  node hit test
+ * create Type              create a node
+ * delete                   delete the selection
+ * selectAll | copy | cut | undo | redo | layout | validate
+ * snapshot                 take a graph model snapshot
+ * </pre>
+ * Synthesized scripts leave out {@code validate}: validation is cubic in the
+ * node count (about 1 s at 400 nodes, 10 s at 800), so a handful of them
+ * would swamp every other operation. It is timed once per size instead, for
+ * sizes up to {@code --validate-limit} nodes, and reported on its own line.
+ * <p>
+ * Usage: {@code EditorBenchmark [--sizes 1000,10000] [--ops 2000] [--seed 1]
+ * [--validate-limit 500] [--script file] [--save-script file]}
+ */
+public class EditorBenchmark {
+    private final NodeManager nodeManager;
+    private final Map<String, FixedBucketHistogram> latencies = new TreeMap<>();
+
+    public EditorBenchmark(List<Node> design) {
+        nodeManager = new NodeManager(new JPanel(), null);
+        nodeManager.getAllNodes().addAll(design);
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        int[] sizes = {1000, 10000};
+        int opCount = 2000;
+        long seed = 1;
+        int validateLimit = 500;
+        Path scriptFile = null;
+        Path saveScript = null;
+
+        for (int i = 0; i < args.length - 1; i += 2) {
+            switch (args[i]) {
+                case "--sizes" -> sizes = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--ops" -> opCount = Integer.parseInt(args[i + 1]);
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                case "--validate-limit" -> validateLimit = Integer.parseInt(args[i + 1]);
+                case "--script" -> scriptFile = Path.of(args[i + 1]);
+                case "--save-script" -> saveScript = Path.of(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        for (int size : sizes) {
+            // Synthesizing moves nodes around, so it works on its own copy of the design
+            List<String> script = scriptFile != null
+                    ? Files.readAllLines(scriptFile)
+                    : synthesizeScript(new GraphGenerator(seed).targetNodes(size).generate(), opCount, seed);
+            List<Node> design = new GraphGenerator(seed).targetNodes(size).generate();
+            if (saveScript != null) {
+                Files.write(saveScript, script);
+            }
+
+            EditorBenchmark benchmark = new EditorBenchmark(design);
+            long start = System.nanoTime();
+            benchmark.replay(script);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("=== %d nodes, %d operations, %.1f ms total ===%n",
+                    design.size(), script.size(), elapsed / 1e6);
+            System.out.print(benchmark.report());
+            if (design.size() <= validateLimit) {
+                System.out.printf("validate once: %.1f ms%n", benchmark.timeValidation() / 1e6);
+            } else {
+                System.out.printf("validate skipped above %d nodes (--validate-limit)%n", validateLimit);
+            }
+        }
+    }
+
+    // A single validation of the design as the script left it, in nanoseconds
+    public long timeValidation() {
+        long start = System.nanoTime();
+        execute(new String[]{"validate"});
+        return System.nanoTime() - start;
+    }
+
+    public void replay(List<String> script) {
+        for (String line : script) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\\s+");
+            long start = System.nanoTime();
+            execute(parts);
+            latencies.computeIfAbsent(parts[0], k -> new FixedBucketHistogram())
+                    .record(System.nanoTime() - start);
+        }
+    }
+
+    private void execute(String[] op) {
+        switch (op[0]) {
+            case "press" -> {
+                int modifiers = 0;
+                if (op.length > 3) {
+                    modifiers = op[3].equals("ctrl") ? InputEvent.CTRL_DOWN_MASK : InputEvent.SHIFT_DOWN_MASK;
+                }
+                nodeManager.handleMousePressed(point(op), modifiers);
+            }
+            case "drag" -> nodeManager.handleMouseDragged(point(op));
+            case "release" -> nodeManager.handleMouseReleased(point(op));
+            case "move" -> nodeManager.handleMouseMoved(point(op));
+            case "hit" -> nodeManager.getNodeAt(point(op));
+            case "create" -> nodeManager.createNode(op[1]);
+            case "delete" -> {
+                for (Node node : new ArrayList<>(nodeManager.getSelectedNodes())) {
+                    nodeManager.deleteNode(node);
+                }
+            }
+            case "selectAll" -> nodeManager.getSelectedNodes().addAll(nodeManager.getAllNodes());
+            case "copy" -> nodeManager.copy();
+            case "cut" -> nodeManager.cut();
+            case "undo" -> nodeManager.undo();
+            case "redo" -> nodeManager.redo();
+            case "layout" -> NetworkLayout.autoLayout(nodeManager.getAllNodes());
+            case "validate" -> new ConnectionManager((ArrayList<Node>) nodeManager.getAllNodes()).validateNetwork();
+            case "snapshot" -> nodeManager.getGraphModel().snapshot();
+            default -> throw new IllegalArgumentException("Unknown operation " + op[0]);
+        }
+    }
+
+    private static Point point(String[] op) {
+        return new Point(Integer.parseInt(op[1]), Integer.parseInt(op[2]));
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-10s %8s %10s %10s %10s %10s%n", "op", "count", "p50 us", "p90 us", "p99 us", "max us"));
+        for (Map.Entry<String, FixedBucketHistogram> entry : latencies.entrySet()) {
+            FixedBucketHistogram h = entry.getValue();
+            sb.append(String.format("%-10s %8d %10.1f %10.1f %10.1f %10.1f%n", entry.getKey(), h.getCount(),
+                    h.getValueAtPercentile(50) / 1e3, h.getValueAtPercentile(90) / 1e3,
+                    h.getValueAtPercentile(99) / 1e3, h.getMax() / 1e3));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Produces a deterministic stand-in for a recorded editing session:
+     * mostly hovering and dragging nodes, some connecting, creating,
+     * deleting and undo/redo, with occasional auto-layout. Validation is left
+     * out, see the class comment.
+     */
+    public static List<String> synthesizeScript(List<Node> design, int opCount, long seed) {
+        Random random = new Random(seed);
+        List<String> script = new ArrayList<>();
+        List<Node> pool = new ArrayList<>(design);
+
+        while (script.size() < opCount) {
+            int roll = random.nextInt(100);
+            Node node = pool.get(random.nextInt(pool.size()));
+            int cx = node.x + node.width / 2;
+            int cy = node.y + node.height / 2;
+
+            if (roll < 30) {
+                // Hover around a node
+                for (int i = 0; i < 5; i++) {
+                    script.add("move " + (cx + random.nextInt(200) - 100) + " " + (cy + random.nextInt(200) - 100));
+                }
+                script.add("hit " + cx + " " + cy);
+            } else if (roll < 65) {
+                // Drag a node a few grid cells
+                script.add("press " + cx + " " + cy);
+                int dx = random.nextInt(400) - 200;
+                int dy = random.nextInt(400) - 200;
+                for (int step = 1; step <= 10; step++) {
+                    script.add("drag " + (cx + dx * step / 10) + " " + (cy + dy * step / 10));
+                }
+                script.add("release " + (cx + dx) + " " + (cy + dy));
+                // What a background consumer of the graph would do after each edit
+                script.add("snapshot");
+                // The node moved, keep the script's picture of it roughly in sync
+                node.x += dx;
+                node.y += dy;
+            } else if (roll < 75) {
+                // Connect this node's output to another node's input
+                Node target = pool.get(random.nextInt(pool.size()));
+                Point from = node.next.getAbsolutePos();
+                Point to = target.prev.getAbsolutePos();
+                script.add("press " + from.x + " " + from.y);
+                script.add("drag " + ((from.x + to.x) / 2) + " " + ((from.y + to.y) / 2));
+                script.add("release " + to.x + " " + to.y);
+            } else if (roll < 82) {
+                script.add("create LayerDense");
+            } else if (roll < 88) {
+                script.add("press " + cx + " " + cy);
+                script.add("release " + cx + " " + cy);
+                script.add("delete");
+            } else if (roll < 94) {
+                script.add("undo");
+            } else if (roll < 98) {
+                script.add("redo");
+            } else {
+                script.add("layout");
+            }
+        }
+
+        return script;
+    }
+}
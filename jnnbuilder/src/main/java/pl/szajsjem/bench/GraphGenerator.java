@@ -0,0 +1,198 @@
+package pl.szajsjem.bench;
+
+import pl.szajsjem.elements.ConnectionPoint;
+import pl.szajsjem.elements.Node;
+import pl.szajsjem.elements.SpecialNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds synthetic network designs for stress testing the editor.
+ * <p>
+ * The graph is a main chain of blocks: plain layers, parallel branches that
+ * converge on a parallel layer, RNN nodes with a feedback subgraph, and
+ * routers with a gate and a set of experts. Connections are wired directly
+ * on the connection points (the same way a loaded file is), so generating
+ * large graphs doesn't pay for connection validation.
+ */
+public class GraphGenerator {
+    // Layer type names only need to look like the real ones, nothing here calls into BeeDNN
+    private static final String[] PLAIN_TYPES = {"LayerDense", "LayerActivation", "LayerDropout", "LayerBatchNormalization"};
+    private static final String PARALLEL_TYPE = "LayerParallelSum";
+    private static final String CONCAT_TYPE = "LayerParallelConcat";
+    private static final String RNN_TYPE = "LayerSimpleRNN";
+    private static final String ROUTER_TYPE = "LayerRouter";
+
+    private static final int X_SPACING = 200;
+    private static final int Y_SPACING = 100;
+
+    private final Random random;
+    private int targetNodes = 1000;
+    private double branchProbability = 0.15;
+    private int maxBranches = 4;
+    private int branchLength = 3;
+    private double rnnProbability = 0.05;
+    private int rnnSubgraphSize = 3;
+    private double routerProbability = 0.03;
+    private int routerExperts = 4;
+
+    private final List<Node> nodes = new ArrayList<>();
+    private int column;
+
+    public GraphGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public GraphGenerator targetNodes(int targetNodes) {
+        this.targetNodes = targetNodes;
+        return this;
+    }
+
+    public GraphGenerator branches(double probability, int maxBranches, int branchLength) {
+        this.branchProbability = probability;
+        this.maxBranches = Math.max(2, maxBranches);
+        this.branchLength = Math.max(1, branchLength);
+        return this;
+    }
+
+    public GraphGenerator rnn(double probability, int subgraphSize) {
+        this.rnnProbability = probability;
+        this.rnnSubgraphSize = Math.max(1, subgraphSize);
+        return this;
+    }
+
+    public GraphGenerator routers(double probability, int experts) {
+        this.routerProbability = probability;
+        this.routerExperts = Math.max(1, experts);
+        return this;
+    }
+
+    public List<Node> generate() {
+        nodes.clear();
+        column = 0;
+
+        Node tail = add(new Node(PLAIN_TYPES[0]), 0);
+        while (nodes.size() < targetNodes) {
+            double roll = random.nextDouble();
+            if (roll < routerProbability) {
+                tail = addRouterBlock(tail);
+            } else if (roll < routerProbability + rnnProbability) {
+                tail = addRnnBlock(tail);
+            } else if (roll < routerProbability + rnnProbability + branchProbability) {
+                tail = addParallelBlock(tail);
+            } else {
+                Node node = add(new Node(randomPlainType()), 0);
+                link(tail.next, node.prev);
+                tail = node;
+            }
+        }
+        return new ArrayList<>(nodes);
+    }
+
+    private Node addParallelBlock(Node tail) {
+        int branches = 2 + random.nextInt(maxBranches - 1);
+        int startColumn = ++column;
+        List<Node> branchEnds = new ArrayList<>();
+
+        for (int b = 0; b < branches; b++) {
+            column = startColumn;
+            ConnectionPoint from = tail.next;
+            Node last = null;
+            for (int i = 0; i < branchLength; i++) {
+                last = place(new Node(randomPlainType()), b);
+                link(from, last.prev);
+                from = last.next;
+                column++;
+            }
+            branchEnds.add(last);
+        }
+
+        column = startColumn + branchLength;
+        Node merge = place(new Node(PARALLEL_TYPE), 0);
+        for (Node end : branchEnds) {
+            link(end.next, merge.prev);
+        }
+        return merge;
+    }
+
+    private Node addRnnBlock(Node tail) {
+        SpecialNode rnn = (SpecialNode) add(new SpecialNode(RNN_TYPE), 0);
+        link(tail.next, rnn.prev);
+
+        // OUT t-1 and IN mirror feed a concat, the subgraph ends in OUT pass
+        ConnectionPoint previousState = rnn.specialPoints.get(0);
+        ConnectionPoint mirror = rnn.specialPoints.get(1);
+        ConnectionPoint pass = rnn.specialPoints.get(2);
+
+        int saved = column;
+        Node concat = place(new Node(CONCAT_TYPE), 1);
+        link(previousState, concat.prev);
+        link(mirror, concat.prev);
+        Node last = concat;
+        for (int i = 1; i < rnnSubgraphSize; i++) {
+            column++;
+            Node node = place(new Node(randomPlainType()), 1);
+            link(last.next, node.prev);
+            last = node;
+        }
+        link(last.next, pass);
+        column = saved;
+        return rnn;
+    }
+
+    private Node addRouterBlock(Node tail) {
+        SpecialNode router = (SpecialNode) add(new SpecialNode(ROUTER_TYPE), 0);
+        link(tail.next, router.prev);
+
+        ConnectionPoint mirror = router.specialPoints.get(0);
+        ConnectionPoint expertsWeight = router.specialPoints.get(1);
+        ConnectionPoint experts = router.specialPoints.get(2);
+
+        int saved = column;
+
+        // Gate: dense + softmax into the expert weights
+        column = saved + 1;
+        Node gate = place(new Node("LayerDense"), 1);
+        column++;
+        Node softmax = place(new Node("LayerSoftmax"), 1);
+        link(mirror, gate.prev);
+        link(gate.next, softmax.prev);
+        link(softmax.next, expertsWeight);
+
+        for (int e = 0; e < routerExperts; e++) {
+            column = saved + 1;
+            Node expert = place(new Node("LayerDense"), 2 + e);
+            column++;
+            Node activation = place(new Node("LayerActivation"), 2 + e);
+            link(mirror, expert.prev);
+            link(expert.next, activation.prev);
+            link(activation.next, experts);
+        }
+
+        column = saved;
+        return router;
+    }
+
+    private Node add(Node node, int lane) {
+        column++;
+        return place(node, lane);
+    }
+
+    private Node place(Node node, int lane) {
+        node.x = column * X_SPACING;
+        node.y = lane * Y_SPACING;
+        nodes.add(node);
+        return node;
+    }
+
+    private String randomPlainType() {
+        return PLAIN_TYPES[random.nextInt(PLAIN_TYPES.length)];
+    }
+
+    private static void link(ConnectionPoint output, ConnectionPoint input) {
+        output.connected.add(input);
+        input.connected.add(output);
+    }
+}
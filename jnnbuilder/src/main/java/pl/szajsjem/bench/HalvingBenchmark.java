@@ -0,0 +1,164 @@
+package pl.szajsjem.bench;
+
+import pl.szajsjem.CancellationToken;
+import pl.szajsjem.SuccessiveHalving;
+import pl.szajsjem.SweepRunner;
+import pl.szajsjem.SweepSpace;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs {@link SuccessiveHalving} against a deterministic stand-in trainer and
+ * compares it with training the full grid. Each stand-in trial has a fixed
+ * final loss and a learning curve towards it whose speed depends on the
+ * learning rate, so early rankings are informative but not perfect. Prints
+ * the epochs spent by both and where the halving winner ranks in the full
+ * grid.
+ * <p>
+ * With the defaults the winner is the best trial of the full grid (seeds 1
+ * to 5) for about a quarter of the epochs. A first round of a single epoch
+ * costs 4.5% but its winner only ranks around 12th to 17th of 81, because
+ * one epoch mostly measures how fast a rate learns, not where it ends up.
+ * {@code --brackets} hedges that as Hyperband does: bracket j starts at
+ * min * eta^j epochs on a smaller random part of the grid, sized so every
+ * bracket costs about the same, and the best bracket winner is reported.
+ * <p>
+ * Usage: {@code HalvingBenchmark [--trials 81] [--min 9] [--max 81] [--eta 3]
+ * [--brackets 1] [--seed 1] [--threads 4]}
+ */
+public class HalvingBenchmark {
+    // Stand-in for a trial's network: just how far it has been trained
+    private static class StandInRun {
+        final SweepSpace.Trial trial;
+        int epochs;
+
+        StandInRun(SweepSpace.Trial trial) {
+            this.trial = trial;
+        }
+    }
+
+    private final long seed;
+    private final AtomicLong epochsTrained = new AtomicLong();
+
+    public HalvingBenchmark(long seed) {
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int trials = 81, minEpochs = 9, maxEpochs = 81, eta = 3, brackets = 1, threads = 4;
+        long seed = 1;
+        for (int i = 0; i < args.length - 1; i += 2) {
+            switch (args[i]) {
+                case "--trials" -> trials = Integer.parseInt(args[i + 1]);
+                case "--min" -> minEpochs = Integer.parseInt(args[i + 1]);
+                case "--max" -> maxEpochs = Integer.parseInt(args[i + 1]);
+                case "--eta" -> eta = Integer.parseInt(args[i + 1]);
+                case "--brackets" -> brackets = Integer.parseInt(args[i + 1]);
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                case "--threads" -> threads = Integer.parseInt(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        SweepSpace space = new SweepSpace(List.of(maxEpochs), List.of(32), List.of("SGD"),
+                SweepSpace.parseFloats("0.00001..1*" + trials), List.of(0f), List.of(0.9f),
+                List.of("None"), List.of(0f), null);
+        List<SweepSpace.Trial> grid = space.trials();
+
+        // Full grid: every trial for every epoch
+        List<SweepRunner.TrialResult> full = new ArrayList<>();
+        HalvingBenchmark reference = new HalvingBenchmark(seed);
+        for (SweepSpace.Trial trial : grid) {
+            full.add(reference.result(trial, maxEpochs));
+        }
+        full.sort(SweepRunner.BY_VALIDATION_LOSS);
+        long fullEpochs = (long) grid.size() * maxEpochs;
+        System.out.printf("%d trials, epochs %d..%d, eta %d, %d bracket(s)%n", grid.size(), minEpochs, maxEpochs, eta, brackets);
+        System.out.printf("full grid: %d epochs, best %s loss %.6f%n",
+                fullEpochs, full.get(0).trial(), full.get(0).validationLoss());
+
+        // Rounds in the first bracket after its first one, for sizing the later brackets
+        int rounds = 0;
+        for (long e = minEpochs; e < maxEpochs; e *= eta) rounds++;
+
+        HalvingBenchmark benchmark = new HalvingBenchmark(seed);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        SweepRunner.TrialResult winner = null;
+        long planned = 0;
+        long start = System.nanoTime();
+        try {
+            for (int b = 0; b < brackets; b++) {
+                int bracketMin = (int) Math.min(maxEpochs, minEpochs * (long) Math.pow(eta, b));
+                List<SweepSpace.Trial> sample = grid;
+                if (b > 0) {
+                    // Hyperband: fewer trials for a longer first round, so each bracket costs about the same
+                    int count = (int) Math.ceil(grid.size() * (rounds + 1.0) / (Math.max(1, rounds - b + 1) * Math.pow(eta, b)));
+                    sample = new ArrayList<>(grid);
+                    Collections.shuffle(sample, new Random(seed + b));
+                    sample = sample.subList(0, Math.min(grid.size(), count));
+                }
+                SuccessiveHalving schedule = new SuccessiveHalving(bracketMin, maxEpochs, eta);
+                List<SweepRunner.TrialResult> halving = schedule.run(sample, benchmark.trainer(), pool,
+                        (result, finished, total) -> {
+                        }, new CancellationToken());
+                planned += schedule.totalEpochs(sample.size());
+
+                System.out.printf("bracket %d: %d trials from %d epochs, winner %s loss %.6f, rank %d%n",
+                        b, sample.size(), bracketMin, halving.get(0).trial(), halving.get(0).validationLoss(),
+                        rankIn(full, halving.get(0)));
+                for (SuccessiveHalving.Rung rung : schedule.plan(sample.size())) {
+                    System.out.printf("  rung: %4d trials to %5d epochs%n", rung.trials(), rung.epochs());
+                }
+                if (winner == null || SweepRunner.BY_VALIDATION_LOSS.compare(halving.get(0), winner) < 0) {
+                    winner = halving.get(0);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("halving:   %d epochs (%.1f%% of full, planned %d), best %s loss %.6f, rank %d in full grid, %.1f ms%n",
+                benchmark.epochsTrained.get(), 100.0 * benchmark.epochsTrained.get() / fullEpochs,
+                planned, winner.trial(), winner.validationLoss(), rankIn(full, winner), elapsed / 1e6);
+    }
+
+    // 1-based position of the result's trial in the ranked full grid
+    private static int rankIn(List<SweepRunner.TrialResult> full, SweepRunner.TrialResult result) {
+        int rank = 1;
+        while (!full.get(rank - 1).trial().equals(result.trial())) rank++;
+        return rank;
+    }
+
+    SuccessiveHalving.Trainer<StandInRun> trainer() {
+        return new SuccessiveHalving.Trainer<>() {
+            @Override
+            public StandInRun start(SweepSpace.Trial trial) {
+                return new StandInRun(trial);
+            }
+
+            @Override
+            public SweepRunner.TrialResult advance(StandInRun run, int toEpochs, CancellationToken cancel) {
+                epochsTrained.addAndGet(Math.max(0, toEpochs - run.epochs));
+                run.epochs = Math.max(run.epochs, toEpochs);
+                return result(run.trial, run.epochs);
+            }
+        };
+    }
+
+    // Loss after the given epochs, the same every time for the same trial
+    SweepRunner.TrialResult result(SweepSpace.Trial trial, int epochs) {
+        double logRate = Math.log10(trial.learningRate());
+        Random random = new Random(seed * 31 + Float.floatToIntBits(trial.learningRate()));
+        // Best around 1e-2.5, with some per-trial luck
+        double finalLoss = 0.05 + 0.02 * (logRate + 2.5) * (logRate + 2.5) + 0.02 * random.nextDouble();
+        // Higher rates get there sooner
+        double speed = 0.3 * Math.pow(10, (logRate + 5) / 5);
+        double noise = 0.01 * new Random(random.nextLong() + epochs).nextGaussian();
+        float loss = (float) (finalLoss + 1.0 / (1 + speed * epochs) + noise / Math.sqrt(epochs));
+        return new SweepRunner.TrialResult(trial.withEpochs(epochs), loss, loss, 0, null);
+    }
+}
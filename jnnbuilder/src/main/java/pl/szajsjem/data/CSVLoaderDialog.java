@@ -4,24 +4,31 @@ import javax.swing.*;
 import javax.swing.filechooser.FileSystemView;
 import javax.swing.filechooser.FileView;
 import java.awt.*;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class CSVLoaderDialog extends JDialog {
+    private static final String[] DELIMITER_NAMES = {"Detect", "Comma", "Semicolon", "Tab"};
+    private static final byte[] DELIMITERS = {0, ',', ';', '\t'};
+    private static final String[] ENCODINGS = {"Auto", "One-hot", "Hashed (16)", "Hashed (64)", "Hashed (256)", "Index"};
+
     private final JPanel columnsPanel;
     private final List<JComboBox<String>> columnMappers = new ArrayList<>();
+    // How each categorical input column is encoded, unused for other columns
+    private final List<JComboBox<String>> columnEncoders = new ArrayList<>();
     private final JButton loadButton;
     private final JLabel statusLabel;
+    private final JComboBox<String> delimiterBox = new JComboBox<>(DELIMITER_NAMES);
     private final Map<Integer, CategoricalMapping> categoricalMappings = new HashMap<>();
     private String[][] previewData;
     private String[] headers;
     private File selectedFile;
+    // Column types and row count of the selected file
+    private CsvTypeInference.LoadPlan plan;
     private LoadedData result = null;
 
     public CSVLoaderDialog(JFrame parent) {
@@ -36,8 +43,15 @@ public class CSVLoaderDialog extends JDialog {
         filePathField.setEditable(false);
         JButton browseButton = new JButton("Browse");
         filePanel.add(filePathField, BorderLayout.CENTER);
-        filePanel.add(browseButton, BorderLayout.EAST);
+        JPanel fileButtons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        fileButtons.add(new JLabel("Delimiter:"));
+        fileButtons.add(delimiterBox);
+        fileButtons.add(browseButton);
+        filePanel.add(fileButtons, BorderLayout.EAST);
         add(filePanel, BorderLayout.NORTH);
+        delimiterBox.addActionListener(e -> {
+            if (selectedFile != null) loadPreview();
+        });
 
         // Columns mapping panel
         columnsPanel = new JPanel();
@@ -59,11 +73,12 @@ public class CSVLoaderDialog extends JDialog {
             JFileChooser fileChooser = getjFileChooser();
             fileChooser.setFileFilter(new javax.swing.filechooser.FileFilter() {
                 public boolean accept(File f) {
-                    return f.isDirectory() || f.getName().toLowerCase().endsWith(".csv");
+                    String name = f.getName().toLowerCase();
+                    return f.isDirectory() || name.endsWith(".csv") || name.endsWith(".csv.gz");
                 }
 
                 public String getDescription() {
-                    return "CSV Files (*.csv)";
+                    return "CSV Files (*.csv, *.csv.gz)";
                 }
             });
 
@@ -133,45 +148,55 @@ public class CSVLoaderDialog extends JDialog {
         return dialog.result;
     }
 
+    // Scans the whole file in the background for column types and the row count
     private void loadPreview() {
-        try {
-            // Read first few lines of the CSV
-            BufferedReader reader = new BufferedReader(new FileReader(selectedFile));
-            headers = reader.readLine().split(",");
-
-            // Read preview data (first 5 rows)
-            previewData = new String[5][];
-            for (int i = 0; i < 5; i++) {
-                String line = reader.readLine();
-                if (line == null) break;
-                previewData[i] = line.split(",");
+        File file = selectedFile;
+        byte delimiter = DELIMITERS[delimiterBox.getSelectedIndex()];
+        loadButton.setEnabled(false);
+        statusLabel.setText("Scanning file...");
+        new SwingWorker<CsvTypeInference.LoadPlan, Void>() {
+            @Override
+            protected CsvTypeInference.LoadPlan doInBackground() throws IOException {
+                return CsvTypeInference.infer(file.toPath(), delimiter);
             }
-            reader.close();
 
-            // Update UI
-            updateColumnMappers();
-            loadButton.setEnabled(true);
-            statusLabel.setText("File loaded successfully. Please map columns.");
-
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this,
-                    "Error reading CSV file: " + e.getMessage(),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE);
-            loadButton.setEnabled(false);
-            statusLabel.setText("Error loading file.");
-        }
+            @Override
+            protected void done() {
+                if (file != selectedFile || delimiter != DELIMITERS[delimiterBox.getSelectedIndex()]) return;
+                try {
+                    plan = get();
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(CSVLoaderDialog.this,
+                            "Error reading CSV file: " + cause.getMessage(),
+                            "Error",
+                            JOptionPane.ERROR_MESSAGE);
+                    plan = null;
+                    statusLabel.setText("Error loading file.");
+                    return;
+                }
+                headers = plan.headers;
+                previewData = plan.preview;
+
+                // Update UI
+                updateColumnMappers();
+                loadButton.setEnabled(true);
+                statusLabel.setText(String.format("%d rows, types from %d sampled rows. Please map columns.",
+                        plan.rows, plan.sampledRows));
+            }
+        }.execute();
     }
 
     private void updateColumnMappers() {
         columnsPanel.removeAll();
         columnMappers.clear();
+        columnEncoders.clear();
 
         // Add header row
         JPanel headerPanel = new JPanel(new GridLayout(1, headers.length + 1));
         headerPanel.add(new JLabel("Column"));
-        for (String header : headers) {
-            headerPanel.add(new JLabel(header));
+        for (int i = 0; i < headers.length; i++) {
+            headerPanel.add(new JLabel(headers[i] + " (" + plan.types[i] + ")"));
         }
         columnsPanel.add(headerPanel);
 
@@ -180,11 +205,27 @@ public class CSVLoaderDialog extends JDialog {
         mappingPanel.add(new JLabel("Map to:"));
         for (int i = 0; i < headers.length; i++) {
             JComboBox<String> mapper = new JComboBox<>(new String[]{"Unused", "Input", "Output"});
+            // A column with no values has nothing to learn from or predict
+            if (plan.types[i] == CsvTypeInference.ColumnType.MISSING) {
+                mapper.setEnabled(false);
+                mapper.setToolTipText("No values found in this column");
+            }
             columnMappers.add(mapper);
             mappingPanel.add(mapper);
         }
         columnsPanel.add(mappingPanel);
 
+        // Add encoding row, only categorical columns can choose
+        JPanel encodingPanel = new JPanel(new GridLayout(1, headers.length + 1));
+        encodingPanel.add(new JLabel("Encoding:"));
+        for (int i = 0; i < headers.length; i++) {
+            JComboBox<String> encoder = new JComboBox<>(ENCODINGS);
+            encoder.setEnabled(isCategoricalColumn(i));
+            columnEncoders.add(encoder);
+            encodingPanel.add(encoder);
+        }
+        columnsPanel.add(encodingPanel);
+
         // Add preview rows
         if (previewData != null) {
             for (String[] row : previewData) {
@@ -202,17 +243,6 @@ public class CSVLoaderDialog extends JDialog {
         columnsPanel.repaint();
     }
 
-    private int countRows() throws IOException {
-        int count = 0;
-        BufferedReader reader = new BufferedReader(new FileReader(selectedFile));
-        reader.readLine(); // Skip header
-        while (reader.readLine() != null) {
-            count++;
-        }
-        reader.close();
-        return count;
-    }
-
     private LoadedData processData() {
         try {
             // Count inputs and outputs and identify categorical columns
@@ -220,17 +250,15 @@ public class CSVLoaderDialog extends JDialog {
             int outputCount = 0;
             List<String> inputNames = new ArrayList<>();
             List<String> outputNames = new ArrayList<>();
-            List<Boolean> isInputCategorical = new ArrayList<>();
-            List<Boolean> isOutputCategorical = new ArrayList<>();
 
             // First pass: analyze columns and create mappings
+            categoricalMappings.clear();
             for (int i = 0; i < columnMappers.size(); i++) {
                 String mapping = (String) columnMappers.get(i).getSelectedItem();
                 if (mapping.equals("Input")) {
                     inputCount++;
                     inputNames.add(headers[i]);
                     boolean isCategorical = isCategoricalColumn(i);
-                    isInputCategorical.add(isCategorical);
                     if (isCategorical) {
                         categoricalMappings.put(i, new CategoricalMapping(headers[i]));
                     }
@@ -238,7 +266,6 @@ public class CSVLoaderDialog extends JDialog {
                     outputCount++;
                     outputNames.add(headers[i]);
                     boolean isCategorical = isCategoricalColumn(i);
-                    isOutputCategorical.add(isCategorical);
                     if (isCategorical) {
                         categoricalMappings.put(i, new CategoricalMapping(headers[i]));
                     }
@@ -253,52 +280,92 @@ public class CSVLoaderDialog extends JDialog {
                 return null;
             }
 
-            // Count rows
-            int rowCount = countRows();
+            if (plan.rows > Integer.MAX_VALUE) {
+                throw new IOException("Too many rows: " + plan.rows);
+            }
+            int rowCount = (int) plan.rows;
+            long unreadable = 0;
+            long missing = 0;
+
+            // What each file column goes to: 1 input, 2 output, 0 unused
+            int[] roles = new int[columnMappers.size()];
+            for (int col = 0; col < roles.length; col++) {
+                Object mapping = columnMappers.get(col).getSelectedItem();
+                roles[col] = "Input".equals(mapping) ? 1 : "Output".equals(mapping) ? 2 : 0;
+            }
 
-            // Initialize arrays
+            // Initialize arrays, the plan's count is an upper bound when quoted fields span lines
             float[][] inputs = new float[rowCount][inputCount];
             float[][] outputs = new float[rowCount][outputCount];
 
             // Read and process data
-            BufferedReader reader = new BufferedReader(new FileReader(selectedFile));
-            reader.readLine(); // Skip header
-
-            String line;
             int row = 0;
-            while ((line = reader.readLine()) != null && row < rowCount) {
-                String[] values = line.split(",");
-                int inputIdx = 0;
-                int outputIdx = 0;
-
-                for (int col = 0; col < values.length; col++) {
-                    String mapping = (String) columnMappers.get(col).getSelectedItem();
-                    String value = values[col].trim();
-
-                    if (mapping.equals("Input")) {
-                        if (isInputCategorical.get(inputIdx)) {
-                            CategoricalMapping catMapping = categoricalMappings.get(col);
-                            inputs[row][inputIdx] = catMapping.getOrCreateIndex(value);
+            try (InputStream in = CompressedInput.open(selectedFile.toPath())) {
+                CsvTokenizer tokens = new CsvTokenizer(in, plan.delimiter);
+                tokens.next(); // Skip header
+                while (row < rowCount && tokens.next()) {
+                    int inputIdx = 0;
+                    int outputIdx = 0;
+
+                    // Short rows are padded with missing values, extra fields ignored
+                    for (int col = 0; col < roles.length; col++) {
+                        if (roles[col] == 0) continue;
+                        float converted = Float.NaN;
+                        if (col < tokens.fieldCount() && !CsvTypeInference.isMissing(tokens, col)) {
+                            converted = convert(col, tokens);
+                            if (Float.isNaN(converted)) unreadable++;
                         } else {
-                            inputs[row][inputIdx] = Float.parseFloat(value);
+                            missing++;
                         }
-                        inputIdx++;
-                    } else if (mapping.equals("Output")) {
-                        if (isOutputCategorical.get(outputIdx)) {
-                            CategoricalMapping catMapping = categoricalMappings.get(col);
-                            outputs[row][outputIdx] = catMapping.getOrCreateIndex(value);
+                        if (roles[col] == 1) {
+                            inputs[row][inputIdx++] = converted;
                         } else {
-                            outputs[row][outputIdx] = Float.parseFloat(value);
+                            outputs[row][outputIdx++] = converted;
                         }
-                        outputIdx++;
                     }
+                    row++;
+                }
+            }
+            if (row < rowCount) {
+                inputs = Arrays.copyOf(inputs, row);
+                outputs = Arrays.copyOf(outputs, row);
+            }
+
+            // Encoders are picked once the number of categories is known
+            ColumnEncoder[] encoders = new ColumnEncoder[inputCount];
+            int[] inputColumns = new int[inputCount];
+            int[] outputColumns = new int[outputCount];
+            int inputIdx = 0;
+            int outputIdx = 0;
+            for (int col = 0; col < roles.length; col++) {
+                if (roles[col] == 2) {
+                    outputColumns[outputIdx++] = col;
+                    continue;
+                }
+                if (roles[col] != 1) continue;
+                CategoricalMapping catMapping = categoricalMappings.get(col);
+                if (catMapping != null) {
+                    encoders[inputIdx] = encoderFor((String) columnEncoders.get(col).getSelectedItem(),
+                            catMapping.getCategories());
                 }
-                row++;
+                inputColumns[inputIdx++] = col;
+            }
+
+            // NaN would make the training loss NaN, so gaps are filled before anything trains on them
+            if (missing + unreadable > 0) {
+                imputeMissing(inputs, inputColumns, encoders);
+                imputeMissing(outputs, outputColumns, new ColumnEncoder[outputCount]);
+                JOptionPane.showMessageDialog(this,
+                        String.format("%d values were missing and %d didn't match their column's type.%n"
+                                + "They were filled with the column mean (the most common value for boolean and"
+                                + " categorical columns); one-hot and hashed inputs encode them as no category.",
+                                missing, unreadable),
+                        "Missing Values",
+                        JOptionPane.WARNING_MESSAGE);
             }
-            reader.close();
 
             return new LoadedData(inputs, outputs, inputNames.toArray(new String[0]),
-                    outputNames.toArray(new String[0]), categoricalMappings);
+                    outputNames.toArray(new String[0]), categoricalMappings, encoders);
 
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this,
@@ -309,18 +376,80 @@ public class CSVLoaderDialog extends JDialog {
         }
     }
 
-    private boolean isCategoricalColumn(int colIndex) {
-        // Check first few rows to determine if column is categorical
-        for (int i = 0; i < Math.min(5, previewData.length); i++) {
-            if (previewData[i] != null) {
-                try {
-                    Float.parseFloat(previewData[i][colIndex].trim());
-                } catch (NumberFormatException e) {
-                    return true;
-                }
+    /**
+     * Replaces the NaNs in each column: numeric columns get the column mean,
+     * boolean and categorical ones their most common value. Categorical
+     * inputs with a one-hot or hashed encoder keep NaN, which they encode
+     * as no category at all.
+     */
+    private void imputeMissing(float[][] rows, int[] fileColumns, ColumnEncoder[] encoders) {
+        ColumnStatistics stats = ColumnStatistics.compute(rows, null);
+        for (int c = 0; c < fileColumns.length; c++) {
+            if (stats.missing[c] == 0) continue;
+            ColumnEncoder encoder = encoders[c];
+            if (encoder != null && encoder.kind != ColumnEncoder.Kind.INDEX) continue;
+
+            int col = fileColumns[c];
+            float fill;
+            CategoricalMapping catMapping = categoricalMappings.get(col);
+            if (catMapping != null) {
+                fill = mostCommon(rows, c, catMapping.getCategories());
+            } else if (plan.types[col] == CsvTypeInference.ColumnType.BOOLEAN) {
+                fill = mostCommon(rows, c, 2);
+            } else {
+                // A column read as all missing has no mean to fill with
+                fill = Double.isNaN(stats.mean[c]) ? 0 : (float) stats.mean[c];
+            }
+            for (float[] row : rows) {
+                if (Float.isNaN(row[c])) row[c] = fill;
             }
         }
-        return false;
+    }
+
+    // The most frequent of the values 0 to values - 1 in a column, 0 if there are none
+    private static int mostCommon(float[][] rows, int column, int values) {
+        int[] counts = new int[Math.max(1, values)];
+        for (float[] row : rows) {
+            float value = row[column];
+            if (value >= 0 && value < counts.length) counts[(int) value]++;
+        }
+        int best = 0;
+        for (int i = 1; i < counts.length; i++) {
+            if (counts[i] > counts[best]) best = i;
+        }
+        return best;
+    }
+
+    private static ColumnEncoder encoderFor(String choice, int categories) {
+        return switch (choice) {
+            case "One-hot" -> ColumnEncoder.oneHot(categories);
+            case "Hashed (16)" -> ColumnEncoder.hashed(16);
+            case "Hashed (64)" -> ColumnEncoder.hashed(64);
+            case "Hashed (256)" -> ColumnEncoder.hashed(256);
+            case "Index" -> ColumnEncoder.index();
+            default -> ColumnEncoder.auto(categories);
+        };
+    }
+
+    private boolean isCategoricalColumn(int colIndex) {
+        return plan.types[colIndex] == CsvTypeInference.ColumnType.CATEGORICAL;
+    }
+
+    // A present field as the value its column's type loads it as, NaN if it doesn't fit the type
+    private float convert(int col, CsvTokenizer tokens) {
+        CategoricalMapping catMapping = categoricalMappings.get(col);
+        if (catMapping != null) {
+            return catMapping.getOrCreateIndex(tokens.buffer(), tokens.fieldStart(col), tokens.fieldLength(col));
+        }
+        if (plan.types[col] == CsvTypeInference.ColumnType.BOOLEAN) {
+            int bool = CsvTypeInference.parseBoolean(tokens, col);
+            return bool >= 0 ? bool : Float.NaN;
+        }
+        try {
+            return tokens.parseFloat(col);
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
     }
 
     public static class LoadedData {
@@ -329,15 +458,63 @@ public class CSVLoaderDialog extends JDialog {
         public final String[] inputColumnNames;
         public final String[] outputColumnNames;
         public final Map<Integer, CategoricalMapping> categoricalMappings;
+        // By input column, null for columns fed to the network as they are
+        public final ColumnEncoder[] inputEncoders;
 
         public LoadedData(float[][] inputs, float[][] outputs,
                           String[] inputColumnNames, String[] outputColumnNames,
                           Map<Integer, CategoricalMapping> categoricalMappings) {
+            this(inputs, outputs, inputColumnNames, outputColumnNames, categoricalMappings, null);
+        }
+
+        public LoadedData(float[][] inputs, float[][] outputs,
+                          String[] inputColumnNames, String[] outputColumnNames,
+                          Map<Integer, CategoricalMapping> categoricalMappings, ColumnEncoder[] inputEncoders) {
             this.inputs = inputs;
             this.outputs = outputs;
             this.inputColumnNames = inputColumnNames;
             this.outputColumnNames = outputColumnNames;
             this.categoricalMappings = new HashMap<>(categoricalMappings);
+            this.inputEncoders = inputEncoders != null ? inputEncoders : new ColumnEncoder[inputColumnNames.length];
+        }
+
+        // Values per row the network takes, more than the input columns when categories are expanded
+        public int getEncodedInputSize() {
+            return ColumnEncoder.encodedWidth(inputEncoders);
+        }
+
+        // Writes a row's inputs the way the network takes them to out, from offset
+        public void encodeInputs(int row, float[] out, int offset) {
+            ColumnEncoder.encodeRow(inputEncoders, inputs[row], out, offset);
+        }
+
+        // Row-major copies in the layout BeeDNN takes, made on first use and shared by every run
+        private float[] flatInputs;
+        private float[] flatOutputs;
+
+        public synchronized float[] getFlatInputs() {
+            if (flatInputs == null) {
+                int width = getEncodedInputSize();
+                flatInputs = new float[inputs.length * width];
+                for (int i = 0; i < inputs.length; i++) {
+                    encodeInputs(i, flatInputs, i * width);
+                }
+            }
+            return flatInputs;
+        }
+
+        public synchronized float[] getFlatOutputs() {
+            if (flatOutputs == null) flatOutputs = flatten(outputs);
+            return flatOutputs;
+        }
+
+        private static float[] flatten(float[][] rows) {
+            int cols = rows[0].length;
+            float[] flat = new float[rows.length * cols];
+            for (int i = 0; i < rows.length; i++) {
+                System.arraycopy(rows[i], 0, flat, i * cols, cols);
+            }
+            return flat;
         }
     }
 }
\ No newline at end of file
@@ -1,32 +1,115 @@
 package pl.szajsjem.data;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
 
+/**
+ * The categories of one column, numbered in the order they were first seen.
+ * Categories are kept as UTF-8 bytes in an open-addressing table of ints,
+ * so a loader can look up a field straight from its read buffer without
+ * making a String, and a lookup of a known value allocates nothing. Names
+ * are only decoded when asked for.
+ * <p>
+ * Not thread-safe: a parallel loader gives each thread its own mapping and
+ * folds them together in file order with {@link #merge}.
+ */
 public class CategoricalMapping {
-    private final Map<String, Integer> valueToIndex = new HashMap<>();
-    private final List<String> indexToValue = new ArrayList<>();
+    private static final int INITIAL_CATEGORIES = 8;
+
     private final String columnName;
+    // Every category's bytes back to back, category i from keyStart[i] until keyStart[i + 1]
+    private byte[] keyBytes = new byte[64];
+    private int[] keyStart = new int[INITIAL_CATEGORIES + 1];
+    private int[] keyHash = new int[INITIAL_CATEGORIES];
+    // Decoded on first use
+    private String[] names = new String[INITIAL_CATEGORIES];
+    private int size;
+    // Linear probing, each slot holds a category index + 1 or 0 when empty; at most half full
+    private int[] slots = new int[INITIAL_CATEGORIES * 2];
 
     public CategoricalMapping(String columnName) {
         this.columnName = columnName;
     }
 
     public int getOrCreateIndex(String value) {
-        return valueToIndex.computeIfAbsent(value, k -> {
-            indexToValue.add(k);
-            return indexToValue.size() - 1;
-        });
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int index = getOrCreateIndex(bytes, 0, bytes.length);
+        if (names[index] == null) {
+            names[index] = value;
+        }
+        return index;
+    }
+
+    // Index of the UTF-8 value in bytes[offset, offset + length), added as a new category if unseen
+    public int getOrCreateIndex(byte[] bytes, int offset, int length) {
+        int hash = hash(bytes, offset, length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                int index = add(bytes, offset, length, hash);
+                slots[slot] = index + 1;
+                if (size * 2 > slots.length) {
+                    rehash(slots.length * 2);
+                }
+                return index;
+            }
+            if (keyHash[entry - 1] == hash && matches(entry - 1, bytes, offset, length)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    // Index of an existing value, -1 if it isn't one of the categories
+    public int indexOf(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return indexOf(bytes, 0, bytes.length);
+    }
+
+    public int indexOf(byte[] bytes, int offset, int length) {
+        int hash = hash(bytes, offset, length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0) return -1;
+            if (keyHash[entry - 1] == hash && matches(entry - 1, bytes, offset, length)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Adds the categories of other that this mapping doesn't have yet, in
+     * other's order, and returns where each of other's indexes ended up here.
+     * Merging the mappings of consecutive chunks in order numbers the
+     * categories as a single pass over the whole file would.
+     */
+    public int[] merge(CategoricalMapping other) {
+        int[] remap = new int[other.size];
+        for (int i = 0; i < other.size; i++) {
+            remap[i] = getOrCreateIndex(other.keyBytes, other.keyStart[i], other.keyStart[i + 1] - other.keyStart[i]);
+            if (names[remap[i]] == null) {
+                names[remap[i]] = other.names[i];
+            }
+        }
+        return remap;
     }
 
     public String getValue(int index) {
-        return indexToValue.get(index);
+        Objects.checkIndex(index, size);
+        String name = names[index];
+        if (name == null) {
+            name = new String(keyBytes, keyStart[index], keyStart[index + 1] - keyStart[index], StandardCharsets.UTF_8);
+            names[index] = name;
+        }
+        return name;
     }
 
     public int getCategories() {
-        return indexToValue.size();
+        return size;
     }
 
     public String getColumnName() {
@@ -34,6 +117,57 @@ public class CategoricalMapping {
     }
 
     public List<String> getAllValues() {
-        return new ArrayList<>(indexToValue);
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(getValue(i));
+        }
+        return values;
+    }
+
+    private int add(byte[] bytes, int offset, int length, int hash) {
+        if (size == keyHash.length) {
+            int capacity = size * 2;
+            keyStart = Arrays.copyOf(keyStart, capacity + 1);
+            keyHash = Arrays.copyOf(keyHash, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        int start = keyStart[size];
+        if (start + length > keyBytes.length) {
+            keyBytes = Arrays.copyOf(keyBytes, Math.max(keyBytes.length * 2, start + length));
+        }
+        System.arraycopy(bytes, offset, keyBytes, start, length);
+        keyHash[size] = hash;
+        keyStart[size + 1] = start + length;
+        return size++;
+    }
+
+    private void rehash(int capacity) {
+        int[] grown = new int[capacity];
+        int mask = capacity - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = keyHash[index] & mask;
+            while (grown[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = index + 1;
+        }
+        slots = grown;
+    }
+
+    private boolean matches(int index, byte[] bytes, int offset, int length) {
+        int start = keyStart[index];
+        return keyStart[index + 1] - start == length
+                && Arrays.equals(keyBytes, start, start + length, bytes, offset, offset + length);
+    }
+
+    // FNV-1a over the bytes, then mixed so the low bits used for the slot depend on all of them
+    private static int hash(byte[] bytes, int offset, int length) {
+        int h = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ bytes[i]) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        return h ^ (h >>> 13);
     }
 }
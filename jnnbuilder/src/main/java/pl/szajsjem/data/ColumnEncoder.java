@@ -0,0 +1,119 @@
+package pl.szajsjem.data;
+
+import java.util.Arrays;
+
+/**
+ * How a categorical input column is fed to the network. The data itself
+ * keeps one category index per row; the encoder writes the network-side
+ * values for it only when rows are copied out for training or prediction,
+ * so a wide encoding never exists as a column of the loaded data.
+ */
+public final class ColumnEncoder {
+    public enum Kind {
+        // The category index as one value, for an embedding layer or an ordered category
+        INDEX("Index"),
+        ONE_HOT("One-hot"),
+        // One-hot into a fixed number of buckets, several categories may share a bucket
+        HASHED("Hashed");
+
+        private final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    // auto() hashes columns with more categories than this instead of one-hot encoding them
+    public static final int ONE_HOT_LIMIT = 32;
+    public static final int DEFAULT_HASHED_WIDTH = 32;
+
+    public final Kind kind;
+    // Values written per row
+    public final int width;
+
+    public ColumnEncoder(Kind kind, int width) {
+        if (width < 1 || (kind == Kind.INDEX && width != 1)) {
+            throw new IllegalArgumentException("Invalid width " + width + " for " + kind + " encoding");
+        }
+        this.kind = kind;
+        this.width = width;
+    }
+
+    public static ColumnEncoder index() {
+        return new ColumnEncoder(Kind.INDEX, 1);
+    }
+
+    public static ColumnEncoder oneHot(int categories) {
+        return new ColumnEncoder(Kind.ONE_HOT, Math.max(1, categories));
+    }
+
+    public static ColumnEncoder hashed(int width) {
+        return new ColumnEncoder(Kind.HASHED, width);
+    }
+
+    // One-hot while that stays narrow, hashed beyond it
+    public static ColumnEncoder auto(int categories) {
+        return categories <= ONE_HOT_LIMIT ? oneHot(categories) : hashed(DEFAULT_HASHED_WIDTH);
+    }
+
+    /**
+     * Writes the encoding of a category index to out[offset, offset + width).
+     * Indexes the encoder wasn't built for (like categories added after
+     * training) come out as all zeros for one-hot.
+     */
+    public void encode(float value, float[] out, int offset) {
+        if (kind == Kind.INDEX) {
+            out[offset] = value;
+            return;
+        }
+        Arrays.fill(out, offset, offset + width, 0);
+        // Missing values (NaN) encode as no category at all
+        if (!(value >= 0)) return;
+        int index = (int) value;
+        if (kind == Kind.ONE_HOT) {
+            if (index < width) out[offset + index] = 1;
+        } else {
+            out[offset + Math.floorMod(mix(index), width)] = 1;
+        }
+    }
+
+    // Values per row for columns with these encoders, a null encoder passing its column through
+    public static int encodedWidth(ColumnEncoder[] encoders) {
+        int width = 0;
+        for (ColumnEncoder encoder : encoders) {
+            width += encoder != null ? encoder.width : 1;
+        }
+        return width;
+    }
+
+    // Writes a row through the encoders to out from offset, returns the offset after it
+    public static int encodeRow(ColumnEncoder[] encoders, float[] row, float[] out, int offset) {
+        for (int c = 0; c < encoders.length; c++) {
+            ColumnEncoder encoder = encoders[c];
+            if (encoder != null) {
+                encoder.encode(row[c], out, offset);
+                offset += encoder.width;
+            } else {
+                out[offset++] = row[c];
+            }
+        }
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return kind == Kind.INDEX ? kind.toString() : kind + " (" + width + ")";
+    }
+
+    // Spreads consecutive indexes over the buckets
+    private static int mix(int x) {
+        x = (x ^ (x >>> 16)) * 0x7feb352d;
+        x = (x ^ (x >>> 15)) * 0x846ca68b;
+        return x ^ (x >>> 16);
+    }
+}
@@ -0,0 +1,287 @@
+package pl.szajsjem.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Per-column statistics of a dataset, gathered in one parallel pass over the
+ * rows: min, max, mean and variance (Welford, merged with Chan's formula),
+ * the number of missing (NaN) values, and a sample of the column for
+ * quantiles. The sample keeps the rows whose index hashes below a threshold,
+ * so it is the same however the rows were split between threads.
+ */
+public class ColumnStatistics {
+    // Rows per fork-join leaf
+    private static final int LEAF_ROWS = 8192;
+    // About this many values per column are kept for quantiles
+    private static final int SAMPLE_TARGET = 4096;
+
+    public enum Scaling {
+        MIN_MAX("Min-max to [0, 1]"),
+        Z_SCORE("Z-score (mean 0, variance 1)"),
+        ROBUST("Robust (median 0, interquartile range 1)");
+
+        private final String label;
+
+        Scaling(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    public final int columns;
+    public final long[] count;
+    public final long[] missing;
+    public final float[] min;
+    public final float[] max;
+    public final double[] mean;
+    private final double[] m2;
+    // Sorted sample of each column's values
+    private final float[][] sample;
+
+    private ColumnStatistics(int columns, long[] count, long[] missing, float[] min, float[] max,
+                             double[] mean, double[] m2, float[][] sample) {
+        this.columns = columns;
+        this.count = count;
+        this.missing = missing;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.m2 = m2;
+        this.sample = sample;
+    }
+
+    /**
+     * Computes the statistics of every column. Progress goes from 0 to 1 and
+     * is reported from the worker threads.
+     */
+    public static ColumnStatistics compute(float[][] rows, DoubleConsumer progress) {
+        int columns = rows.length > 0 ? rows[0].length : 0;
+        long sampleThreshold = rows.length <= SAMPLE_TARGET ? -1L >>> 1
+                : (long) ((double) SAMPLE_TARGET / rows.length * Long.MAX_VALUE);
+        AtomicLong done = new AtomicLong();
+        Partial result = ForkJoinPool.commonPool().invoke(
+                new StatsTask(rows, 0, rows.length, columns, sampleThreshold, done, progress));
+        for (float[] values : result.sample) {
+            Arrays.sort(values);
+        }
+        return new ColumnStatistics(columns, result.count, result.missing, result.min, result.max,
+                result.mean, result.m2, result.sample);
+    }
+
+    // Sample variance, 0 for fewer than two values
+    public double variance(int column) {
+        return count[column] > 1 ? m2[column] / (count[column] - 1) : 0;
+    }
+
+    // Estimated from the sample, q between 0 and 1; NaN for an empty column
+    public float quantile(int column, double q) {
+        float[] values = sample[column];
+        if (values.length == 0) return Float.NaN;
+        double position = q * (values.length - 1);
+        int below = (int) Math.floor(position);
+        int above = Math.min(values.length - 1, below + 1);
+        return (float) (values[below] + (values[above] - values[below]) * (position - below));
+    }
+
+    /**
+     * Offset and scale per column for the scaling: a scaled value is
+     * (raw - offset[i]) / scale[i]. Columns that can't be scaled (constant
+     * or empty) get offset 0 and scale 1.
+     */
+    public float[][] scaling(Scaling scaling) {
+        float[] offset = new float[columns];
+        float[] scale = new float[columns];
+        for (int i = 0; i < columns; i++) {
+            double o, s;
+            switch (scaling) {
+                case MIN_MAX -> {
+                    o = min[i];
+                    s = (double) max[i] - min[i];
+                }
+                case Z_SCORE -> {
+                    o = mean[i];
+                    s = Math.sqrt(variance(i));
+                }
+                default -> {
+                    o = quantile(i, 0.5);
+                    s = quantile(i, 0.75) - quantile(i, 0.25);
+                }
+            }
+            boolean usable = count[i] > 0 && s > 0 && Double.isFinite(s) && Double.isFinite(o);
+            offset[i] = usable ? (float) o : 0;
+            scale[i] = usable ? (float) s : 1;
+        }
+        return new float[][]{offset, scale};
+    }
+
+    // Scales the rows in place, in parallel; missing values stay missing
+    public static void apply(float[][] rows, float[] offset, float[] scale, DoubleConsumer progress) {
+        ForkJoinPool.commonPool().invoke(new ScaleTask(rows, 0, rows.length, offset, scale, new AtomicLong(), progress));
+    }
+
+    // Running statistics of a range of rows, for all columns
+    private static class Partial {
+        final long[] count, missing;
+        final float[] min, max;
+        final double[] mean, m2;
+        float[][] sample;
+
+        Partial(int columns) {
+            count = new long[columns];
+            missing = new long[columns];
+            min = new float[columns];
+            max = new float[columns];
+            mean = new double[columns];
+            m2 = new double[columns];
+            sample = new float[columns][];
+            Arrays.fill(min, Float.POSITIVE_INFINITY);
+            Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        }
+
+        void merge(Partial other) {
+            for (int c = 0; c < count.length; c++) {
+                long n = count[c] + other.count[c];
+                if (other.count[c] > 0) {
+                    double delta = other.mean[c] - mean[c];
+                    mean[c] += delta * other.count[c] / n;
+                    m2[c] += other.m2[c] + delta * delta * count[c] * other.count[c] / n;
+                }
+                count[c] = n;
+                missing[c] += other.missing[c];
+                min[c] = Math.min(min[c], other.min[c]);
+                max[c] = Math.max(max[c], other.max[c]);
+                float[] joined = Arrays.copyOf(sample[c], sample[c].length + other.sample[c].length);
+                System.arraycopy(other.sample[c], 0, joined, sample[c].length, other.sample[c].length);
+                sample[c] = joined;
+            }
+        }
+    }
+
+    private static class StatsTask extends RecursiveTask<Partial> {
+        private final float[][] rows;
+        private final int from, to, columns;
+        private final long sampleThreshold;
+        private final AtomicLong done;
+        private final DoubleConsumer progress;
+
+        StatsTask(float[][] rows, int from, int to, int columns, long sampleThreshold,
+                  AtomicLong done, DoubleConsumer progress) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.columns = columns;
+            this.sampleThreshold = sampleThreshold;
+            this.done = done;
+            this.progress = progress;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from > LEAF_ROWS) {
+                int mid = (from + to) >>> 1;
+                StatsTask right = new StatsTask(rows, mid, to, columns, sampleThreshold, done, progress);
+                right.fork();
+                Partial left = new StatsTask(rows, from, mid, columns, sampleThreshold, done, progress).compute();
+                left.merge(right.join());
+                return left;
+            }
+
+            Partial partial = new Partial(columns);
+            float[][] sample = new float[columns][16];
+            int sampled = 0;
+            for (int r = from; r < to; r++) {
+                float[] row = rows[r];
+                boolean keep = mix(r) <= sampleThreshold;
+                if (keep && sampled == sample[0].length) {
+                    for (int c = 0; c < columns; c++) sample[c] = Arrays.copyOf(sample[c], sampled * 2);
+                }
+                for (int c = 0; c < columns; c++) {
+                    float value = row[c];
+                    if (Float.isNaN(value)) {
+                        partial.missing[c]++;
+                        // Missing values are left out of the sample too
+                        if (keep) sample[c][sampled] = Float.NaN;
+                        continue;
+                    }
+                    long n = ++partial.count[c];
+                    double delta = value - partial.mean[c];
+                    partial.mean[c] += delta / n;
+                    partial.m2[c] += delta * (value - partial.mean[c]);
+                    if (value < partial.min[c]) partial.min[c] = value;
+                    if (value > partial.max[c]) partial.max[c] = value;
+                    if (keep) sample[c][sampled] = value;
+                }
+                if (keep) sampled++;
+            }
+            for (int c = 0; c < columns; c++) {
+                float[] kept = new float[sampled];
+                int n = 0;
+                for (int i = 0; i < sampled; i++) {
+                    if (!Float.isNaN(sample[c][i])) kept[n++] = sample[c][i];
+                }
+                partial.sample[c] = Arrays.copyOf(kept, n);
+            }
+            report(done, to - from, rows.length, progress);
+            return partial;
+        }
+    }
+
+    private static class ScaleTask extends RecursiveAction {
+        private final float[][] rows;
+        private final int from, to;
+        private final float[] offset, scale;
+        private final AtomicLong done;
+        private final DoubleConsumer progress;
+
+        ScaleTask(float[][] rows, int from, int to, float[] offset, float[] scale,
+                  AtomicLong done, DoubleConsumer progress) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.offset = offset;
+            this.scale = scale;
+            this.done = done;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAF_ROWS) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ScaleTask(rows, from, mid, offset, scale, done, progress),
+                        new ScaleTask(rows, mid, to, offset, scale, done, progress));
+                return;
+            }
+            for (int r = from; r < to; r++) {
+                float[] row = rows[r];
+                for (int c = 0; c < row.length; c++) {
+                    row[c] = (row[c] - offset[c]) / scale[c];
+                }
+            }
+            report(done, to - from, rows.length, progress);
+        }
+    }
+
+    private static void report(AtomicLong done, int rows, int total, DoubleConsumer progress) {
+        long now = done.addAndGet(rows);
+        if (progress != null) {
+            progress.accept((double) now / Math.max(1, total));
+        }
+    }
+
+    // Spreads row indexes evenly over the non-negative longs
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return (x ^ (x >>> 31)) >>> 1;
+    }
+}
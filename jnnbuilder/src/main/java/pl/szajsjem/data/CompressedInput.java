@@ -0,0 +1,124 @@
+package pl.szajsjem.data;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens data files whether or not they are gzip compressed, told apart by
+ * their first bytes rather than the file name. Compressed files are
+ * inflated on a thread of their own into a few large blocks handed over
+ * through a bounded queue, so decompression runs alongside parsing and
+ * nothing is inflated to disk.
+ */
+public final class CompressedInput {
+    private static final int BLOCK_BYTES = 1 << 20;
+    // Inflated blocks waiting for the reader; the inflater stops when it gets this far ahead
+    private static final int QUEUED_BLOCKS = 4;
+    private static final int FILE_BUFFER = 1 << 16;
+
+    private CompressedInput() {
+    }
+
+    public static boolean isGzip(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    public static InputStream open(Path file) throws IOException {
+        if (isGzip(file)) {
+            return new PipelinedInputStream(new GZIPInputStream(Files.newInputStream(file), FILE_BUFFER));
+        }
+        return new BufferedInputStream(Files.newInputStream(file), FILE_BUFFER);
+    }
+
+    private record Block(byte[] data, int length) {
+    }
+
+    /** Reads a source stream on a background thread, ahead of the caller. */
+    private static final class PipelinedInputStream extends InputStream {
+        private static final Block END = new Block(new byte[0], 0);
+
+        private final BlockingQueue<Block> filled = new ArrayBlockingQueue<>(QUEUED_BLOCKS + 1);
+        // Blocks the reader is done with, reused by the inflater
+        private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(QUEUED_BLOCKS + 2);
+        private final Thread producer;
+        private volatile IOException failure;
+        private volatile boolean closed;
+
+        private Block current = new Block(new byte[0], 0);
+        private int position;
+
+        PipelinedInputStream(InputStream source) {
+            producer = new Thread(() -> produce(source), "csv-decompress");
+            producer.setDaemon(true);
+            producer.start();
+        }
+
+        private void produce(InputStream source) {
+            try (source) {
+                while (!closed) {
+                    byte[] data = free.poll();
+                    if (data == null) data = new byte[BLOCK_BYTES];
+                    int length = 0;
+                    int read = 0;
+                    while (length < data.length && (read = source.read(data, length, data.length - length)) > 0) {
+                        length += read;
+                    }
+                    if (length > 0) filled.put(new Block(data, length));
+                    if (read < 0) break;
+                }
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                // Closed by the reader
+                return;
+            }
+            try {
+                filled.put(END);
+            } catch (InterruptedException e) {
+                // Closed by the reader
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (position == current.length()) {
+                if (current == END) return -1;
+                if (current.length() > 0) free.offer(current.data());
+                try {
+                    current = filled.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for decompressed data");
+                }
+                position = 0;
+                if (current == END) {
+                    if (failure != null) throw failure;
+                    return -1;
+                }
+            }
+            int count = Math.min(len, current.length() - position);
+            System.arraycopy(current.data(), position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            producer.interrupt();
+        }
+    }
+}
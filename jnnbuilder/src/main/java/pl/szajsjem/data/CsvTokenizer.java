@@ -0,0 +1,270 @@
+package pl.szajsjem.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits RFC 4180 CSV into records straight from the bytes of a stream.
+ * Quoted fields may hold delimiters, line breaks and doubled quotes; records
+ * end with LF or CRLF. Fields are reported as offsets into the tokenizer's
+ * buffer, valid until the next call to {@link #next()}, so reading a record
+ * allocates nothing. Doubled quotes are undone in place in the buffer.
+ * Unquoted fields have surrounding spaces trimmed, and blank lines are
+ * skipped.
+ */
+public class CsvTokenizer {
+    // Fast float parsing is exact for integer mantissas below this over powers of ten up to 10^10
+    private static final int EXACT_MANTISSA = 1 << 24;
+    private static final float[] POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private static final int FIELD_START = 0, UNQUOTED = 1, QUOTED = 2, QUOTE_SEEN = 3, AFTER_QUOTE = 4;
+
+    private final InputStream in;
+    private final byte delimiter;
+    private byte[] buffer = new byte[1 << 16];
+    // Unread input is buffer[position, limit)
+    private int position, limit;
+    private boolean endOfInput;
+    // A record ended on CR, so an LF right after it belongs to that record
+    private boolean skipLineFeed;
+
+    // The record being read starts at recordStart; the field being read runs from fieldStart to out
+    private int recordStart, fieldStart, out;
+    private boolean fieldQuoted;
+
+    // Fields of the current record: field i is buffer[starts[i], ends[i])
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int fields;
+
+    public CsvTokenizer(InputStream in, byte delimiter) {
+        this.in = in;
+        this.delimiter = delimiter;
+    }
+
+    // A single line split into strings, for headers and samples
+    public static String[] split(byte[] line, byte delimiter) {
+        try {
+            CsvTokenizer tokens = new CsvTokenizer(new ByteArrayInputStream(line), delimiter);
+            if (!tokens.next()) return new String[]{""};
+            String[] values = new String[tokens.fieldCount()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = tokens.field(i);
+            }
+            return values;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /** Reads the next record, false at the end of the input. */
+    public boolean next() throws IOException {
+        while (readRecord()) {
+            // A blank line reads as a single empty field that wasn't quoted
+            if (fields > 1 || ends[0] > starts[0] || fieldQuoted) return true;
+        }
+        return false;
+    }
+
+    private boolean readRecord() throws IOException {
+        fields = 0;
+        if (position >= limit && !refill()) return false;
+        if (skipLineFeed) {
+            skipLineFeed = false;
+            if (buffer[position] == '\n') {
+                position++;
+                if (position >= limit && !refill()) return false;
+            }
+        }
+
+        recordStart = fieldStart = out = position;
+        fieldQuoted = false;
+        // Bytes are copied down to out as they're read; they only move when doubled quotes are undone
+        int state = FIELD_START;
+        while (true) {
+            if (position >= limit && !refill()) {
+                if (state == QUOTED) {
+                    throw new IOException("Unterminated quoted field at the end of the input");
+                }
+                endField();
+                return true;
+            }
+            byte b = buffer[position++];
+            if (state == QUOTED) {
+                if (b == '"') {
+                    state = QUOTE_SEEN;
+                } else {
+                    buffer[out++] = b;
+                }
+                continue;
+            }
+            if (state == QUOTE_SEEN) {
+                if (b == '"') {
+                    // A doubled quote inside quotes stands for one quote
+                    buffer[out++] = '"';
+                    state = QUOTED;
+                    continue;
+                }
+                state = AFTER_QUOTE;
+            }
+
+            if (b == delimiter) {
+                endField();
+                fieldStart = out;
+                fieldQuoted = false;
+                state = FIELD_START;
+            } else if (b == '\n' || b == '\r') {
+                endField();
+                skipLineFeed = b == '\r';
+                return true;
+            } else if (state == FIELD_START) {
+                if (b == '"') {
+                    state = QUOTED;
+                    fieldQuoted = true;
+                } else if (b != ' ') {
+                    buffer[out++] = b;
+                    state = UNQUOTED;
+                }
+            } else {
+                // Unquoted text, or text after a closing quote, kept as it is
+                buffer[out++] = b;
+            }
+            if (state == UNQUOTED) {
+                // The rest of an unquoted field in one tight loop
+                while (position < limit) {
+                    byte c = buffer[position];
+                    if (c == delimiter || c == '\n' || c == '\r') break;
+                    buffer[out++] = c;
+                    position++;
+                }
+            }
+        }
+    }
+
+    private void endField() {
+        int end = out;
+        if (!fieldQuoted) {
+            while (end > fieldStart && buffer[end - 1] == ' ') end--;
+        }
+        if (fields == starts.length) {
+            starts = Arrays.copyOf(starts, fields * 2);
+            ends = Arrays.copyOf(ends, fields * 2);
+        }
+        starts[fields] = fieldStart;
+        ends[fields] = end;
+        fields++;
+    }
+
+    /**
+     * Reads more input, first moving the record being read to the front of
+     * the buffer and growing the buffer if the record fills it. False at the
+     * end of the input.
+     */
+    private boolean refill() throws IOException {
+        if (endOfInput) return false;
+        int shift = recordStart;
+        if (shift > 0) {
+            System.arraycopy(buffer, shift, buffer, 0, limit - shift);
+            limit -= shift;
+            position -= shift;
+            out -= shift;
+            fieldStart -= shift;
+            recordStart = 0;
+            for (int i = 0; i < fields; i++) {
+                starts[i] -= shift;
+                ends[i] -= shift;
+            }
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfInput = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    public int fieldCount() {
+        return fields;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int fieldStart(int field) {
+        return starts[field];
+    }
+
+    public int fieldLength(int field) {
+        return ends[field] - starts[field];
+    }
+
+    public String field(int field) {
+        return new String(buffer, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+    }
+
+    // ASCII case-insensitive comparison with a field, without decoding it
+    public boolean fieldEqualsIgnoreCase(int field, String ascii) {
+        int start = starts[field];
+        if (ends[field] - start != ascii.length()) return false;
+        for (int i = 0; i < ascii.length(); i++) {
+            int b = buffer[start + i];
+            int c = ascii.charAt(i);
+            if (b != c && !(Character.isLetter(c) && (b | 0x20) == (c | 0x20))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a field as a float. Decimals with up to about seven significant
+     * digits and a small exponent are converted directly from the bytes with
+     * a single correctly rounded float operation, so exactly; anything else
+     * goes through Float.parseFloat.
+     */
+    public float parseFloat(int field) {
+        int i = starts[field], end = ends[field];
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        int mantissa = 0, exponent = 0, digits = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            int b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (point) exponent--;
+                if (mantissa >= EXACT_MANTISSA) break;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits > 0 && i < end && (buffer[i] == 'e' || buffer[i] == 'E') && i + 1 < end) {
+            i++;
+            boolean negativeExponent = buffer[i] == '-';
+            if (buffer[i] == '-' || buffer[i] == '+') i++;
+            int written = 0, length = 0;
+            for (; i < end && buffer[i] >= '0' && buffer[i] <= '9' && length < 4; i++, length++) {
+                written = written * 10 + (buffer[i] - '0');
+            }
+            if (length == 0) i = -1;
+            exponent += negativeExponent ? -written : written;
+        }
+        if (i == end && digits > 0 && Math.abs(exponent) < POWERS_OF_TEN.length) {
+            float value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            return negative ? -value : value;
+        }
+        return Float.parseFloat(field(field));
+    }
+}
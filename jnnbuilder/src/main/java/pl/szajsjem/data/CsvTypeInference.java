@@ -0,0 +1,357 @@
+package pl.szajsjem.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Works out the type of every CSV column before the real load. The file is
+ * split into chunks that are memory mapped and scanned in parallel; each
+ * chunk counts its rows and keeps a reservoir sample of its lines, so the
+ * types come from values spread over the whole file rather than its first
+ * few rows, and the loader knows the row count without a counting pass.
+ * Chunks start at the first line break in them, which is taken to end a
+ * record; a quoted field spanning lines can only skew the sample there.
+ * Compressed files can't be mapped, so they are streamed through once with
+ * a single reservoir instead.
+ */
+public class CsvTypeInference {
+    public enum ColumnType {
+        NUMERIC("Numeric"),
+        // true/false or yes/no, loaded as 1 and 0
+        BOOLEAN("Boolean"),
+        CATEGORICAL("Categorical"),
+        // Nothing but missing values in the sample
+        MISSING("Empty");
+
+        private final String label;
+
+        ColumnType(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /** What the loader needs to know before reading the rows. */
+    public static class LoadPlan {
+        public final String[] headers;
+        public final ColumnType[] types;
+        public final byte delimiter;
+        // Non-blank lines after the header: the row count, or more when quoted fields span lines
+        public final long rows;
+        // First data rows, split but not converted
+        public final String[][] preview;
+        public final int sampledRows;
+
+        LoadPlan(String[] headers, ColumnType[] types, byte delimiter, long rows, String[][] preview, int sampledRows) {
+            this.headers = headers;
+            this.types = types;
+            this.delimiter = delimiter;
+            this.rows = rows;
+            this.preview = preview;
+            this.sampledRows = sampledRows;
+        }
+    }
+
+    // Chunks are mapped one at a time per thread, so this bounds the address space each one needs
+    private static final long CHUNK_BYTES = 64L << 20;
+    private static final int SAMPLES_PER_CHUNK = 512;
+    private static final int STREAM_SAMPLES = 4096;
+    private static final int PREVIEW_ROWS = 5;
+    private static final long SEED = 0x5eed;
+
+    private CsvTypeInference() {
+    }
+
+    // Delimiters tried when none is given, the one appearing most often in the header wins
+    private static final byte[] DELIMITERS = {',', ';', '\t'};
+
+    /** Plans the load of a file; a delimiter of 0 picks one from the header. */
+    public static LoadPlan infer(Path file, byte delimiter) throws IOException {
+        List<ChunkScan> scans;
+        if (CompressedInput.isGzip(file)) {
+            try (InputStream in = CompressedInput.open(file)) {
+                scans = List.of(scanStream(in));
+            }
+        } else {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                int chunks = (int) Math.max(1, (size + CHUNK_BYTES - 1) / CHUNK_BYTES);
+                scans = IntStream.range(0, chunks).parallel()
+                        .mapToObj(i -> scan(channel, size, i * CHUNK_BYTES, Math.min(size, (i + 1) * CHUNK_BYTES), i))
+                        .toList();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        ChunkScan first = scans.get(0);
+        if (first.header == null) {
+            throw new IOException("The file is empty");
+        }
+        if (delimiter == 0) {
+            delimiter = detectDelimiter(first.header);
+        }
+        String[] headers = CsvTokenizer.split(first.header, delimiter);
+        long rows = 0;
+        List<String[]> sample = new ArrayList<>();
+        for (ChunkScan scan : scans) {
+            rows += scan.rows;
+            for (byte[] line : scan.sample) {
+                sample.add(CsvTokenizer.split(line, delimiter));
+            }
+        }
+        String[][] preview = new String[first.preview.size()][];
+        for (int i = 0; i < preview.length; i++) {
+            preview[i] = CsvTokenizer.split(first.preview.get(i), delimiter);
+        }
+        return new LoadPlan(headers, classify(headers.length, sample), delimiter, rows, preview, sample.size());
+    }
+
+    private static byte detectDelimiter(byte[] header) {
+        int[] counts = new int[DELIMITERS.length];
+        boolean quoted = false;
+        for (byte b : header) {
+            if (b == '"') quoted = !quoted;
+            for (int d = 0; d < DELIMITERS.length && !quoted; d++) {
+                if (b == DELIMITERS[d]) counts[d]++;
+            }
+        }
+        int best = 0;
+        for (int d = 1; d < DELIMITERS.length; d++) {
+            if (counts[d] > counts[best]) best = d;
+        }
+        return DELIMITERS[best];
+    }
+
+    private static ColumnType[] classify(int columns, List<String[]> sample) {
+        ColumnType[] types = new ColumnType[columns];
+        for (int c = 0; c < columns; c++) {
+            int present = 0, numeric = 0, bool = 0;
+            for (String[] row : sample) {
+                String value = c < row.length ? row[c] : "";
+                if (isMissing(value)) continue;
+                present++;
+                if (isNumber(value)) numeric++;
+                else if (parseBoolean(value) >= 0) bool++;
+            }
+            if (present == 0) types[c] = ColumnType.MISSING;
+            else if (numeric == present) types[c] = ColumnType.NUMERIC;
+            else if (bool == present) types[c] = ColumnType.BOOLEAN;
+            else types[c] = ColumnType.CATEGORICAL;
+        }
+        return types;
+    }
+
+    // Besides empty fields
+    private static final String[] MISSING_MARKERS = {"?", "NA", "N/A", "NaN", "null"};
+    private static final String[] TRUE_WORDS = {"true", "yes"};
+    private static final String[] FALSE_WORDS = {"false", "no"};
+
+    public static boolean isMissing(String value) {
+        if (value.isEmpty()) return true;
+        for (String marker : MISSING_MARKERS) {
+            if (value.equalsIgnoreCase(marker)) return true;
+        }
+        return false;
+    }
+
+    // The same test on a field still in the tokenizer's buffer
+    public static boolean isMissing(CsvTokenizer tokens, int field) {
+        if (tokens.fieldLength(field) == 0) return true;
+        for (String marker : MISSING_MARKERS) {
+            if (tokens.fieldEqualsIgnoreCase(field, marker)) return true;
+        }
+        return false;
+    }
+
+    // 1 for true/yes, 0 for false/no, -1 for anything else
+    public static int parseBoolean(String value) {
+        for (String word : TRUE_WORDS) {
+            if (value.equalsIgnoreCase(word)) return 1;
+        }
+        for (String word : FALSE_WORDS) {
+            if (value.equalsIgnoreCase(word)) return 0;
+        }
+        return -1;
+    }
+
+    public static int parseBoolean(CsvTokenizer tokens, int field) {
+        for (String word : TRUE_WORDS) {
+            if (tokens.fieldEqualsIgnoreCase(field, word)) return 1;
+        }
+        for (String word : FALSE_WORDS) {
+            if (tokens.fieldEqualsIgnoreCase(field, word)) return 0;
+        }
+        return -1;
+    }
+
+    private static boolean isNumber(String value) {
+        try {
+            Float.parseFloat(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static class ChunkScan {
+        byte[] header;
+        final List<byte[]> preview = new ArrayList<>();
+        final List<byte[]> sample = new ArrayList<>();
+        long rows;
+    }
+
+    /**
+     * Scans the lines that start in [start, end). The mapping reaches past
+     * end so the last line can be finished, and one byte before start to
+     * tell whether start is itself a line start.
+     */
+    private static ChunkScan scan(FileChannel channel, long size, long start, long end, int chunk) {
+        try {
+            ChunkScan result = new ChunkScan();
+            MappedChunk bytes = new MappedChunk(channel, size, Math.max(0, start - 1), end);
+            int position = (int) (start - bytes.mapStart);
+            // Skip the rest of a line begun in the previous chunk
+            if (start > 0 && bytes.get(position - 1) != '\n') {
+                position = bytes.lineEnd(position) + 1;
+            }
+
+            Random random = new Random(SEED + chunk);
+            long[] reservoir = new long[SAMPLES_PER_CHUNK];
+            int limit = (int) (end - bytes.mapStart);
+            while (position < limit) {
+                int lineEnd = bytes.lineEnd(position);
+                int contentEnd = lineEnd > position && bytes.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                if (contentEnd > position) {
+                    if (start == 0 && result.header == null) {
+                        result.header = bytes.copy(position, contentEnd);
+                    } else {
+                        long line = ((long) position << 32) | (contentEnd - position);
+                        if (result.rows < SAMPLES_PER_CHUNK) {
+                            reservoir[(int) result.rows] = line;
+                        } else {
+                            long slot = random.nextLong(result.rows + 1);
+                            if (slot < SAMPLES_PER_CHUNK) reservoir[(int) slot] = line;
+                        }
+                        if (start == 0 && result.preview.size() < PREVIEW_ROWS) {
+                            result.preview.add(bytes.copy(position, contentEnd));
+                        }
+                        result.rows++;
+                    }
+                }
+                position = lineEnd + 1;
+            }
+            for (int i = 0; i < Math.min(result.rows, SAMPLES_PER_CHUNK); i++) {
+                int from = (int) (reservoir[i] >>> 32);
+                result.sample.add(bytes.copy(from, from + (int) reservoir[i]));
+            }
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The whole of a stream as one chunk, read in blocks with lines carried over between them
+    private static ChunkScan scanStream(InputStream in) throws IOException {
+        ChunkScan result = new ChunkScan();
+        Random random = new Random(SEED);
+        byte[][] reservoir = new byte[STREAM_SAMPLES][];
+        byte[] buffer = new byte[1 << 20];
+        int lineStart = 0, limit = 0;
+        boolean end = false;
+        while (!end || lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && buffer[lineEnd] != '\n') lineEnd++;
+            if (lineEnd == limit && !end) {
+                // Keep the partial line and read more after it
+                System.arraycopy(buffer, lineStart, buffer, 0, limit - lineStart);
+                limit -= lineStart;
+                lineStart = 0;
+                if (limit == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                int read = in.read(buffer, limit, buffer.length - limit);
+                if (read < 0) end = true;
+                else limit += read;
+                continue;
+            }
+            int contentEnd = lineEnd > lineStart && buffer[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+            if (contentEnd > lineStart) {
+                if (result.header == null) {
+                    result.header = Arrays.copyOfRange(buffer, lineStart, contentEnd);
+                } else {
+                    long slot = result.rows < STREAM_SAMPLES ? result.rows : random.nextLong(result.rows + 1);
+                    if (slot < STREAM_SAMPLES) {
+                        reservoir[(int) slot] = Arrays.copyOfRange(buffer, lineStart, contentEnd);
+                    }
+                    if (result.preview.size() < PREVIEW_ROWS) {
+                        result.preview.add(Arrays.copyOfRange(buffer, lineStart, contentEnd));
+                    }
+                    result.rows++;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        for (int i = 0; i < Math.min(result.rows, STREAM_SAMPLES); i++) {
+            result.sample.add(reservoir[i]);
+        }
+        return result;
+    }
+
+    // A mapped chunk that maps further past its end when a line runs over it
+    private static class MappedChunk {
+        final FileChannel channel;
+        final long size, mapStart, end;
+        long tail = 1 << 16;
+        MappedByteBuffer bytes;
+
+        MappedChunk(FileChannel channel, long size, long mapStart, long end) throws IOException {
+            this.channel = channel;
+            this.size = size;
+            this.mapStart = mapStart;
+            this.end = end;
+            bytes = map(channel, mapStart, Math.min(size, end + tail));
+        }
+
+        byte get(int index) {
+            return bytes.get(index);
+        }
+
+        // Index of the newline ending the line at from, or of the end of the file
+        int lineEnd(int from) throws IOException {
+            int i = from;
+            while (true) {
+                int limit = bytes.limit();
+                while (i < limit && bytes.get(i) != '\n') i++;
+                if (i < limit || mapStart + limit >= size) return i;
+                tail *= 4;
+                bytes = map(channel, mapStart, Math.min(size, end + tail));
+            }
+        }
+
+        byte[] copy(int from, int to) {
+            byte[] line = new byte[to - from];
+            bytes.get(from, line);
+            return line;
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long from, long to) throws IOException {
+        if (to - from > Integer.MAX_VALUE) {
+            throw new IOException("A line near byte " + from + " is too long");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+    }
+}
@@ -1,22 +1,53 @@
 package pl.szajsjem.data;
 
 import javax.swing.*;
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableColumn;
 import java.awt.*;
-import java.util.Arrays;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.*;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
 
 public class DataManager extends JPanel {
     private final JTable table;
     private final DataTableModel tableModel;
     private final JLabel statusLabel;
+    private final JButton deleteButton;
+    private final JButton normalizeButton;
+    private final JButton filterButton;
+    private final JButton clearFilterButton;
+    private final JProgressBar progressBar;
+    // Running normalization, null when idle
+    private SwingWorker<Normalization, Void> normalizer;
     private String[] inputColumnNames;
     private String[] outputColumnNames;
     private float[][] inputs;
     private float[][] outputs;
     private Map<Integer, CategoricalMapping> categoricalMappings;
+    // The mapping of each table column, inputs then outputs; categoricalMappings is keyed by CSV column
+    private CategoricalMapping[] columnMappings = new CategoricalMapping[0];
+    private ColumnEncoder[] inputEncoders;
+    // Scaling applied by normalizeData(), null while the data is raw
+    private Normalization normalization;
+    // Told about every change, so whoever trains on the data sees the edited version
+    private final List<Consumer<CSVLoaderDialog.LoadedData>> dataListeners = new ArrayList<>();
+
+    // What the table shows: the rows matching every filter, ordered by sortColumn (-1 for row order)
+    private final List<DataQuery.Condition> filters = new ArrayList<>();
+    private int sortColumn = -1;
+    private boolean sortDescending;
+    // Data row at each table row, null when every row is shown in order
+    private int[] viewRows;
+    // Bumped by every view change, so a slower earlier query can't overwrite a newer one
+    private int viewGeneration;
+    // A query for the view is running in the background
+    private boolean viewPending;
+    // Column copies for filtering and sorting, dropped whenever the data changes
+    private DataQuery query;
 
     public DataManager() {
         setLayout(new BorderLayout(5, 5));
@@ -27,34 +58,57 @@ public class DataManager extends JPanel {
         table.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         table.setRowSelectionAllowed(true);
 
-        // Add custom renderer for float values
-        DefaultTableCellRenderer floatRenderer = new DefaultTableCellRenderer() {
+        // Cells come from the model already formatted, the renderer only right-aligns them
+        DefaultTableCellRenderer cellRenderer = new DefaultTableCellRenderer();
+        cellRenderer.setHorizontalAlignment(SwingConstants.RIGHT);
+        table.setDefaultRenderer(String.class, cellRenderer);
+
+        // Header clicks cycle a column through ascending, descending and row order
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
             @Override
-            public Component getTableCellRendererComponent(JTable table, Object value,
-                                                           boolean isSelected, boolean hasFocus,
-                                                           int row, int column) {
-                super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
-                if (value instanceof Float) {
-                    setText(String.format("%.4f", value));
+            public void mouseClicked(MouseEvent e) {
+                int column = table.convertColumnIndexToModel(table.columnAtPoint(e.getPoint()));
+                if (column < 0 || inputs == null || normalizer != null) return;
+                if (column != sortColumn) {
+                    sortColumn = column;
+                    sortDescending = false;
+                } else if (!sortDescending) {
+                    sortDescending = true;
+                } else {
+                    sortColumn = -1;
                 }
-                return this;
+                refreshView(null);
             }
-        };
-        floatRenderer.setHorizontalAlignment(SwingConstants.RIGHT);
-        table.setDefaultRenderer(Float.class, floatRenderer);
+        });
 
         // Create toolbar
         JToolBar toolBar = new JToolBar();
         toolBar.setFloatable(false);
 
-        JButton deleteButton = new JButton("Delete Selected Rows");
+        deleteButton = new JButton("Delete Selected Rows");
         deleteButton.addActionListener(e -> deleteSelectedRows());
         toolBar.add(deleteButton);
 
-        JButton normalizeButton = new JButton("Normalize Data");
+        normalizeButton = new JButton("Normalize Data");
         normalizeButton.addActionListener(e -> normalizeData());
         toolBar.add(normalizeButton);
 
+        filterButton = new JButton("Add Filter...");
+        filterButton.addActionListener(e -> addFilter());
+        toolBar.add(filterButton);
+
+        clearFilterButton = new JButton("Clear Filters");
+        clearFilterButton.addActionListener(e -> {
+            filters.clear();
+            refreshView(null);
+        });
+        clearFilterButton.setEnabled(false);
+        toolBar.add(clearFilterButton);
+
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setVisible(false);
+        toolBar.add(progressBar);
+
         // Status label
         statusLabel = new JLabel(" ");
         toolBar.addSeparator();
@@ -66,11 +120,21 @@ public class DataManager extends JPanel {
     }
 
     public void setData(CSVLoaderDialog.LoadedData loadedData, String[] inputNames, String[] outputNames) {
-        this.inputs = loadedData.inputs;
-        this.outputs = loadedData.outputs;
+        this.inputs = loadedData != null ? loadedData.inputs : null;
+        this.outputs = loadedData != null ? loadedData.outputs : null;
         this.inputColumnNames = inputNames;
         this.outputColumnNames = outputNames;
-        this.categoricalMappings = loadedData.categoricalMappings;
+        this.categoricalMappings = loadedData != null ? loadedData.categoricalMappings : new HashMap<>();
+        this.columnMappings = mapColumns();
+        this.inputEncoders = loadedData != null ? loadedData.inputEncoders : null;
+        this.normalization = null;
+        filters.clear();
+        sortColumn = -1;
+        viewRows = null;
+        viewGeneration++;
+        viewPending = false;
+        query = null;
+        clearFilterButton.setEnabled(false);
 
         // Add categorical data info button to toolbar
         JButton catInfoButton = new JButton("Show Categories");
@@ -80,6 +144,20 @@ public class DataManager extends JPanel {
         updateStatus();
     }
 
+    private CategoricalMapping[] mapColumns() {
+        if (inputColumnNames == null || outputColumnNames == null) return new CategoricalMapping[0];
+        CategoricalMapping[] in = PreprocessingPipeline.byName(inputColumnNames, categoricalMappings, 0);
+        CategoricalMapping[] out = PreprocessingPipeline.byName(outputColumnNames, categoricalMappings, in.length);
+        CategoricalMapping[] columns = Arrays.copyOf(in, in.length + out.length);
+        System.arraycopy(out, 0, columns, in.length, out.length);
+        return columns;
+    }
+
+    // Null for a numeric column
+    private CategoricalMapping mapping(int column) {
+        return column < columnMappings.length ? columnMappings[column] : null;
+    }
+
     private void showCategoricalInfo() {
         if (categoricalMappings.isEmpty()) {
             JOptionPane.showMessageDialog(this,
@@ -112,87 +190,348 @@ public class DataManager extends JPanel {
     }
 
     private void deleteSelectedRows() {
+        if (inputs == null) return;
         int[] selectedRows = table.getSelectedRows();
         if (selectedRows.length == 0) return;
-
-        // Sort in descending order to avoid index shifting
-        Arrays.sort(selectedRows);
-        for (int i = selectedRows.length - 1; i >= 0; i--) {
-            int row = selectedRows[i];
-            removeRow(row);
+        BitSet deleted = new BitSet(inputs.length);
+        for (int row : selectedRows) {
+            deleted.set(dataRow(row));
+        }
+        if (deleted.cardinality() == inputs.length) {
+            JOptionPane.showMessageDialog(this,
+                    "At least one row has to stay.",
+                    "Delete Rows",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
         }
+        deleteRows(deleted);
 
+        // Keep the view where it was: the first surviving row at or after the deletion is selected
+        int first = Math.min(selectedRows[0], tableModel.getRowCount() - 1);
         tableModel.fireTableDataChanged();
+        if (first >= 0) {
+            table.getSelectionModel().setSelectionInterval(first, first);
+            table.scrollRectToVisible(table.getCellRect(first, 0, true));
+        }
         updateStatus();
+        fireDataChanged();
     }
 
-    private void removeRow(int row) {
-        // Create new arrays without the selected row
-        float[][] newInputs = new float[inputs.length - 1][];
-        float[][] newOutputs = new float[outputs.length - 1][];
-
-        // Copy rows before the deleted row
-        System.arraycopy(inputs, 0, newInputs, 0, row);
-        System.arraycopy(outputs, 0, newOutputs, 0, row);
-
-        // Copy rows after the deleted row
-        System.arraycopy(inputs, row + 1, newInputs, row, inputs.length - row - 1);
-        System.arraycopy(outputs, row + 1, newOutputs, row, outputs.length - row - 1);
+    /**
+     * Removes the marked rows in a single pass: the surviving rows are moved
+     * down into new arrays, so deleting k of n rows costs O(n + k) however
+     * the selection is spread, instead of a full copy per row.
+     */
+    private void deleteRows(BitSet deleted) {
+        int kept = inputs.length - deleted.cardinality();
+        float[][] newInputs = new float[kept][];
+        float[][] newOutputs = new float[kept][];
+
+        // Copy the runs between deleted rows in bulk
+        int to = 0;
+        int from = deleted.nextClearBit(0);
+        while (from < inputs.length) {
+            int end = deleted.nextSetBit(from);
+            if (end < 0) end = inputs.length;
+            System.arraycopy(inputs, from, newInputs, to, end - from);
+            System.arraycopy(outputs, from, newOutputs, to, end - from);
+            to += end - from;
+            from = deleted.nextClearBit(end);
+        }
 
         inputs = newInputs;
         outputs = newOutputs;
+        query = null;
+        if (viewRows != null) {
+            viewRows = withoutDeleted(viewRows, deleted);
+        }
+        // A query still running was computed on the old rows; start it again on the new ones
+        if (viewPending) {
+            refreshView(null);
+        } else {
+            viewGeneration++;
+        }
     }
 
-    private void normalizeData() {
-        // Normalize inputs
-        for (int col = 0; col < inputs[0].length; col++) {
-            float min = Float.MAX_VALUE;
-            float max = Float.MIN_VALUE;
-
-            // Find min and max
-            for (float[] input : inputs) {
-                min = Math.min(min, input[col]);
-                max = Math.max(max, input[col]);
+    /**
+     * The view minus the deleted rows, renumbered to match the compacted
+     * data. Deleting rows changes neither which of the others match the
+     * filters nor their order, so the view doesn't have to be queried again.
+     */
+    private static int[] withoutDeleted(int[] view, BitSet deleted) {
+        int[] gone = deleted.stream().toArray();
+        int[] kept = new int[view.length];
+        int n = 0;
+        for (int row : view) {
+            if (deleted.get(row)) continue;
+            // Deleted rows before this one, from the insertion point of a row that isn't there
+            int before = -Arrays.binarySearch(gone, row) - 1;
+            kept[n++] = row - before;
+        }
+        return Arrays.copyOf(kept, n);
+    }
+
+    private int dataRow(int tableRow) {
+        return viewRows != null ? viewRows[tableRow] : tableRow;
+    }
+
+    private DataQuery query() {
+        if (query == null) {
+            query = new DataQuery(inputs, outputs);
+        }
+        return query;
+    }
+
+    /**
+     * Applies the filters and sort order. Showing every row in order needs no
+     * query and happens at once; anything else is worked out in the
+     * background and shown when ready, then after runs.
+     */
+    private void refreshView(Runnable after) {
+        int generation = ++viewGeneration;
+        clearFilterButton.setEnabled(!filters.isEmpty());
+        if (filters.isEmpty() && sortColumn < 0) {
+            viewPending = false;
+            showView(null, after);
+            return;
+        }
+        viewPending = true;
+
+        DataQuery dataQuery = query();
+        List<DataQuery.Condition> conditions = List.copyOf(filters);
+        int column = sortColumn;
+        boolean descending = sortDescending;
+        statusLabel.setText("Filtering...");
+        new SwingWorker<int[], Void>() {
+            @Override
+            protected int[] doInBackground() {
+                return dataQuery.order(dataQuery.filter(conditions), column, descending);
             }
 
-            // Normalize column
-            float range = max - min;
-            if (range != 0) {
-                for (float[] input : inputs) {
-                    input[col] = (input[col] - min) / range;
+            @Override
+            protected void done() {
+                if (generation != viewGeneration) return;
+                viewPending = false;
+                try {
+                    showView(get(), after);
+                } catch (Exception e) {
+                    updateStatus();
+                    JOptionPane.showMessageDialog(DataManager.this,
+                            "Error filtering data: " + e.getMessage(),
+                            "Filter Error",
+                            JOptionPane.ERROR_MESSAGE);
                 }
             }
+        }.execute();
+    }
+
+    private void showView(int[] rows, Runnable after) {
+        viewRows = rows;
+        table.clearSelection();
+        tableModel.fireTableDataChanged();
+        for (int i = 0; i < table.getColumnCount(); i++) {
+            TableColumn column = table.getColumnModel().getColumn(i);
+            column.setHeaderValue(tableModel.getColumnName(column.getModelIndex()));
         }
+        table.getTableHeader().repaint();
+        updateStatus();
+        if (after != null) {
+            after.run();
+        }
+    }
 
-        // Normalize outputs
-        for (int col = 0; col < outputs[0].length; col++) {
-            float min = Float.MAX_VALUE;
-            float max = Float.MIN_VALUE;
+    private String columnName(int column) {
+        return column < inputColumnNames.length ? inputColumnNames[column]
+                : outputColumnNames[column - inputColumnNames.length];
+    }
 
-            // Find min and max
-            for (float[] output : outputs) {
-                min = Math.min(min, output[col]);
-                max = Math.max(max, output[col]);
+    private void addFilter() {
+        if (inputs == null || normalizer != null) return;
+        String[] names = new String[tableModel.getColumnCount()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = columnName(i);
+        }
+        JComboBox<String> columnBox = new JComboBox<>(names);
+        JTextField minField = new JTextField(10);
+        JTextField maxField = new JTextField(10);
+        JList<String> categoryList = new JList<>();
+        categoryList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+
+        JPanel rangePanel = new JPanel(new GridLayout(3, 2, 5, 5));
+        rangePanel.add(new JLabel("Min:"));
+        rangePanel.add(minField);
+        rangePanel.add(new JLabel("Max:"));
+        rangePanel.add(maxField);
+        rangePanel.add(new JLabel("(blank for no limit, both equal for exact match)"));
+
+        CardLayout cards = new CardLayout();
+        JPanel conditionPanel = new JPanel(cards);
+        conditionPanel.add(rangePanel, "range");
+        conditionPanel.add(new JScrollPane(categoryList), "categories");
+
+        Runnable showColumn = () -> {
+            CategoricalMapping mapping = mapping(columnBox.getSelectedIndex());
+            if (mapping != null) {
+                categoryList.setListData(mapping.getAllValues().toArray(new String[0]));
+                cards.show(conditionPanel, "categories");
+            } else {
+                cards.show(conditionPanel, "range");
+            }
+        };
+        columnBox.addActionListener(e -> showColumn.run());
+        showColumn.run();
+
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.add(columnBox, BorderLayout.NORTH);
+        panel.add(conditionPanel, BorderLayout.CENTER);
+        int result = JOptionPane.showConfirmDialog(this, panel, "Add Filter",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result != JOptionPane.OK_OPTION) return;
+
+        int column = columnBox.getSelectedIndex();
+        DataQuery.Condition condition;
+        if (mapping(column) != null) {
+            int[] chosen = categoryList.getSelectedIndices();
+            if (chosen.length == 0) return;
+            BitSet categories = new BitSet();
+            for (int index : chosen) {
+                categories.set(index);
+            }
+            condition = new DataQuery.InCategories(column, categories,
+                    String.join(", ", categoryList.getSelectedValuesList()));
+        } else {
+            try {
+                String min = minField.getText().trim();
+                String max = maxField.getText().trim();
+                condition = new DataQuery.Range(column,
+                        min.isEmpty() ? Float.NEGATIVE_INFINITY : Float.parseFloat(min),
+                        max.isEmpty() ? Float.POSITIVE_INFINITY : Float.parseFloat(max));
+            } catch (NumberFormatException e) {
+                JOptionPane.showMessageDialog(this,
+                        "Please enter a valid value",
+                        "Invalid Input",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
             }
+        }
+        filters.add(condition);
+        refreshView(null);
+    }
 
-            // Normalize column
-            float range = max - min;
-            if (range != 0) {
-                for (float[] output : outputs) {
-                    output[col] = (output[col] - min) / range;
+    public void addDataListener(Consumer<CSVLoaderDialog.LoadedData> listener) {
+        dataListeners.add(listener);
+    }
+
+    // A fresh LoadedData, so caches built from the old one (like its flattened arrays) are dropped
+    private void fireDataChanged() {
+        if (inputs == null) return;
+        CSVLoaderDialog.LoadedData data = new CSVLoaderDialog.LoadedData(inputs, outputs,
+                inputColumnNames, outputColumnNames, categoricalMappings, inputEncoders);
+        for (Consumer<CSVLoaderDialog.LoadedData> listener : dataListeners) {
+            listener.accept(data);
+        }
+    }
+
+    private void normalizeData() {
+        if (inputs == null || normalizer != null) return;
+        ColumnStatistics.Scaling scaling = (ColumnStatistics.Scaling) JOptionPane.showInputDialog(this,
+                "Scale every column with:",
+                "Normalize Data",
+                JOptionPane.QUESTION_MESSAGE,
+                null,
+                ColumnStatistics.Scaling.values(),
+                ColumnStatistics.Scaling.MIN_MAX);
+        if (scaling == null) return;
+
+        float[][] in = inputs, out = outputs;
+        ColumnEncoder[] encoders = inputEncoders;
+        normalizeButton.setEnabled(false);
+        deleteButton.setEnabled(false);
+        filterButton.setEnabled(false);
+        table.setEnabled(false);
+        progressBar.setValue(0);
+        progressBar.setVisible(true);
+
+        // Statistics and scaling both run in parallel off the event thread, in four equal steps
+        normalizer = new SwingWorker<>() {
+            @Override
+            protected Normalization doInBackground() {
+                ColumnStatistics inputStats = ColumnStatistics.compute(in, p -> step(0, p));
+                ColumnStatistics outputStats = ColumnStatistics.compute(out, p -> step(1, p));
+                float[][] inputScaling = inputStats.scaling(scaling);
+                // Encoded columns hold category indexes, which the encoder needs unscaled
+                for (int c = 0; c < encoders.length; c++) {
+                    if (encoders[c] != null) {
+                        inputScaling[0][c] = 0;
+                        inputScaling[1][c] = 1;
+                    }
                 }
+                float[][] outputScaling = outputStats.scaling(scaling);
+                ColumnStatistics.apply(in, inputScaling[0], inputScaling[1], p -> step(2, p));
+                ColumnStatistics.apply(out, outputScaling[0], outputScaling[1], p -> step(3, p));
+                return new Normalization(inputScaling[0], inputScaling[1], outputScaling[0], outputScaling[1]);
             }
-        }
 
-        tableModel.fireTableDataChanged();
-        JOptionPane.showMessageDialog(this,
-                "Data normalized to range [0, 1]",
-                "Normalization Complete",
-                JOptionPane.INFORMATION_MESSAGE);
+            private void step(int index, double progress) {
+                setProgress((int) Math.min(100, (index + progress) * 25));
+            }
+
+            @Override
+            protected void done() {
+                normalizer = null;
+                normalizeButton.setEnabled(true);
+                deleteButton.setEnabled(true);
+                filterButton.setEnabled(true);
+                table.setEnabled(true);
+                progressBar.setVisible(false);
+                Normalization applied;
+                try {
+                    applied = get();
+                } catch (Exception e) {
+                    JOptionPane.showMessageDialog(DataManager.this,
+                            "Error normalizing data: " + e.getMessage(),
+                            "Normalization Error",
+                            JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                normalization = normalization != null ? normalization.then(applied) : applied;
+
+                // Filter limits were in the old units; the sort order is unchanged by scaling but is redone anyway
+                query = null;
+                filters.clear();
+                refreshView(null);
+                fireDataChanged();
+                JOptionPane.showMessageDialog(DataManager.this,
+                        "Data normalized: " + scaling,
+                        "Normalization Complete",
+                        JOptionPane.INFORMATION_MESSAGE);
+            }
+        };
+        normalizer.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                progressBar.setValue((Integer) e.getNewValue());
+            }
+        });
+        normalizer.execute();
     }
 
     private void updateStatus() {
-        statusLabel.setText(String.format("Total rows: %d", inputs.length));
+        if (inputs == null) {
+            statusLabel.setText(" ");
+        } else if (viewRows == null) {
+            statusLabel.setText(String.format("Total rows: %d", inputs.length));
+        } else {
+            StringBuilder status = new StringBuilder(String.format("Showing %d of %d rows", viewRows.length, inputs.length));
+            for (int i = 0; i < filters.size(); i++) {
+                DataQuery.Condition filter = filters.get(i);
+                status.append(i == 0 ? " where " : " and ").append(filter.describe(columnName(filter.column())));
+            }
+            statusLabel.setText(status.toString());
+        }
+    }
+
+    public Normalization getNormalization() {
+        return normalization;
     }
 
     public float[][] getInputs() {
@@ -203,32 +542,75 @@ public class DataManager extends JPanel {
         return outputs;
     }
 
+    /**
+     * Serves cells as text formatted a page of rows at a time. Only the pages
+     * around what is on screen are kept, so scrolling through millions of rows
+     * formats each visible row once and repaints reuse the same strings.
+     */
     private class DataTableModel extends AbstractTableModel {
+        private static final int PAGE_ROWS = 256;
+        private static final int MAX_PAGES = 32;
+        private static final int DECIMALS = 4;
+
+        private final StringBuilder formatBuffer = new StringBuilder(32);
+        private final Map<Integer, String[]> pages = new LinkedHashMap<>(MAX_PAGES * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+                return size() > MAX_PAGES;
+            }
+        };
+
         @Override
         public Object getValueAt(int rowIndex, int columnIndex) {
-            if (columnIndex < inputs[0].length) {
-                float value = inputs[rowIndex][columnIndex];
-                CategoricalMapping mapping = categoricalMappings.get(columnIndex);
-                if (mapping != null) {
-                    return String.format("%s (%d)", mapping.getValue((int) value), (int) value);
-                }
-                return value;
-            } else {
-                int outputCol = columnIndex - inputs[0].length;
-                float value = outputs[rowIndex][outputCol];
-                CategoricalMapping mapping = categoricalMappings.get(columnIndex);
-                if (mapping != null) {
-                    return String.format("%s (%d)", mapping.getValue((int) value), (int) value);
+            int columns = getColumnCount();
+            String[] page = pages.get(rowIndex / PAGE_ROWS);
+            if (page == null) {
+                page = formatPage(rowIndex / PAGE_ROWS, columns);
+                pages.put(rowIndex / PAGE_ROWS, page);
+            }
+            return page[(rowIndex % PAGE_ROWS) * columns + columnIndex];
+        }
+
+        private String[] formatPage(int pageIndex, int columns) {
+            int first = pageIndex * PAGE_ROWS;
+            int rows = Math.min(PAGE_ROWS, getRowCount() - first);
+            int inputColumns = inputs[0].length;
+            CategoricalMapping[] mappings = Arrays.copyOf(columnMappings, columns);
+
+            String[] page = new String[rows * columns];
+            for (int r = 0; r < rows; r++) {
+                int row = dataRow(first + r);
+                float[] in = inputs[row];
+                float[] out = outputs[row];
+                for (int c = 0; c < columns; c++) {
+                    float value = c < inputColumns ? in[c] : out[c - inputColumns];
+                    formatBuffer.setLength(0);
+                    CategoricalMapping mapping = mappings[c];
+                    int index = (int) value;
+                    if (mapping != null && index >= 0 && index < mapping.getCategories()) {
+                        formatBuffer.append(mapping.getValue(index)).append(" (").append(index).append(')');
+                    } else {
+                        FixedPointFormat.append(formatBuffer, value, DECIMALS);
+                    }
+                    page[r * columns + c] = formatBuffer.toString();
                 }
-                return value;
             }
+            return page;
         }
 
+        // Any change to the data or its mappings makes the formatted pages stale
         @Override
-        public void setValueAt(Object value, int rowIndex, int columnIndex) {
+        public void fireTableChanged(TableModelEvent e) {
+            pages.clear();
+            super.fireTableChanged(e);
+        }
+
+        @Override
+        public void setValueAt(Object value, int tableRow, int columnIndex) {
+            int rowIndex = dataRow(tableRow);
             try {
                 if (columnIndex < inputs[0].length) {
-                    CategoricalMapping mapping = categoricalMappings.get(columnIndex);
+                    CategoricalMapping mapping = mapping(columnIndex);
                     if (mapping != null) {
                         String strValue = value.toString();
                         if (strValue.contains("(")) {
@@ -240,7 +622,7 @@ public class DataManager extends JPanel {
                     }
                 } else {
                     int outputCol = columnIndex - inputs[0].length;
-                    CategoricalMapping mapping = categoricalMappings.get(columnIndex);
+                    CategoricalMapping mapping = mapping(columnIndex);
                     if (mapping != null) {
                         String strValue = value.toString();
                         if (strValue.contains("(")) {
@@ -251,7 +633,10 @@ public class DataManager extends JPanel {
                         outputs[rowIndex][outputCol] = Float.parseFloat(value.toString());
                     }
                 }
-                fireTableCellUpdated(rowIndex, columnIndex);
+                // The row stays where it is in the view until the filters or sort change
+                query = null;
+                fireTableCellUpdated(tableRow, columnIndex);
+                fireDataChanged();
             } catch (NumberFormatException e) {
                 JOptionPane.showMessageDialog(DataManager.this,
                         "Please enter a valid value",
@@ -269,16 +654,20 @@ public class DataManager extends JPanel {
                 baseName = outputColumnNames[column - inputColumnNames.length] + " (Output)";
             }
 
-            CategoricalMapping mapping = categoricalMappings.get(column);
+            CategoricalMapping mapping = mapping(column);
             if (mapping != null) {
-                return baseName + " [Categorical: " + mapping.getCategories() + " categories]";
+                baseName += " [Categorical: " + mapping.getCategories() + " categories]";
+            }
+            if (column == sortColumn) {
+                baseName += sortDescending ? " \u25BC" : " \u25B2";
             }
             return baseName;
         }
 
         @Override
         public int getRowCount() {
-            return inputs != null ? inputs.length : 0;
+            if (inputs == null) return 0;
+            return viewRows != null ? viewRows.length : inputs.length;
         }
 
         @Override
@@ -289,7 +678,7 @@ public class DataManager extends JPanel {
 
         @Override
         public Class<?> getColumnClass(int columnIndex) {
-            return Float.class;
+            return String.class;
         }
 
         @Override
@@ -0,0 +1,183 @@
+package pl.szajsjem.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+/**
+ * Filtering and sorting over a dataset without going through the table. The
+ * columns a query touches are copied out of the rows once into plain float
+ * arrays; filters are then scanned 64 rows at a time into bitmap words, in
+ * parallel, and sorting packs each key with its row index into a long so a
+ * primitive parallel sort gives the row order directly.
+ */
+public class DataQuery {
+    // Rows per fork-join leaf, a whole number of bitmap words
+    private static final int LEAF_ROWS = 64 * 256;
+
+    /** A test on one column (inputs first, then outputs), evaluated 64 rows at a time. */
+    public sealed interface Condition permits Range, InCategories {
+        int column();
+
+        // Bit i set if row first + i matches, for the count (at most 64) rows from first
+        long match(float[] values, int first, int count);
+
+        String describe(String columnName);
+    }
+
+    /** Values between min and max inclusive; min == max tests for equality. Missing values never match. */
+    public record Range(int column, float min, float max) implements Condition {
+        @Override
+        public long match(float[] values, int first, int count) {
+            long bits = 0;
+            for (int i = 0; i < count; i++) {
+                float value = values[first + i];
+                bits |= (value >= min && value <= max ? 1L : 0L) << i;
+            }
+            return bits;
+        }
+
+        @Override
+        public String describe(String columnName) {
+            if (min == max) return columnName + " = " + min;
+            if (min == Float.NEGATIVE_INFINITY) return columnName + " <= " + max;
+            if (max == Float.POSITIVE_INFINITY) return columnName + " >= " + min;
+            return min + " <= " + columnName + " <= " + max;
+        }
+    }
+
+    /** Category indexes in the set; values that aren't a whole index never match. */
+    public record InCategories(int column, BitSet categories, String label) implements Condition {
+        @Override
+        public long match(float[] values, int first, int count) {
+            long bits = 0;
+            for (int i = 0; i < count; i++) {
+                float value = values[first + i];
+                int index = (int) value;
+                bits |= (index == value && index >= 0 && categories.get(index) ? 1L : 0L) << i;
+            }
+            return bits;
+        }
+
+        @Override
+        public String describe(String columnName) {
+            return columnName + " in {" + label + "}";
+        }
+    }
+
+    private final float[][] inputs;
+    private final float[][] outputs;
+    private final int rows;
+    // Extracted on first use, by column
+    private final float[][] columns;
+
+    public DataQuery(float[][] inputs, float[][] outputs) {
+        this.inputs = inputs;
+        this.outputs = outputs;
+        rows = inputs.length;
+        columns = new float[inputs[0].length + outputs[0].length][];
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    // The values of a column as one array, copied out in parallel the first time
+    public synchronized float[] column(int column) {
+        if (columns[column] == null) {
+            int inputColumns = inputs[0].length;
+            float[][] source = column < inputColumns ? inputs : outputs;
+            int index = column < inputColumns ? column : column - inputColumns;
+            float[] values = new float[rows];
+            IntStream.range(0, rows).parallel().forEach(r -> values[r] = source[r][index]);
+            columns[column] = values;
+        }
+        return columns[column];
+    }
+
+    /** The rows matching every condition; all rows when there are none. */
+    public BitSet filter(List<Condition> conditions) {
+        if (conditions.isEmpty()) {
+            BitSet all = new BitSet(rows);
+            all.set(0, rows);
+            return all;
+        }
+        Condition[] tests = conditions.toArray(new Condition[0]);
+        float[][] values = new float[tests.length][];
+        for (int i = 0; i < tests.length; i++) {
+            values[i] = column(tests[i].column());
+        }
+        long[] words = new long[(rows + 63) >>> 6];
+        ForkJoinPool.commonPool().invoke(new ScanTask(tests, values, words, 0, words.length, rows));
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * The given rows ordered by a column, ties and missing values kept in row
+     * order, missing values last either way. A negative column keeps the rows
+     * in row order.
+     */
+    public int[] order(BitSet selected, int column, boolean descending) {
+        int[] order = selected.stream().toArray();
+        if (column < 0) return order;
+
+        float[] values = column(column);
+        long[] keys = new long[order.length];
+        Arrays.parallelSetAll(keys, i -> pack(values[order[i]], order[i], descending));
+        Arrays.parallelSort(keys);
+        Arrays.parallelSetAll(order, i -> (int) keys[i]);
+        return order;
+    }
+
+    // Sort key in the high half, row in the low half, so sorting the longs sorts the rows
+    private static long pack(float value, int row, boolean descending) {
+        int bits = Float.floatToIntBits(value);
+        // Flips negative floats so the ints order the same way the floats do
+        int key = bits ^ ((bits >> 31) & 0x7fffffff);
+        if (Float.isNaN(value)) {
+            key = Integer.MAX_VALUE;
+        } else if (descending) {
+            key = ~key;
+        }
+        return ((long) key << 32) | row;
+    }
+
+    private static class ScanTask extends RecursiveAction {
+        private final Condition[] tests;
+        private final float[][] values;
+        private final long[] words;
+        private final int fromWord, toWord, rows;
+
+        ScanTask(Condition[] tests, float[][] values, long[] words, int fromWord, int toWord, int rows) {
+            this.tests = tests;
+            this.values = values;
+            this.words = words;
+            this.fromWord = fromWord;
+            this.toWord = toWord;
+            this.rows = rows;
+        }
+
+        @Override
+        protected void compute() {
+            if ((toWord - fromWord) * 64 > LEAF_ROWS) {
+                int mid = (fromWord + toWord) >>> 1;
+                invokeAll(new ScanTask(tests, values, words, fromWord, mid, rows),
+                        new ScanTask(tests, values, words, mid, toWord, rows));
+                return;
+            }
+            // Each leaf owns whole words, so no two threads write the same one
+            for (int w = fromWord; w < toWord; w++) {
+                int first = w << 6;
+                int count = Math.min(64, rows - first);
+                long bits = -1L;
+                for (int t = 0; t < tests.length && bits != 0; t++) {
+                    bits &= tests[t].match(values[t], first, count);
+                }
+                words[w] = bits;
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package pl.szajsjem.data;
+
+/**
+ * Writes floats with a fixed number of decimals straight into a
+ * StringBuilder, giving the same text as String.format("%.4f") for the
+ * values a table shows but without a Formatter, boxing or temporary strings.
+ */
+public final class FixedPointFormat {
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000,
+            10_000_000, 100_000_000, 1_000_000_000};
+    // Above this the scaled value might not fit in a long
+    private static final double LARGEST_FIXED = 1e14;
+
+    private FixedPointFormat() {
+    }
+
+    // Appends value rounded half-up to decimals places, decimals between 0 and 9
+    public static StringBuilder append(StringBuilder out, float value, int decimals) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return out.append(value);
+        }
+        double magnitude = Math.abs((double) value);
+        if (magnitude >= LARGEST_FIXED) {
+            // Rare enough that the general path is fine
+            return out.append(String.format("%." + decimals + "f", value));
+        }
+        if (Float.floatToRawIntBits(value) < 0) {
+            out.append('-');
+        }
+        long power = POWERS_OF_TEN[decimals];
+        long scaled = Math.round(magnitude * power);
+        out.append(scaled / power);
+        if (decimals > 0) {
+            out.append('.');
+            long fraction = scaled % power;
+            for (long digit = power / 10; digit > 1 && fraction < digit; digit /= 10) {
+                out.append('0');
+            }
+            out.append(fraction);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,37 @@
+package pl.szajsjem.data;
+
+/**
+ * Scaling applied to the data, per column: a scaled value is
+ * (raw - min) / range. For min-max scaling these are the column's min and
+ * range; z-score and robust scaling store their center and spread the same
+ * way. Columns that were left alone have min 0 and range 1.
+ */
+public class Normalization {
+    public final float[] inputMin;
+    public final float[] inputRange;
+    public final float[] outputMin;
+    public final float[] outputRange;
+
+    public Normalization(float[] inputMin, float[] inputRange, float[] outputMin, float[] outputRange) {
+        this.inputMin = inputMin;
+        this.inputRange = inputRange;
+        this.outputMin = outputMin;
+        this.outputRange = outputRange;
+    }
+
+    // The scaling equivalent to applying this one and then next
+    public Normalization then(Normalization next) {
+        float[] inMin = inputMin.clone(), inRange = inputRange.clone();
+        float[] outMin = outputMin.clone(), outRange = outputRange.clone();
+        compose(inMin, inRange, next.inputMin, next.inputRange);
+        compose(outMin, outRange, next.outputMin, next.outputRange);
+        return new Normalization(inMin, inRange, outMin, outRange);
+    }
+
+    private static void compose(float[] min, float[] range, float[] nextMin, float[] nextRange) {
+        for (int i = 0; i < min.length; i++) {
+            min[i] += nextMin[i] * range[i];
+            range[i] *= nextRange[i];
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package pl.szajsjem.data;
+
+import com.beednn.Net;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Everything done to raw values before they reach the network, fitted on
+ * the training data: categorical columns are turned into their category
+ * index and then expanded by the column's {@link ColumnEncoder}, every other
+ * input column is scaled the way the training data was and then clipped to
+ * the range seen in training. Network outputs are mapped
+ * back to raw units the same way in reverse. Saved in model bundles, so a
+ * loaded model takes raw values like the training CSV had.
+ */
+public class PreprocessingPipeline {
+    private final String[] inputColumnNames;
+    private final String[] outputColumnNames;
+    // As loaded from the CSV, keyed by CSV column
+    private final Map<Integer, CategoricalMapping> categoricalMappings;
+    // Null if the data wasn't normalized
+    private final Normalization normalization;
+    // In scaled units, null if no clipping
+    private final float[] clipMin, clipMax;
+    // By input column, null for numeric columns
+    private final ColumnEncoder[] inputEncoders;
+    private final int encodedInputSize;
+
+    // Per-column lookups worked out from the above
+    private final CategoricalMapping[] inputCategories, outputCategories;
+    private final float[] inputOffset, inputInverseScale;
+    private final float[] lower, upper;
+
+    public PreprocessingPipeline(String[] inputColumnNames, String[] outputColumnNames,
+                                 Map<Integer, CategoricalMapping> categoricalMappings, Normalization normalization,
+                                 float[] clipMin, float[] clipMax, ColumnEncoder[] inputEncoders) {
+        this.inputColumnNames = inputColumnNames;
+        this.outputColumnNames = outputColumnNames;
+        this.categoricalMappings = categoricalMappings != null ? new HashMap<>(categoricalMappings) : new HashMap<>();
+        this.normalization = normalization;
+        this.clipMin = clipMin;
+        this.clipMax = clipMax;
+        this.inputEncoders = inputEncoders != null ? inputEncoders : new ColumnEncoder[inputColumnNames.length];
+        encodedInputSize = ColumnEncoder.encodedWidth(this.inputEncoders);
+
+        int inputs = inputColumnNames.length;
+        inputCategories = byName(inputColumnNames, this.categoricalMappings, 0);
+        outputCategories = byName(outputColumnNames, this.categoricalMappings, inputs);
+        inputOffset = new float[inputs];
+        inputInverseScale = new float[inputs];
+        lower = new float[inputs];
+        upper = new float[inputs];
+        for (int c = 0; c < inputs; c++) {
+            inputOffset[c] = normalization != null ? normalization.inputMin[c] : 0;
+            inputInverseScale[c] = normalization != null ? 1 / normalization.inputRange[c] : 1;
+            lower[c] = clipMin != null ? clipMin[c] : Float.NEGATIVE_INFINITY;
+            upper[c] = clipMax != null ? clipMax[c] : Float.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Fits the pipeline to the data as it is now. The data must already be
+     * scaled by the normalization; its input ranges become the clip bounds.
+     */
+    public static PreprocessingPipeline fit(CSVLoaderDialog.LoadedData data, Normalization normalization) {
+        ColumnStatistics stats = ColumnStatistics.compute(data.inputs, null);
+        return new PreprocessingPipeline(data.inputColumnNames, data.outputColumnNames,
+                data.categoricalMappings, normalization, stats.min.clone(), stats.max.clone(), data.inputEncoders);
+    }
+
+    // The mapping for each column, matched by name since the mappings are keyed by CSV column
+    static CategoricalMapping[] byName(String[] names, Map<Integer, CategoricalMapping> mappings, int firstKey) {
+        CategoricalMapping[] columns = new CategoricalMapping[names.length];
+        for (int i = 0; i < names.length; i++) {
+            for (CategoricalMapping mapping : mappings.values()) {
+                if (mapping.getColumnName().equals(names[i])) {
+                    columns[i] = mapping;
+                    break;
+                }
+            }
+            if (columns[i] == null) {
+                // Nameless columns from older files: inputs first, then outputs
+                columns[i] = mappings.get(firstKey + i);
+            }
+        }
+        return columns;
+    }
+
+    // Raw text of an input column as the value the network was trained on, before scaling
+    public float encodeInput(int column, String raw) {
+        CategoricalMapping mapping = inputCategories[column];
+        if (mapping != null) {
+            int index = mapping.indexOf(raw);
+            if (index < 0) {
+                throw new IllegalArgumentException("Unknown " + inputColumnNames[column] + " value: " + raw);
+            }
+            return index;
+        }
+        return Float.parseFloat(raw);
+    }
+
+    /**
+     * Scales and clips rows of encoded inputs and expands their categorical
+     * columns into out in a single pass, getEncodedInputSize() values per row.
+     */
+    public void transformInputs(float[] in, int rows, float[] out) {
+        int columns = inputOffset.length;
+        int position = 0;
+        for (int r = 0; r < rows; r++) {
+            int base = r * columns;
+            for (int c = 0; c < columns; c++) {
+                ColumnEncoder encoder = inputEncoders[c];
+                if (encoder != null) {
+                    encoder.encode(in[base + c], out, position);
+                    position += encoder.width;
+                } else {
+                    float scaled = (in[base + c] - inputOffset[c]) * inputInverseScale[c];
+                    out[position++] = Math.min(Math.max(scaled, lower[c]), upper[c]);
+                }
+            }
+        }
+    }
+
+    // Network outputs back in raw units, in place
+    public void inverseOutputs(float[] values, int rows) {
+        if (normalization == null) return;
+        int columns = normalization.outputMin.length;
+        for (int r = 0; r < rows; r++) {
+            int base = r * columns;
+            for (int c = 0; c < columns; c++) {
+                values[base + c] = values[base + c] * normalization.outputRange[c] + normalization.outputMin[c];
+            }
+        }
+    }
+
+    /**
+     * Runs encoded input rows through the network: transform, one batched
+     * predict, back to raw units. Returns outputSize values per row.
+     */
+    public float[] predict(Net network, float[] encodedInputs, int rows, int outputSize) {
+        float[] scaled = new float[rows * encodedInputSize];
+        transformInputs(encodedInputs, rows, scaled);
+        float[] outputs = new float[rows * outputSize];
+        network.predict(scaled, rows, encodedInputSize, outputs);
+        inverseOutputs(outputs, rows);
+        return outputs;
+    }
+
+    // A raw output value for display, with the category name for categorical outputs
+    public String formatOutput(int column, float value) {
+        CategoricalMapping mapping = column < outputCategories.length ? outputCategories[column] : null;
+        if (mapping != null && mapping.getCategories() > 0) {
+            int index = Math.max(0, Math.min(mapping.getCategories() - 1, Math.round(value)));
+            return String.format("%s (%.2f)", mapping.getValue(index), value);
+        }
+        return String.format("%.4f", value);
+    }
+
+    public String[] getInputColumnNames() {
+        return inputColumnNames;
+    }
+
+    public String[] getOutputColumnNames() {
+        return outputColumnNames;
+    }
+
+    public Map<Integer, CategoricalMapping> getCategoricalMappings() {
+        return categoricalMappings;
+    }
+
+    public Normalization getNormalization() {
+        return normalization;
+    }
+
+    public float[] getClipMin() {
+        return clipMin;
+    }
+
+    public float[] getClipMax() {
+        return clipMax;
+    }
+
+    public ColumnEncoder[] getInputEncoders() {
+        return inputEncoders;
+    }
+
+    // Values per row the network takes
+    public int getEncodedInputSize() {
+        return encodedInputSize;
+    }
+}
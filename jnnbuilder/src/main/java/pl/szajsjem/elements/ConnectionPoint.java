@@ -2,7 +2,6 @@ package pl.szajsjem.elements;
 
 import java.awt.*;
 import java.awt.geom.Path2D;
-import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -31,7 +30,17 @@ public class ConnectionPoint {
         return isInput;
     }
 
+    private static final BasicStroke CONNECTION_STROKE = new BasicStroke(2.0f);
+    private static final int CONTROL_DIST = 50;
+
     public void paint(Graphics2D g2d, boolean isSelected) {
+        paintDot(g2d, isSelected);
+        if (!isInput) {  // Draw only once
+            paintConnections(g2d, null);
+        }
+    }
+
+    public void paintDot(Graphics2D g2d, boolean isSelected) {
         g2d.setColor(highlighted ? Color.GREEN :
                 (isSelected ? new Color(0, 100, 200) : Color.BLACK));
         g2d.fillOval(parent.x + x - 5, parent.y + y - 5, 10, 10);
@@ -42,23 +51,43 @@ public class ConnectionPoint {
         int textY = isInput ? parent.y + y - 10 : parent.y + y + 20;
         int textX = parent.x + x - fm.stringWidth(name) / 2;
         g2d.drawString(name, textX, textY);
+    }
 
-        if (!isInput) {  // Draw only once
-            Point start = getAbsolutePos();
-            for (var targetPoint : connected) {
-                Point end = targetPoint.getAbsolutePos();
-                g2d.setColor(Color.BLACK);
-                g2d.setStroke(new BasicStroke(2.0f));
-                int controlDist = 50;
-                Point2D.Float ctrl1 = new Point2D.Float(start.x + controlDist, start.y);
-                Point2D.Float ctrl2 = new Point2D.Float(end.x - controlDist, end.y);
+    /**
+     * Draws the outgoing connections whose curve bounds intersect the view
+     * (all of them when view is null) and returns how many were drawn.
+     */
+    public int paintConnections(Graphics2D g2d, Rectangle view) {
+        if (isInput || connected.isEmpty()) return 0;
 
-                Path2D.Float path = new Path2D.Float();
-                path.moveTo(start.x, start.y);
-                path.curveTo(ctrl1.x, ctrl1.y, ctrl2.x, ctrl2.y, end.x, end.y);
-                g2d.draw(path);
+        int startX = parent.x + x;
+        int startY = parent.y + y;
+        int drawn = 0;
+        g2d.setColor(Color.BLACK);
+        g2d.setStroke(CONNECTION_STROKE);
+        for (var targetPoint : connected) {
+            int endX = targetPoint.parent.x + targetPoint.x;
+            int endY = targetPoint.parent.y + targetPoint.y;
+
+            if (view != null) {
+                // Bezier curve stays inside the hull of its control points
+                int minX = Math.min(startX, endX - CONTROL_DIST);
+                int maxX = Math.max(startX + CONTROL_DIST, endX);
+                int minY = Math.min(startY, endY);
+                int maxY = Math.max(startY, endY);
+                if (maxX < view.x || minX > view.x + view.width ||
+                        maxY < view.y || minY > view.y + view.height) {
+                    continue;
+                }
             }
+
+            Path2D.Float path = new Path2D.Float();
+            path.moveTo(startX, startY);
+            path.curveTo(startX + CONTROL_DIST, startY, endX - CONTROL_DIST, endY, endX, endY);
+            g2d.draw(path);
+            drawn++;
         }
+        return drawn;
     }
 
     public boolean isOver(Point p) {
@@ -1,9 +1,14 @@
 package pl.szajsjem.elements;
 
 import java.awt.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // Base class for all nodes
 public class Node {
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    // Unique for the lifetime of the process, not saved with the design
+    private final int id = NEXT_ID.incrementAndGet();
     public int x;
     public int y;
     public int width = 100;
@@ -12,6 +17,9 @@ public class Node {
     public ConnectionPoint next = new ConnectionPoint(this, "out", false, width, height / 2);
     public ConnectionPoint prev = new ConnectionPoint(this, "in", true, 0, height / 2);
 
+    // Set when the last validation reported a problem with this node
+    public boolean errorHighlighted = false;
+
     protected String[] stringParams;
     protected float[] floatParams;
 
@@ -46,11 +54,20 @@ public class Node {
         this.floatParams = params;
     }
 
+    public int getId() {
+        return id;
+    }
+
     public String getType() {
         return type;
     }
 
     public void paint(Graphics2D g, boolean isSelected) {
+        paintBody(g, isSelected);
+        paintConnections(g, null);
+    }
+
+    public void paintBody(Graphics2D g, boolean isSelected) {
         g.setStroke(new BasicStroke(2.0f));
         // Background
         if (isSelected) {
@@ -62,13 +79,46 @@ public class Node {
         // Node body
         g.setColor(Color.WHITE);
         g.fillRect(x, y, width, height);
-        g.setColor(isSelected ? new Color(0, 100, 200) : Color.BLACK);
+        g.setColor(errorHighlighted ? new Color(200, 30, 30) : isSelected ? new Color(0, 100, 200) : Color.BLACK);
         g.drawRect(x, y, width, height);
         g.drawString(label, x + 10, y + height / 2);
 
         // Connection points
-        next.paint(g, isSelected);
-        prev.paint(g, isSelected);
+        next.paintDot(g, isSelected);
+        prev.paintDot(g, isSelected);
+    }
+
+    // Draws outgoing connections intersecting the view, returns how many were drawn
+    public int paintConnections(Graphics2D g, Rectangle view) {
+        return next.paintConnections(g, view);
+    }
+
+    public int getOutgoingConnectionCount() {
+        return next.connected.size();
+    }
+
+    // Connection points by index: 0 is the input, 1 the output, special points follow
+    public int getPointCount() {
+        return 2;
+    }
+
+    public ConnectionPoint getPoint(int index) {
+        if (index == 0) return prev;
+        if (index == 1) return next;
+        return null;
+    }
+
+    public int indexOfPoint(ConnectionPoint point) {
+        if (point == prev) return 0;
+        if (point == next) return 1;
+        return -1;
+    }
+
+    // Whether the node, including its point labels, may be visible in the view
+    public boolean intersects(Rectangle view) {
+        int margin = 30;
+        return x + width + margin >= view.x && x - margin <= view.x + view.width &&
+                y + height + margin >= view.y && y - margin <= view.y + view.height;
     }
 
     //returns what connection point it is over
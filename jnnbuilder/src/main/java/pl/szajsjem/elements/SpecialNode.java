@@ -47,9 +47,43 @@ public class SpecialNode extends Node {
     }
 
     @Override
-    public void paint(Graphics2D g, boolean isSelected) {
-        super.paint(g, isSelected);
+    public void paintBody(Graphics2D g, boolean isSelected) {
+        super.paintBody(g, isSelected);
         for (var sp : specialPoints)
-            sp.paint(g, isSelected);
+            sp.paintDot(g, isSelected);
+    }
+
+    @Override
+    public int paintConnections(Graphics2D g, Rectangle view) {
+        int drawn = super.paintConnections(g, view);
+        for (var sp : specialPoints)
+            drawn += sp.paintConnections(g, view);
+        return drawn;
+    }
+
+    @Override
+    public int getPointCount() {
+        return 2 + specialPoints.size();
+    }
+
+    @Override
+    public ConnectionPoint getPoint(int index) {
+        if (index >= 2 && index - 2 < specialPoints.size()) return specialPoints.get(index - 2);
+        return super.getPoint(index);
+    }
+
+    @Override
+    public int indexOfPoint(ConnectionPoint point) {
+        int index = specialPoints.indexOf(point);
+        return index >= 0 ? 2 + index : super.indexOfPoint(point);
+    }
+
+    @Override
+    public int getOutgoingConnectionCount() {
+        int count = super.getOutgoingConnectionCount();
+        for (var sp : specialPoints) {
+            if (!sp.isInput()) count += sp.connected.size();
+        }
+        return count;
     }
 }
@@ -0,0 +1,102 @@
+package pl.szajsjem.graph;
+
+import pl.szajsjem.elements.Node;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps an immutable, structurally shared copy of the editor graph next to
+ * the mutable nodes. Edits only mark nodes dirty; {@link #snapshot()} copies
+ * the dirty nodes into a new version of the trie, sharing everything else
+ * with the previous snapshot, so taking a snapshot after a small edit is
+ * cheap no matter how big the graph is.
+ * <p>
+ * The model itself is confined to the Swing event thread like the nodes it
+ * watches. The snapshots it hands out are immutable and safe to use anywhere.
+ */
+public class GraphModel implements NodeList.Listener {
+    // Nodes currently in the graph, by id
+    private final Map<Integer, Node> live = new HashMap<>();
+    // Ids changed since the last snapshot
+    private final Map<Integer, Node> dirty = new HashMap<>();
+    private GraphSnapshot current = GraphSnapshot.EMPTY;
+
+    public GraphModel(NodeList nodes) {
+        for (Node node : nodes) {
+            nodeAdded(node);
+        }
+        nodes.addListener(this);
+    }
+
+    @Override
+    public void nodeAdded(Node node) {
+        live.put(node.getId(), node);
+        dirty.put(node.getId(), node);
+    }
+
+    @Override
+    public void nodeRemoved(Node node) {
+        live.remove(node.getId());
+        dirty.put(node.getId(), node);
+    }
+
+    // Marks a node as changed; nodes that aren't in the graph are ignored
+    public void touch(Node node) {
+        if (live.get(node.getId()) == node) {
+            dirty.put(node.getId(), node);
+        }
+    }
+
+    public void touchAll(Collection<Node> nodes) {
+        for (Node node : nodes) {
+            touch(node);
+        }
+    }
+
+    public boolean hasChanges() {
+        return !dirty.isEmpty();
+    }
+
+    public GraphSnapshot getLastSnapshot() {
+        return current;
+    }
+
+    /**
+     * Returns a snapshot of the current graph. If nothing changed since the
+     * last call the same snapshot is returned, otherwise only the nodes
+     * marked dirty are copied and the version number goes up.
+     */
+    public GraphSnapshot snapshot() {
+        if (dirty.isEmpty()) {
+            return current;
+        }
+
+        PersistentIntMap<NodeRecord> records = current.getRecordMap();
+        boolean changed = false;
+        for (Map.Entry<Integer, Node> entry : dirty.entrySet()) {
+            int id = entry.getKey();
+            NodeRecord before = records.get(id);
+            if (!live.containsKey(id)) {
+                if (before != null) {
+                    records = records.remove(id);
+                    changed = true;
+                }
+                continue;
+            }
+            NodeRecord after = NodeRecord.of(entry.getValue());
+            // Touched but unchanged nodes keep their old record, so diffs stay exact
+            if (!after.sameState(before)) {
+                records = records.put(id, after);
+                changed = true;
+            }
+        }
+        dirty.clear();
+
+        if (changed) {
+            current = new GraphSnapshot(current.getVersion() + 1, records);
+        }
+        return current;
+    }
+}
@@ -0,0 +1,103 @@
+package pl.szajsjem.graph;
+
+import pl.szajsjem.elements.ConnectionPoint;
+import pl.szajsjem.elements.Node;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, versioned view of the network taken by {@link GraphModel}.
+ * Snapshots can be handed to any thread and read while the editor keeps
+ * changing the live graph. Records are ordered by node id, which is the
+ * order the nodes were created in.
+ */
+public final class GraphSnapshot {
+    static final GraphSnapshot EMPTY = new GraphSnapshot(0, PersistentIntMap.empty());
+
+    private final long version;
+    private final PersistentIntMap<NodeRecord> records;
+
+    GraphSnapshot(long version, PersistentIntMap<NodeRecord> records) {
+        this.version = version;
+        this.records = records;
+    }
+
+    // A snapshot of records kept elsewhere, e.g. read back from disk
+    public static GraphSnapshot of(long version, Collection<NodeRecord> records) {
+        PersistentIntMap<NodeRecord> map = PersistentIntMap.empty();
+        for (NodeRecord record : records) {
+            map = map.put(record.getId(), record);
+        }
+        return new GraphSnapshot(version, map);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    public boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    public NodeRecord get(int nodeId) {
+        return records.get(nodeId);
+    }
+
+    public List<NodeRecord> getRecords() {
+        List<NodeRecord> list = new ArrayList<>(records.size());
+        records.forEach((id, record) -> list.add(record));
+        return list;
+    }
+
+    PersistentIntMap<NodeRecord> getRecordMap() {
+        return records;
+    }
+
+    /**
+     * Reports the nodes added, removed or changed between this snapshot and
+     * a newer one. Only the parts of the trie that differ are visited.
+     */
+    public void diff(GraphSnapshot newer, PersistentIntMap.DiffVisitor<NodeRecord> visitor) {
+        records.diff(newer.records, visitor);
+    }
+
+    /**
+     * Builds a detached copy of the graph as regular nodes, connected on both
+     * ends. The copy shares nothing with the editor, so it can be validated or
+     * compiled on another thread.
+     */
+    public List<Node> materialize() {
+        Map<Integer, Node> byId = new HashMap<>(records.size() * 2);
+        List<Node> nodes = new ArrayList<>(records.size());
+        records.forEach((id, record) -> {
+            Node node = record.toNode();
+            byId.put(id, node);
+            nodes.add(node);
+        });
+
+        records.forEach((id, record) -> {
+            Node node = byId.get(id);
+            for (int p = 0; p < record.getPointCount(); p++) {
+                ConnectionPoint point = node.getPoint(p);
+                if (point == null) continue;
+                for (int l = 0; l < record.getLinkCount(p); l++) {
+                    Node other = byId.get(record.getLinkedNode(p, l));
+                    ConnectionPoint target = other != null ? other.getPoint(record.getLinkedPoint(p, l)) : null;
+                    if (target == null) continue;
+                    // Usually recorded on both ends already, but older files only link one side
+                    if (!point.connected.contains(target)) point.connected.add(target);
+                    if (!target.connected.contains(point)) target.connected.add(point);
+                }
+            }
+        });
+        return nodes;
+    }
+}
@@ -0,0 +1,117 @@
+package pl.szajsjem.graph;
+
+import pl.szajsjem.elements.Node;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The editor's node list. Behaves like a plain ArrayList but tells a
+ * listener about every node that is added or removed, so code that
+ * manipulates the list directly still keeps the {@link GraphModel} in sync.
+ */
+public class NodeList extends ArrayList<Node> {
+    public interface Listener {
+        void nodeAdded(Node node);
+
+        void nodeRemoved(Node node);
+    }
+
+    private final List<Listener> listeners = new ArrayList<>();
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    private void added(Node node) {
+        for (Listener listener : listeners) listener.nodeAdded(node);
+    }
+
+    private void removed(Node node) {
+        for (Listener listener : listeners) listener.nodeRemoved(node);
+    }
+
+    @Override
+    public boolean add(Node node) {
+        super.add(node);
+        added(node);
+        return true;
+    }
+
+    @Override
+    public void add(int index, Node node) {
+        super.add(index, node);
+        added(node);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Node> nodes) {
+        boolean changed = super.addAll(nodes);
+        for (Node node : nodes) added(node);
+        return changed;
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Node> nodes) {
+        boolean changed = super.addAll(index, nodes);
+        for (Node node : nodes) added(node);
+        return changed;
+    }
+
+    @Override
+    public Node set(int index, Node node) {
+        Node old = super.set(index, node);
+        if (old != node) {
+            removed(old);
+            added(node);
+        }
+        return old;
+    }
+
+    @Override
+    public Node remove(int index) {
+        Node old = super.remove(index);
+        removed(old);
+        return old;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        boolean changed = super.remove(o);
+        if (changed) removed((Node) o);
+        return changed;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        return removeIf(c::contains);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        return removeIf(node -> !c.contains(node));
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Node> filter) {
+        List<Node> gone = new ArrayList<>();
+        boolean changed = super.removeIf(node -> {
+            if (filter.test(node)) {
+                gone.add(node);
+                return true;
+            }
+            return false;
+        });
+        for (Node node : gone) removed(node);
+        return changed;
+    }
+
+    @Override
+    public void clear() {
+        List<Node> gone = new ArrayList<>(this);
+        super.clear();
+        for (Node node : gone) removed(node);
+    }
+}
@@ -0,0 +1,179 @@
+package pl.szajsjem.graph;
+
+import pl.szajsjem.elements.ConnectionPoint;
+import pl.szajsjem.elements.Node;
+import pl.szajsjem.elements.SpecialNode;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Immutable copy of a node as it was when a snapshot was taken. Connections
+ * are stored per connection point (see {@link Node#getPoint(int)}) as packed
+ * (node id, point index) pairs and are present on both ends.
+ */
+public final class NodeRecord {
+    private static final long[] NO_LINKS = new long[0];
+
+    private final int id;
+    private final String type;
+    private final boolean special;
+    private final int x, y;
+    private final String[] stringParams;
+    private final float[] floatParams;
+    private final long[][] links;
+
+    private NodeRecord(int id, String type, boolean special, int x, int y,
+                       String[] stringParams, float[] floatParams, long[][] links) {
+        this.id = id;
+        this.type = type;
+        this.special = special;
+        this.x = x;
+        this.y = y;
+        this.stringParams = stringParams;
+        this.floatParams = floatParams;
+        this.links = links;
+    }
+
+    public static NodeRecord of(Node node) {
+        long[][] links = new long[node.getPointCount()][];
+        for (int p = 0; p < links.length; p++) {
+            ConnectionPoint point = node.getPoint(p);
+            if (point.connected.isEmpty()) {
+                links[p] = NO_LINKS;
+                continue;
+            }
+            links[p] = new long[point.connected.size()];
+            for (int i = 0; i < links[p].length; i++) {
+                ConnectionPoint other = point.connected.get(i);
+                links[p][i] = pack(other.parent.getId(), other.parent.indexOfPoint(other));
+            }
+        }
+        return new NodeRecord(node.getId(), node.getType(), node instanceof SpecialNode, node.x, node.y,
+                node.getStringParams().clone(), node.getFloatParams().clone(), links);
+    }
+
+    private static long pack(int nodeId, int pointIndex) {
+        return ((long) nodeId << 8) | (pointIndex & 0xFF);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public boolean isSpecial() {
+        return special;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public String[] getStringParams() {
+        return stringParams.clone();
+    }
+
+    public float[] getFloatParams() {
+        return floatParams.clone();
+    }
+
+    public int getPointCount() {
+        return links.length;
+    }
+
+    public int getLinkCount(int point) {
+        return links[point].length;
+    }
+
+    // Id of the node on the other end of the given connection
+    public int getLinkedNode(int point, int link) {
+        return (int) (links[point][link] >>> 8);
+    }
+
+    // Point index on the other end of the given connection
+    public int getLinkedPoint(int point, int link) {
+        return (int) (links[point][link] & 0xFF);
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(id);
+        out.writeUTF(type);
+        out.writeBoolean(special);
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeInt(stringParams.length);
+        for (String param : stringParams) {
+            out.writeBoolean(param != null);
+            if (param != null) out.writeUTF(param);
+        }
+        out.writeInt(floatParams.length);
+        for (float param : floatParams) {
+            out.writeFloat(param);
+        }
+        out.writeInt(links.length);
+        for (long[] pointLinks : links) {
+            out.writeInt(pointLinks.length);
+            for (long link : pointLinks) {
+                out.writeLong(link);
+            }
+        }
+    }
+
+    public static NodeRecord readFrom(DataInput in) throws IOException {
+        int id = in.readInt();
+        String type = in.readUTF();
+        boolean special = in.readBoolean();
+        int x = in.readInt();
+        int y = in.readInt();
+        String[] stringParams = new String[in.readInt()];
+        for (int i = 0; i < stringParams.length; i++) {
+            stringParams[i] = in.readBoolean() ? in.readUTF() : null;
+        }
+        float[] floatParams = new float[in.readInt()];
+        for (int i = 0; i < floatParams.length; i++) {
+            floatParams[i] = in.readFloat();
+        }
+        long[][] links = new long[in.readInt()][];
+        for (int p = 0; p < links.length; p++) {
+            int count = in.readInt();
+            links[p] = count == 0 ? NO_LINKS : new long[count];
+            for (int i = 0; i < count; i++) {
+                links[p][i] = in.readLong();
+            }
+        }
+        return new NodeRecord(id, type, special, x, y, stringParams, floatParams, links);
+    }
+
+    // Builds a fresh, unconnected node with this record's state
+    public Node toNode() {
+        Node node = special ? new SpecialNode(type) : new Node(type);
+        node.x = x;
+        node.y = y;
+        node.setStringParams(stringParams.clone());
+        node.setFloatParams(floatParams.clone());
+        return node;
+    }
+
+    boolean sameState(NodeRecord other) {
+        return sameStructure(other) && x == other.x && y == other.y;
+    }
+
+    // Same node, parameters and connections; the position may differ
+    public boolean sameStructure(NodeRecord other) {
+        return other != null && id == other.id && special == other.special
+                && type.equals(other.type)
+                && Arrays.equals(stringParams, other.stringParams)
+                && Arrays.equals(floatParams, other.floatParams)
+                && Arrays.deepEquals(links, other.links);
+    }
+}
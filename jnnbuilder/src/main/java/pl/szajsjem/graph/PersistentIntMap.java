@@ -0,0 +1,173 @@
+package pl.szajsjem.graph;
+
+/**
+ * Immutable map from non-negative int keys to values, stored as a 32-way
+ * bit-partitioned trie. Updates copy only the path to the changed leaf, so an
+ * updated map shares everything else with the map it was derived from, and
+ * two versions can be diffed by skipping subtrees they share.
+ */
+public final class PersistentIntMap<V> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final PersistentIntMap<?> EMPTY = new PersistentIntMap<>(null, 0, 0);
+
+    public interface Visitor<V> {
+        void visit(int key, V value);
+    }
+
+    public interface DiffVisitor<V> {
+        // before is null for added keys, after is null for removed keys
+        void changed(int key, V before, V after);
+    }
+
+    private final Object[] root;
+    // Bits below the root level, the root covers keys up to 1 << (shift + BITS)
+    private final int shift;
+    private final int size;
+
+    private PersistentIntMap(Object[] root, int shift, int size) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentIntMap<V> empty() {
+        return (PersistentIntMap<V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (root == null || key < 0 || !fits(key, shift)) return null;
+        Object[] node = root;
+        for (int s = shift; s > 0; s -= BITS) {
+            node = (Object[]) node[(key >>> s) & MASK];
+            if (node == null) return null;
+        }
+        return (V) node[key & MASK];
+    }
+
+    public PersistentIntMap<V> put(int key, V value) {
+        if (key < 0) throw new IllegalArgumentException("Negative key " + key);
+        if (value == null) return remove(key);
+
+        Object[] newRoot = root;
+        int newShift = shift;
+        if (newRoot == null) {
+            newShift = 0;
+            while (!fits(key, newShift)) newShift += BITS;
+        } else {
+            // Grow upwards, the old root becomes the first child
+            while (!fits(key, newShift)) {
+                Object[] grown = new Object[WIDTH];
+                grown[0] = newRoot;
+                newRoot = grown;
+                newShift += BITS;
+            }
+        }
+
+        boolean[] added = new boolean[1];
+        newRoot = put(newRoot, newShift, key, value, added);
+        return new PersistentIntMap<>(newRoot, newShift, added[0] ? size + 1 : size);
+    }
+
+    private static Object[] put(Object[] node, int s, int key, Object value, boolean[] added) {
+        Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        int i = (key >>> s) & MASK;
+        if (s == 0) {
+            added[0] = copy[i] == null;
+            copy[i] = value;
+        } else {
+            copy[i] = put((Object[]) copy[i], s - BITS, key, value, added);
+        }
+        return copy;
+    }
+
+    public PersistentIntMap<V> remove(int key) {
+        if (get(key) == null) return this;
+        if (size == 1) return empty();
+        return new PersistentIntMap<>(remove(root, shift, key), shift, size - 1);
+    }
+
+    private static Object[] remove(Object[] node, int s, int key) {
+        int i = (key >>> s) & MASK;
+        Object child = s == 0 ? null : remove((Object[]) node[i], s - BITS, key);
+        Object[] copy = node.clone();
+        copy[i] = child;
+        // Drop branches that became empty so diffs don't walk them
+        for (Object o : copy) {
+            if (o != null) return copy;
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<? super V> visitor) {
+        if (root != null) forEach(root, shift, 0, (Visitor<Object>) visitor);
+    }
+
+    private static void forEach(Object[] node, int s, int base, Visitor<Object> visitor) {
+        for (int i = 0; i < WIDTH; i++) {
+            Object child = node[i];
+            if (child == null) continue;
+            int key = base | (i << s);
+            if (s == 0) {
+                visitor.visit(key, child);
+            } else {
+                forEach((Object[]) child, s - BITS, key, visitor);
+            }
+        }
+    }
+
+    /**
+     * Reports every key whose value differs between this map and the other
+     * one, compared by reference. Subtrees shared by both maps are skipped,
+     * so diffing two close versions costs roughly the number of changes.
+     */
+    @SuppressWarnings("unchecked")
+    public void diff(PersistentIntMap<V> other, DiffVisitor<? super V> visitor) {
+        if (root == other.root) return;
+        int s = Math.max(shift, other.shift);
+        diff(rootAt(s), other.rootAt(s), s, 0, (DiffVisitor<Object>) visitor);
+    }
+
+    private static void diff(Object[] a, Object[] b, int s, int base, DiffVisitor<Object> visitor) {
+        for (int i = 0; i < WIDTH; i++) {
+            Object ca = a != null ? a[i] : null;
+            Object cb = b != null ? b[i] : null;
+            if (ca == cb) continue;
+            int key = base | (i << s);
+            if (s == 0) {
+                visitor.changed(key, ca, cb);
+            } else {
+                diff((Object[]) ca, (Object[]) cb, s - BITS, key, visitor);
+            }
+        }
+    }
+
+    // The root viewed from a higher level, as if the trie had been grown to it
+    private Object[] rootAt(int s) {
+        Object[] node = root;
+        if (node == null) return null;
+        for (int level = shift; level < s; level += BITS) {
+            Object[] grown = new Object[WIDTH];
+            grown[0] = node;
+            node = grown;
+        }
+        return node;
+    }
+
+    private static boolean fits(int key, int s) {
+        return s + BITS >= 31 || key >>> (s + BITS) == 0;
+    }
+}